@@ -0,0 +1,349 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.microsoft.identity.client.AcquireTokenSilentParameters;
+import com.microsoft.identity.client.IAccount;
+import com.microsoft.identity.client.IAuthenticationResult;
+import com.microsoft.identity.client.IPublicClientApplication;
+import com.microsoft.identity.client.SilentAuthenticationCallback;
+import com.microsoft.identity.client.exception.MsalException;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of access tokens in front of MSAL's acquireTokenSilentAsync.
+ * <p>
+ * MSAL's silent path hops to a background thread, reads its persisted cache and validates the token
+ * on every call. An unexpired token found here is handed to the callback right away instead.
+ * Entries are keyed by account id, authority and the normalized scope set, so "User.Read Mail.Read"
+ * and "mail.read user.read" share a token. A token is only served while it stays valid for longer than
+ * the clock-skew margin; past that, MSAL is asked again so it can refresh it.
+ * Recently used tokens are renewed in the background before that by {@link TokenRefreshScheduler}.
+ * Identical acquisitions that miss the cache at the same time share one MSAL call, see {@link TokenSingleFlight}.
+ */
+public class AccessTokenCache {
+    /* A token is not served once it expires in less than this, to allow for clock skew and request time. */
+    private static final long DEFAULT_SKEW_MARGIN_MS = 5 * 60 * 1000;
+
+    private static final AccessTokenCache sInstance = new AccessTokenCache(DEFAULT_SKEW_MARGIN_MS);
+
+    private final Map<String, IAuthenticationResult> mEntries = new HashMap<>();
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final LatencyHistogram mHitLatency = new LatencyHistogram();
+    private final LatencyHistogram mMissLatency = new LatencyHistogram();
+    private final long mSkewMarginMs;
+    private final TokenRefreshScheduler mRefreshScheduler;
+    private final TokenSingleFlight mSingleFlight = new TokenSingleFlight();
+
+    /**
+     * @param skewMarginMs how long before its expiry a token stops being served.
+     */
+    AccessTokenCache(final long skewMarginMs) {
+        mSkewMarginMs = skewMarginMs;
+        mRefreshScheduler = new TokenRefreshScheduler(new Handler(Looper.getMainLooper()), this);
+    }
+
+    /**
+     * Returns the cache shared by every fragment.
+     */
+    public static AccessTokenCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Builds the key of a token. Scopes are trimmed, lower-cased, de-duplicated and sorted.
+     *
+     * @param authority authority the token is requested from, or null for the account's home authority.
+     */
+    static String getKey(@NonNull final IAccount account,
+                         @Nullable final String authority,
+                         @NonNull final List<String> scopes) {
+        final TreeSet<String> normalizedScopes = new TreeSet<>();
+        for (final String scope : scopes) {
+            final String normalizedScope = scope.trim().toLowerCase(Locale.ROOT);
+            if (normalizedScope.length() > 0) {
+                normalizedScopes.add(normalizedScope);
+            }
+        }
+
+        String normalizedAuthority = authority != null ? authority : account.getAuthority();
+        normalizedAuthority = normalizedAuthority != null ? normalizedAuthority.toLowerCase(Locale.ROOT) : "";
+        while (normalizedAuthority.endsWith("/")) {
+            normalizedAuthority = normalizedAuthority.substring(0, normalizedAuthority.length() - 1);
+        }
+
+        final StringBuilder key = new StringBuilder(account.getId()).append('|').append(normalizedAuthority).append('|');
+        for (final String scope : normalizedScopes) {
+            key.append(scope).append(' ');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Serves a cached token, or acquires one silently with MSAL and caches it.
+     *
+     * @param authority    authority to request the token from, or null for the account's home authority.
+     * @param forceRefresh if true, the cache is bypassed and MSAL refreshes the token.
+     * @param callback     receives the token. On a cache hit, it is called before this method returns.
+     */
+    public void acquireTokenSilentAsync(@NonNull final IPublicClientApplication application,
+                                        @NonNull final IAccount account,
+                                        @Nullable final String authority,
+                                        @NonNull final List<String> scopes,
+                                        final boolean forceRefresh,
+                                        @NonNull final SilentAuthenticationCallback callback) {
+        acquire(application, account, authority, scopes, forceRefresh, true, callback);
+    }
+
+    /**
+     * Renews a token with MSAL in the background and caches it. Not counted as a hit or miss.
+     */
+    void refresh(@NonNull final IPublicClientApplication application,
+                 @NonNull final IAccount account,
+                 @Nullable final String authority,
+                 @NonNull final List<String> scopes,
+                 @NonNull final SilentAuthenticationCallback callback) {
+        acquire(application, account, authority, scopes, true, false, callback);
+    }
+
+    /**
+     * Acquires a token ahead of its first use, i.e. by {@link TokenWarmUp}. Not counted as a hit or miss.
+     */
+    void warmUp(@NonNull final IPublicClientApplication application,
+                @NonNull final IAccount account,
+                @Nullable final String authority,
+                @NonNull final List<String> scopes,
+                @NonNull final SilentAuthenticationCallback callback) {
+        acquire(application, account, authority, scopes, false, false, callback);
+    }
+
+    private void acquire(@NonNull final IPublicClientApplication application,
+                         @NonNull final IAccount account,
+                         @Nullable final String authority,
+                         @NonNull final List<String> scopes,
+                         final boolean forceRefresh,
+                         final boolean userInitiated,
+                         @NonNull final SilentAuthenticationCallback callback) {
+        final long startNanos = System.nanoTime();
+        final String key = getKey(account, authority, scopes);
+
+        if (!forceRefresh) {
+            final IAuthenticationResult cached = get(key);
+            if (cached != null) {
+                if (userInitiated) {
+                    mHitCount.incrementAndGet();
+                    mHitLatency.record((System.nanoTime() - startNanos) / 1000);
+                    AuthInstrumentation.getInstance().record(AuthInstrumentation.Operation.ACQUIRE_TOKEN_SILENT,
+                            AuthInstrumentation.OUTCOME_CACHE_HIT, System.nanoTime() - startNanos);
+                    mRefreshScheduler.onTokenUsed(key);
+                }
+                callback.onSuccess(cached);
+                return;
+            }
+        }
+
+        if (userInitiated) {
+            mMissCount.incrementAndGet();
+        }
+
+        final String flightKey = TokenSingleFlight.getKey(key, forceRefresh);
+        final boolean leader = mSingleFlight.join(flightKey, new SilentAuthenticationCallback() {
+            @Override
+            public void onSuccess(IAuthenticationResult authenticationResult) {
+                if (userInitiated) {
+                    mRefreshScheduler.onTokenUsed(key);
+                    mMissLatency.record((System.nanoTime() - startNanos) / 1000);
+                    AuthInstrumentation.getInstance().record(AuthInstrumentation.Operation.ACQUIRE_TOKEN_SILENT,
+                            forceRefresh ? AuthInstrumentation.OUTCOME_REFRESH : AuthInstrumentation.OUTCOME_SILENT,
+                            System.nanoTime() - startNanos);
+                }
+                callback.onSuccess(authenticationResult);
+            }
+
+            @Override
+            public void onError(MsalException exception) {
+                if (userInitiated) {
+                    AuthInstrumentation.getInstance().record(AuthInstrumentation.Operation.ACQUIRE_TOKEN_SILENT,
+                            AuthInstrumentation.getOutcome(exception), System.nanoTime() - startNanos);
+                }
+                callback.onError(exception);
+            }
+        });
+
+        if (!leader) {
+            return;
+        }
+
+        final SilentAuthenticationCallback flightCallback = mSingleFlight.getCallback(flightKey);
+        final AcquireTokenSilentParameters parameters = new AcquireTokenSilentParameters.Builder()
+                .forAccount(account)
+                .fromAuthority(authority != null ? authority : account.getAuthority())
+                .withScopes(scopes)
+                .forceRefresh(forceRefresh)
+                .withCallback(new SilentAuthenticationCallback() {
+                    @Override
+                    public void onSuccess(IAuthenticationResult authenticationResult) {
+                        /* A token the cache refused expires within the skew margin; renewing it would loop. */
+                        if (put(key, authenticationResult)) {
+                            mRefreshScheduler.schedule(key, application, account, authority, scopes,
+                                    authenticationResult.getExpiresOn().getTime() - mSkewMarginMs, userInitiated);
+                        }
+
+                        flightCallback.onSuccess(authenticationResult);
+                    }
+
+                    @Override
+                    public void onError(MsalException exception) {
+                        flightCallback.onError(exception);
+                    }
+                })
+                .build();
+
+        application.acquireTokenSilentAsync(parameters);
+    }
+
+    /**
+     * Returns the cached token of the given key if it is still valid beyond the skew margin, or null.
+     */
+    @Nullable
+    synchronized IAuthenticationResult get(@NonNull final String key) {
+        final IAuthenticationResult result = mEntries.get(key);
+        if (result == null) {
+            return null;
+        }
+
+        if (!isFresh(result, System.currentTimeMillis())) {
+            mEntries.remove(key);
+            return null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Caches a token unless it expires within the skew margin.
+     *
+     * @return true if the token was cached.
+     */
+    synchronized boolean put(@NonNull final String key, @NonNull final IAuthenticationResult result) {
+        evictExpired();
+        if (!isFresh(result, System.currentTimeMillis())) {
+            return false;
+        }
+
+        mEntries.put(key, result);
+        return true;
+    }
+
+    /**
+     * Forgets the tokens of an account, i.e. when it signs out or is removed.
+     */
+    public synchronized void remove(@NonNull final String accountId) {
+        final String prefix = accountId + "|";
+        mRefreshScheduler.cancel(prefix);
+        final Iterator<String> keys = mEntries.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().startsWith(prefix)) {
+                keys.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        mRefreshScheduler.cancel("");
+        mEntries.clear();
+    }
+
+    /**
+     * Returns the de-duplication layer of identical in-flight acquisitions, i.e. to read how many were coalesced.
+     */
+    public TokenSingleFlight getSingleFlight() {
+        return mSingleFlight;
+    }
+
+    /**
+     * Returns the scheduler renewing tokens ahead of their expiry, i.e. to read how many renewals ran.
+     */
+    public TokenRefreshScheduler getRefreshScheduler() {
+        return mRefreshScheduler;
+    }
+
+    /**
+     * Number of calls served from this cache.
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * Number of calls that had to go through MSAL.
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Time to token of the calls served from this cache, in microseconds.
+     */
+    public LatencyHistogram getHitLatency() {
+        return mHitLatency;
+    }
+
+    /**
+     * Time to token of the calls that went through MSAL and succeeded, in microseconds.
+     */
+    public LatencyHistogram getMissLatency() {
+        return mMissLatency;
+    }
+
+    private boolean isFresh(@NonNull final IAuthenticationResult result, final long now) {
+        final Date expiresOn = result.getExpiresOn();
+        return expiresOn != null && expiresOn.getTime() - mSkewMarginMs > now;
+    }
+
+    private void evictExpired() {
+        final long now = System.currentTimeMillis();
+        final Iterator<IAuthenticationResult> results = mEntries.values().iterator();
+        while (results.hasNext()) {
+            if (!isFresh(results.next(), now)) {
+                results.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.microsoft.identity.client.AuthenticationCallback;
+import com.microsoft.identity.client.IAccount;
+import com.microsoft.identity.client.IAuthenticationResult;
+import com.microsoft.identity.client.IPublicClientApplication;
+import com.microsoft.identity.client.ISingleAccountPublicClientApplication;
+import com.microsoft.identity.client.exception.MsalException;
+import com.microsoft.identity.client.exception.MsalUiRequiredException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Latency and outcome of every MSAL operation, i.e. to tell how much auth time is served from memory,
+ * how much goes to MSAL's silent path or to a forced refresh, and how often the user has to step in.
+ * <p>
+ * Callbacks passed to MSAL are wrapped so the time from the call to its outcome is recorded in a
+ * {@link LatencyHistogram} per operation and outcome. Silent acquisitions are recorded by {@link AccessTokenCache}.
+ */
+public class AuthInstrumentation {
+
+    public enum Operation {
+        ACQUIRE_TOKEN,
+        ACQUIRE_TOKEN_SILENT,
+        SIGN_IN,
+        GET_ACCOUNTS,
+        GET_CURRENT_ACCOUNT
+    }
+
+    public static final String OUTCOME_SUCCESS = "success";
+
+    /**
+     * Served by {@link AccessTokenCache} without calling MSAL.
+     */
+    public static final String OUTCOME_CACHE_HIT = "cache_hit";
+
+    /**
+     * Served by MSAL's silent path, from its own cache or by redeeming the refresh token.
+     */
+    public static final String OUTCOME_SILENT = "silent";
+
+    /**
+     * Served by MSAL with forceRefresh, i.e. always through the token endpoint.
+     */
+    public static final String OUTCOME_REFRESH = "refresh";
+    public static final String OUTCOME_UI_REQUIRED = "ui_required";
+    public static final String OUTCOME_CANCELLED = "cancelled";
+
+    /**
+     * Count and percentiles of one outcome of one operation, in milliseconds.
+     */
+    public static class Entry {
+        public final Operation operation;
+        public final String outcome;
+        public final long count;
+        public final double p50Ms;
+        public final double p95Ms;
+        public final double p99Ms;
+        public final double maxMs;
+
+        Entry(@NonNull final Operation operation,
+              @NonNull final String outcome,
+              @NonNull final LatencyHistogram histogram) {
+            this.operation = operation;
+            this.outcome = outcome;
+            count = histogram.getCount();
+            p50Ms = histogram.getValueAtPercentile(50) / 1000.0;
+            p95Ms = histogram.getValueAtPercentile(95) / 1000.0;
+            p99Ms = histogram.getValueAtPercentile(99) / 1000.0;
+            maxMs = histogram.getMax() / 1000.0;
+        }
+    }
+
+    private static final AuthInstrumentation sInstance = new AuthInstrumentation();
+
+    private final ConcurrentHashMap<String, LatencyHistogram> mHistograms = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the instrumentation shared by every fragment.
+     */
+    public static AuthInstrumentation getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Classifies a failure, i.e. "ui_required" or "MsalClientException:device_network_not_available".
+     */
+    static String getOutcome(@NonNull final MsalException exception) {
+        if (exception instanceof MsalUiRequiredException) {
+            return OUTCOME_UI_REQUIRED;
+        }
+
+        return exception.getClass().getSimpleName() + ":" + exception.getErrorCode();
+    }
+
+    /**
+     * Records the duration of an operation that ended with the given outcome.
+     */
+    void record(@NonNull final Operation operation, @NonNull final String outcome, final long durationNanos) {
+        final String key = operation.name() + " " + outcome;
+
+        LatencyHistogram histogram = mHistograms.get(key);
+        if (histogram == null) {
+            final LatencyHistogram created = new LatencyHistogram();
+            histogram = mHistograms.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+
+        histogram.record(durationNanos / 1000);
+    }
+
+    /**
+     * Wraps the callback of an interactive operation (acquireToken or signIn) started right after this call.
+     */
+    public AuthenticationCallback wrap(@NonNull final Operation operation,
+                                       @NonNull final AuthenticationCallback callback) {
+        final long startNanos = System.nanoTime();
+        return new AuthenticationCallback() {
+            @Override
+            public void onCancel() {
+                record(operation, OUTCOME_CANCELLED, System.nanoTime() - startNanos);
+                callback.onCancel();
+            }
+
+            @Override
+            public void onSuccess(IAuthenticationResult authenticationResult) {
+                record(operation, OUTCOME_SUCCESS, System.nanoTime() - startNanos);
+                callback.onSuccess(authenticationResult);
+            }
+
+            @Override
+            public void onError(MsalException exception) {
+                record(operation, getOutcome(exception), System.nanoTime() - startNanos);
+                callback.onError(exception);
+            }
+        };
+    }
+
+    /**
+     * Wraps the callback of a getAccounts call started right after this call.
+     */
+    public IPublicClientApplication.LoadAccountsCallback wrap(@NonNull final IPublicClientApplication.LoadAccountsCallback callback) {
+        final long startNanos = System.nanoTime();
+        return new IPublicClientApplication.LoadAccountsCallback() {
+            @Override
+            public void onTaskCompleted(List<IAccount> result) {
+                record(Operation.GET_ACCOUNTS, OUTCOME_SUCCESS, System.nanoTime() - startNanos);
+                callback.onTaskCompleted(result);
+            }
+
+            @Override
+            public void onError(MsalException exception) {
+                record(Operation.GET_ACCOUNTS, getOutcome(exception), System.nanoTime() - startNanos);
+                callback.onError(exception);
+            }
+        };
+    }
+
+    /**
+     * Wraps the callback of a getCurrentAccountAsync call started right after this call.
+     * Only its first outcome is recorded.
+     */
+    public ISingleAccountPublicClientApplication.CurrentAccountCallback wrap(
+            @NonNull final ISingleAccountPublicClientApplication.CurrentAccountCallback callback) {
+        final long startNanos = System.nanoTime();
+        final AtomicBoolean recorded = new AtomicBoolean();
+        return new ISingleAccountPublicClientApplication.CurrentAccountCallback() {
+            @Override
+            public void onAccountLoaded(@Nullable IAccount activeAccount) {
+                if (recorded.compareAndSet(false, true)) {
+                    record(Operation.GET_CURRENT_ACCOUNT, OUTCOME_SUCCESS, System.nanoTime() - startNanos);
+                }
+                callback.onAccountLoaded(activeAccount);
+            }
+
+            @Override
+            public void onAccountChanged(@Nullable IAccount priorAccount, @Nullable IAccount currentAccount) {
+                if (recorded.compareAndSet(false, true)) {
+                    record(Operation.GET_CURRENT_ACCOUNT, OUTCOME_SUCCESS, System.nanoTime() - startNanos);
+                }
+                callback.onAccountChanged(priorAccount, currentAccount);
+            }
+
+            @Override
+            public void onError(@NonNull MsalException exception) {
+                if (recorded.compareAndSet(false, true)) {
+                    record(Operation.GET_CURRENT_ACCOUNT, getOutcome(exception), System.nanoTime() - startNanos);
+                }
+                callback.onError(exception);
+            }
+        };
+    }
+
+    /**
+     * Returns the count and percentiles of every operation and outcome recorded so far.
+     */
+    public List<Entry> getSnapshot() {
+        final List<Entry> snapshot = new ArrayList<>();
+        for (final Map.Entry<String, LatencyHistogram> histogram : mHistograms.entrySet()) {
+            final int separator = histogram.getKey().indexOf(' ');
+            snapshot.add(new Entry(Operation.valueOf(histogram.getKey().substring(0, separator)),
+                    histogram.getKey().substring(separator + 1),
+                    histogram.getValue()));
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Returns the snapshot as a table, one line per operation and outcome, i.e. to log it.
+     */
+    public String dump() {
+        final StringBuilder dump = new StringBuilder("operation outcome count p50 p95 p99 max (ms)\n");
+        for (final Entry entry : getSnapshot()) {
+            dump.append(String.format(Locale.ROOT, "%s %s %d %.1f %.1f %.1f %.1f\n",
+                    entry.operation, entry.outcome, entry.count, entry.p50Ms, entry.p95Ms, entry.p99Ms, entry.maxMs));
+        }
+
+        return dump.toString();
+    }
+
+    public void reset() {
+        mHistograms.clear();
+    }
+}
@@ -74,11 +74,15 @@ public class B2CModeFragment extends Fragment {
     /* Azure AD Variables */
     private IMultipleAccountPublicClientApplication b2cApp;
 
+    /* Token and Graph work outstanding for this fragment's view */
+    private MSGraphRequestScope mRequestScope;
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
         // Inflate the layout for this fragment
         final View view = inflater.inflate(R.layout.fragment_b2c_mode, container, false);
+        mRequestScope = new MSGraphRequestScope(getContext());
         initializeUI(view);
 
         // Creates a PublicClientApplication object with res/raw/auth_config_single_account.json
@@ -103,6 +107,13 @@ public class B2CModeFragment extends Fragment {
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        /* Nobody will see the result of outstanding work, and its callbacks must not touch the destroyed view. */
+        mRequestScope.close();
+        super.onDestroyView();
+    }
+
     /**
      * Initializes UI variables and callbacks.
      */
@@ -145,7 +156,8 @@ public class B2CModeFragment extends Fragment {
                         .fromAuthority(B2CConfiguration.getAuthorityFromPolicyName(policyListSpinner.getSelectedItem().toString()))
                         .withScopes(B2CConfiguration.getScopes())
                         .withPrompt(Prompt.LOGIN)
-                        .withCallback(getAuthInteractiveCallback())
+                        .withCallback(AuthInstrumentation.getInstance().wrap(AuthInstrumentation.Operation.ACQUIRE_TOKEN,
+                                mRequestScope.wrap(getAuthInteractiveCallback())))
                         .build();
 
                 b2cApp.acquireToken(parameters);
@@ -164,7 +176,7 @@ public class B2CModeFragment extends Fragment {
                 selectedUser.acquireTokenSilentAsync(b2cApp,
                         policyListSpinner.getSelectedItem().toString(),
                         B2CConfiguration.getScopes(),
-                        getAuthSilentCallback());
+                        mRequestScope.wrap(getAuthSilentCallback()));
             }
         });
 
@@ -176,7 +188,7 @@ public class B2CModeFragment extends Fragment {
 
                 final B2CUser selectedUser = users.get(b2cUserList.getSelectedItemPosition());
                 selectedUser.signOutAsync(b2cApp,
-                        new IMultipleAccountPublicClientApplication.RemoveAccountCallback() {
+                        mRequestScope.wrap(new IMultipleAccountPublicClientApplication.RemoveAccountCallback() {
                             @Override
                             public void onRemoved() {
                                 logTextView.setText("Signed Out.");
@@ -187,7 +199,7 @@ public class B2CModeFragment extends Fragment {
                             public void onError(@NonNull MsalException exception) {
                                 displayError(exception);
                             }
-                        });
+                        }));
             }
         });
     }
@@ -200,7 +212,7 @@ public class B2CModeFragment extends Fragment {
             return;
         }
 
-        b2cApp.getAccounts(new IPublicClientApplication.LoadAccountsCallback() {
+        b2cApp.getAccounts(AuthInstrumentation.getInstance().wrap(mRequestScope.wrap(new IPublicClientApplication.LoadAccountsCallback() {
             @Override
             public void onTaskCompleted(final List<IAccount> result) {
                 users = B2CUser.getB2CUsersFromAccountList(result);
@@ -211,7 +223,7 @@ public class B2CModeFragment extends Fragment {
             public void onError(MsalException exception) {
                 displayError(exception);
             }
-        });
+        })));
     }
 
     /**
@@ -25,7 +25,6 @@ package com.azuresamples.msalandroidapp;
 
 import androidx.annotation.NonNull;
 
-import com.microsoft.identity.client.AcquireTokenSilentParameters;
 import com.microsoft.identity.client.IAccount;
 import com.microsoft.identity.client.IMultipleAccountPublicClientApplication;
 import com.microsoft.identity.client.SilentAuthenticationCallback;
@@ -106,14 +105,12 @@ public class B2CUser {
 
         for (IAccount account : accounts) {
             if (policyName.equalsIgnoreCase(getB2CPolicyNameFromAccount(account))) {
-                AcquireTokenSilentParameters parameters = new AcquireTokenSilentParameters.Builder()
-                        .fromAuthority(B2CConfiguration.getAuthorityFromPolicyName(policyName))
-                        .withScopes(scopes)
-                        .forAccount(account)
-                        .withCallback(callback)
-                        .build();
-
-                multipleAccountPublicClientApplication.acquireTokenSilentAsync(parameters);
+                AccessTokenCache.getInstance().acquireTokenSilentAsync(multipleAccountPublicClientApplication,
+                        account,
+                        B2CConfiguration.getAuthorityFromPolicyName(policyName),
+                        scopes,
+                        false,
+                        callback);
                 return;
             }
         }
@@ -134,6 +131,7 @@ public class B2CUser {
                 try {
                     for (IAccount account : accounts) {
                         multipleAccountPublicClientApplication.removeAccount(account);
+                        AccessTokenCache.getInstance().remove(account.getId());
                     }
 
                     accounts.clear();
@@ -15,7 +15,6 @@ import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
 
 import com.microsoft.identity.client.AcquireTokenParameters;
-import com.microsoft.identity.client.AcquireTokenSilentParameters;
 import com.microsoft.identity.client.AuthenticationCallback;
 import com.microsoft.identity.client.IAccount;
 import com.microsoft.identity.client.IAuthenticationResult;
@@ -39,6 +38,9 @@ import java.util.List;
 public class CIAMModeFragment extends Fragment {
     private static final String TAG = CIAMModeFragment.class.getSimpleName();
 
+    /* Set to true to acquire a token for every signed-in account as soon as the accounts are loaded. */
+    private static final boolean WARM_UP_TOKENS_ON_LOAD = false;
+
     /* UI & Debugging Variables */
     Button removeAccountButton;
     Button callAcquireTokenInteractiveButton;
@@ -51,11 +53,17 @@ public class CIAMModeFragment extends Fragment {
     private IMultipleAccountPublicClientApplication mCiamApp;
     private List<IAccount> accountList;
 
+    /* Token and Graph work outstanding for this fragment's view */
+    private MSGraphRequestScope mRequestScope;
+
+    private final TokenWarmUp mTokenWarmUp = new TokenWarmUp();
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
         // Inflate the layout for this fragment
         final View view = inflater.inflate(R.layout.fragment_ciam_mode, container, false);
+        mRequestScope = new MSGraphRequestScope(getContext());
         initializeUI(view);
 
         // Creates a PublicClientApplication object with res/raw/auth_config_ciam.json
@@ -80,6 +88,14 @@ public class CIAMModeFragment extends Fragment {
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        /* Nobody will see the result of outstanding work, and its callbacks must not touch the destroyed view. */
+        mRequestScope.close();
+        mTokenWarmUp.cancel();
+        super.onDestroyView();
+    }
+
     /**
      * Initializes UI variables and callbacks.
      */
@@ -100,10 +116,13 @@ public class CIAMModeFragment extends Fragment {
                 /**
                  * Removes the selected account and cached tokens from this app (or device, if the device is in shared mode).
                  */
-                mCiamApp.removeAccount(accountList.get(accountListSpinner.getSelectedItemPosition()),
+                final IAccount removedAccount = accountList.get(accountListSpinner.getSelectedItemPosition());
+                mCiamApp.removeAccount(removedAccount,
                         new IMultipleAccountPublicClientApplication.RemoveAccountCallback() {
                             @Override
                             public void onRemoved() {
+                                AccessTokenCache.getInstance().remove(removedAccount.getId());
+
                                 Toast.makeText(getContext(), "Account removed.", Toast.LENGTH_SHORT)
                                         .show();
 
@@ -141,7 +160,8 @@ public class CIAMModeFragment extends Fragment {
                 final AcquireTokenParameters parameters = new AcquireTokenParameters.Builder()
                         .startAuthorizationFromActivity(getActivity())
                         .withScopes(Arrays.asList(getScopes()))
-                        .withCallback(getAuthInteractiveCallback())
+                        .withCallback(AuthInstrumentation.getInstance().wrap(AuthInstrumentation.Operation.ACQUIRE_TOKEN,
+                                mRequestScope.wrap(getAuthInteractiveCallback())))
                         .build();
 
                 mCiamApp.acquireToken(parameters);
@@ -165,15 +185,12 @@ public class CIAMModeFragment extends Fragment {
                  * This requires an account object of the account you're obtaining a token for.
                  * (can be obtained via getAccount()).
                  */
-                final AcquireTokenSilentParameters silentParameters = new AcquireTokenSilentParameters.Builder()
-                        .forAccount(selectedAccount)
-                        .fromAuthority(selectedAccount.getAuthority())
-                        .withScopes(Arrays.asList(getScopes()))
-                        .forceRefresh(false)
-                        .withCallback(getAuthSilentCallback())
-                        .build();
-
-                mCiamApp.acquireTokenSilentAsync(silentParameters);
+                AccessTokenCache.getInstance().acquireTokenSilentAsync(mCiamApp,
+                        selectedAccount,
+                        selectedAccount.getAuthority(),
+                        Arrays.asList(getScopes()),
+                        false,
+                        mRequestScope.wrap(getAuthSilentCallback()));
             }
         });
 
@@ -195,18 +212,39 @@ public class CIAMModeFragment extends Fragment {
             return;
         }
 
-        mCiamApp.getAccounts(new IPublicClientApplication.LoadAccountsCallback() {
+        mCiamApp.getAccounts(AuthInstrumentation.getInstance().wrap(mRequestScope.wrap(new IPublicClientApplication.LoadAccountsCallback() {
             @Override
             public void onTaskCompleted(final List<IAccount> result) {
                 // You can use the account data to update your UI or your app database.
                 accountList = result;
                 updateUI(accountList);
+
+                if (WARM_UP_TOKENS_ON_LOAD) {
+                    warmUpTokens(result);
+                }
             }
 
             @Override
             public void onError(MsalException exception) {
                 displayError(exception);
             }
+        })));
+    }
+
+    /**
+     * Acquires a token for every account in the background, so that their first call does not wait for one.
+     */
+    private void warmUpTokens(@NonNull final List<IAccount> accounts) {
+        mTokenWarmUp.start(mCiamApp, accounts, Arrays.asList(getScopes()), new TokenWarmUp.Listener() {
+            @Override
+            public void onWarmUpComplete(@NonNull TokenWarmUp.Report report) {
+                for (final TokenWarmUp.AccountResult result : report.results) {
+                    Log.d(TAG, "Token warm-up for " + result.username + ": " + result.outcome
+                            + " in " + result.durationMs + " ms");
+                }
+                Log.d(TAG, "Token warm-up of " + report.results.size() + " accounts took "
+                        + report.wallTimeMs + " ms");
+            }
         });
     }
 
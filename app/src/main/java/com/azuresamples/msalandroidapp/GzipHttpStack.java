@@ -0,0 +1,197 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Header;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.HttpResponse;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Asks MSGraph for gzip-compressed responses and decompresses them while they are read.
+ * <p>
+ * Setting Accept-Encoding explicitly turns off the transparent decompression of the underlying stack,
+ * so the bytes received on the wire and the bytes decoded can both be counted. They are recorded in
+ * {@link MSGraphTransferStats} once the response body is closed.
+ */
+public class GzipHttpStack extends BaseHttpStack {
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final String ENCODING_GZIP = "gzip";
+
+    private static final int HTTP_NO_CONTENT = 204;
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    private final BaseHttpStack mHttpStack;
+    private final MSGraphTransferStats mTransferStats;
+
+    /**
+     * @param httpStack     stack sending the requests.
+     * @param transferStats registry receiving the byte counts of every response.
+     */
+    public GzipHttpStack(@NonNull final BaseHttpStack httpStack,
+                         @NonNull final MSGraphTransferStats transferStats) {
+        mHttpStack = httpStack;
+        mTransferStats = transferStats;
+    }
+
+    @Override
+    public HttpResponse executeRequest(final Request<?> request,
+                                       final Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        final Map<String, String> headers = new HashMap<>(additionalHeaders);
+        headers.put(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+
+        final HttpResponse response = mHttpStack.executeRequest(request, headers);
+        final InputStream content = response.getContent();
+        if (content == null) {
+            return response;
+        }
+
+        final String endpoint = MSGraphTransferStats.getEndpoint(request.getUrl());
+
+        if (!isGzipEncoded(response) || !hasBody(request, response)) {
+            return new HttpResponse(response.getStatusCode(), response.getHeaders(), response.getContentLength(),
+                    new ResponseBodyStream(content, null, endpoint));
+        }
+
+        /* The body handed to Volley is decoded, so its encoding and length headers no longer apply. */
+        final List<Header> decodedHeaders = new ArrayList<>();
+        for (final Header header : response.getHeaders()) {
+            if (!HEADER_CONTENT_ENCODING.equalsIgnoreCase(header.getName())
+                    && !HEADER_CONTENT_LENGTH.equalsIgnoreCase(header.getName())) {
+                decodedHeaders.add(header);
+            }
+        }
+
+        final CountingInputStream compressed = new CountingInputStream(content);
+        return new HttpResponse(response.getStatusCode(), decodedHeaders, -1,
+                new ResponseBodyStream(new GZIPInputStream(compressed), compressed, endpoint));
+    }
+
+    private static boolean isGzipEncoded(@NonNull final HttpResponse response) {
+        for (final Header header : response.getHeaders()) {
+            if (HEADER_CONTENT_ENCODING.equalsIgnoreCase(header.getName())
+                    && ENCODING_GZIP.equalsIgnoreCase(header.getValue().trim())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * GZIPInputStream reads the gzip header eagerly, so it must not wrap an empty body.
+     */
+    private static boolean hasBody(@NonNull final Request<?> request, @NonNull final HttpResponse response) {
+        return request.getMethod() != Request.Method.HEAD
+                && response.getStatusCode() != HTTP_NO_CONTENT
+                && response.getStatusCode() != HTTP_NOT_MODIFIED
+                && response.getContentLength() != 0;
+    }
+
+    /**
+     * Counts the bytes read through it.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long mCount;
+
+        CountingInputStream(@NonNull final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            final int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * The response body handed to Volley. Records the byte counts of the response once closed.
+     */
+    private class ResponseBodyStream extends CountingInputStream {
+        /* Counts the bytes on the wire, or null if they are the bytes read through this stream. */
+        private final CountingInputStream mWire;
+        private final String mEndpoint;
+        private boolean mClosed;
+
+        ResponseBodyStream(@NonNull final InputStream in,
+                           final CountingInputStream wire,
+                           @NonNull final String endpoint) {
+            super(in);
+            mWire = wire;
+            mEndpoint = endpoint;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!mClosed) {
+                    mClosed = true;
+                    mTransferStats.record(mEndpoint, mWire != null, mWire != null ? mWire.mCount : mCount, mCount);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations, in the spirit of HdrHistogram.
+ * <p>
+ * Buckets are log-linear: each power of two is split into 16 linear sub-buckets, so any recorded value
+ * is reported within 1/16 (6.25%) of its real value, from 1 up to about an hour in microseconds, using a
+ * fixed array of counters. Recording is a few atomic increments, so it is safe from any thread, including
+ * Volley's network dispatchers, without blocking them.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /* Values are clamped to 2^32 - 1, i.e. about 71 minutes in microseconds. */
+    private static final long MAX_VALUE = (1L << 32) - 1;
+    private static final int BUCKET_COUNT = getIndex(MAX_VALUE) + 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Values below 2 * SUB_BUCKET_COUNT have a bucket each. Above, a value is shifted right until it fits in
+     * [SUB_BUCKET_COUNT, 2 * SUB_BUCKET_COUNT), and the shift selects which run of sub-buckets it falls into.
+     */
+    private static int getIndex(final long value) {
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the largest value that falls into the given bucket.
+     */
+    private static long getHighestValue(final int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long subBucket = index - shift * SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     */
+    public void record(final long value) {
+        final long clamped = Math.min(MAX_VALUE, Math.max(0, value));
+
+        mCounts.incrementAndGet(getIndex(clamped));
+        mCount.incrementAndGet();
+        mSum.addAndGet(clamped);
+
+        long max = mMax.get();
+        while (clamped > max && !mMax.compareAndSet(max, clamped)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values fall, or 0 if none was recorded.
+     * Values recorded concurrently may or may not be taken into account.
+     *
+     * @param percentile between 0 and 100, i.e. 99 for p99.
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return Math.min(getHighestValue(i), mMax.get());
+            }
+        }
+
+        return mMax.get();
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public double getMean() {
+        final long count = mCount.get();
+        return count > 0 ? (double) mSum.get() / count : 0;
+    }
+
+    /**
+     * Forgets every recorded value. Values recorded concurrently may survive the reset.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+}
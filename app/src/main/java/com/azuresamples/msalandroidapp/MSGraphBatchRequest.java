@@ -0,0 +1,344 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.Header;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A set of MSGraph sub-requests to be sent as a single JSON batch.
+ * i.e. a dashboard made of /me, /me/manager, /me/memberOf and /me/drive costs one round trip.
+ * <p>
+ * Each sub-request carries its own listeners; once the batch completes,
+ * every listener receives only the response of its own sub-request.
+ * See https://learn.microsoft.com/en-us/graph/json-batching for more info.
+ */
+public class MSGraphBatchRequest {
+    /**
+     * Maximum number of sub-requests MSGraph accepts in one batch.
+     */
+    public static final int MAX_REQUESTS = 20;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int HTTP_FAILED_DEPENDENCY = 424;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final Map<String, Item> mItems = new LinkedHashMap<>();
+
+    /**
+     * Adds a GET sub-request.
+     *
+     * @param id          identifier of the sub-request, unique within this batch.
+     * @param relativeUrl resource URL relative to the Graph version, i.e. "/me/manager".
+     */
+    public MSGraphBatchRequest addGet(@NonNull final String id,
+                                      @NonNull final String relativeUrl,
+                                      @NonNull final Response.Listener<JSONObject> responseListener,
+                                      @NonNull final Response.ErrorListener errorListener) {
+        return add(id, "GET", relativeUrl, null, null, responseListener, errorListener);
+    }
+
+    /**
+     * Adds a sub-request.
+     *
+     * @param id          identifier of the sub-request, unique within this batch.
+     * @param method      HTTP method, i.e. "GET" or "POST".
+     * @param relativeUrl resource URL relative to the Graph version, i.e. "/me/manager".
+     * @param body        JSON body of the sub-request, or null.
+     * @param dependsOn   ids of sub-requests (already added to this batch) that must complete first, or null.
+     */
+    public MSGraphBatchRequest add(@NonNull final String id,
+                                   @NonNull final String method,
+                                   @NonNull final String relativeUrl,
+                                   @Nullable final JSONObject body,
+                                   @Nullable final List<String> dependsOn,
+                                   @NonNull final Response.Listener<JSONObject> responseListener,
+                                   @NonNull final Response.ErrorListener errorListener) {
+        if (mItems.size() >= MAX_REQUESTS) {
+            throw new IllegalStateException("A batch cannot contain more than " + MAX_REQUESTS + " requests.");
+        }
+
+        if (mItems.containsKey(id)) {
+            throw new IllegalArgumentException("Duplicate request id: " + id);
+        }
+
+        if (dependsOn != null) {
+            for (final String dependency : dependsOn) {
+                if (!mItems.containsKey(dependency)) {
+                    throw new IllegalArgumentException("Request " + id + " depends on unknown request " + dependency);
+                }
+            }
+        }
+
+        mItems.put(id, new Item(id, method, relativeUrl, body, dependsOn, responseListener, errorListener));
+        return this;
+    }
+
+    /**
+     * Returns the number of sub-requests in this batch.
+     */
+    public int size() {
+        return mItems.size();
+    }
+
+    /**
+     * Returns true if every sub-request is a GET, i.e. the batch can share the response of an identical one.
+     */
+    boolean isReadOnly() {
+        for (final Item item : mItems.values()) {
+            if (!"GET".equalsIgnoreCase(item.method)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Builds the body of the POST /$batch call.
+     */
+    JSONObject toJson() throws JSONException {
+        final JSONArray requests = new JSONArray();
+
+        for (final Item item : mItems.values()) {
+            final JSONObject request = new JSONObject();
+            request.put("id", item.id);
+            request.put("method", item.method);
+            request.put("url", item.relativeUrl);
+
+            if (item.body != null) {
+                final JSONObject headers = new JSONObject();
+                headers.put("Content-Type", "application/json");
+                request.put("headers", headers);
+                request.put("body", item.body);
+            }
+
+            if (item.dependsOn != null && !item.dependsOn.isEmpty()) {
+                request.put("dependsOn", new JSONArray(item.dependsOn));
+            }
+
+            requests.put(request);
+        }
+
+        final JSONObject batch = new JSONObject();
+        batch.put("requests", requests);
+        return batch;
+    }
+
+    /**
+     * Fans the batch response out to the listeners of each sub-request.
+     * Sub-requests that are missing from the response are reported as errors.
+     */
+    void dispatchResponse(@NonNull final JSONObject batchResponse) {
+        dispatch(getResponses(batchResponse), new HashSet<String>());
+    }
+
+    /**
+     * Same as {@link #dispatchResponse(JSONObject)}, except for the sub-requests MSGraph throttled, and the ones
+     * that were not run because they depend on those: they are not answered, but moved to the returned batch
+     * to be sent again.
+     */
+    MSGraphBatchRequest dispatchResponseExceptThrottled(@NonNull final JSONObject batchResponse) {
+        final Map<String, JSONObject> responses = getResponses(batchResponse);
+        final MSGraphBatchRequest throttled = new MSGraphBatchRequest();
+
+        for (final Item item : mItems.values()) {
+            final JSONObject response = responses.get(item.id);
+            final int status = response != null ? response.optInt("status") : 0;
+            if (status != HTTP_TOO_MANY_REQUESTS
+                    && !(status == HTTP_FAILED_DEPENDENCY && dependsOnAny(item, throttled.mItems.keySet()))) {
+                continue;
+            }
+
+            /* Dependencies that were not throttled already completed. */
+            List<String> dependsOn = null;
+            if (item.dependsOn != null) {
+                dependsOn = new ArrayList<>();
+                for (final String dependency : item.dependsOn) {
+                    if (throttled.mItems.containsKey(dependency)) {
+                        dependsOn.add(dependency);
+                    }
+                }
+            }
+
+            throttled.mItems.put(item.id, new Item(item.id, item.method, item.relativeUrl, item.body, dependsOn,
+                    item.responseListener, item.errorListener));
+        }
+
+        dispatch(responses, throttled.mItems.keySet());
+        return throttled;
+    }
+
+    /**
+     * Returns the error of the throttled sub-request that asks for the longest wait, or null if MSGraph
+     * throttled none of them.
+     */
+    @Nullable
+    VolleyError getThrottleError(@NonNull final JSONObject batchResponse) {
+        VolleyError throttleError = null;
+        long longestRetryAfterMs = -1;
+
+        for (final JSONObject response : getResponses(batchResponse).values()) {
+            if (response.optInt("status") != HTTP_TOO_MANY_REQUESTS) {
+                continue;
+            }
+
+            final NetworkResponse networkResponse = toNetworkResponse(HTTP_TOO_MANY_REQUESTS,
+                    response.optJSONObject("headers"), response.optJSONObject("body"));
+            final long retryAfterMs = MSGraphRetryPolicy.parseRetryAfterMs(networkResponse);
+            if (throttleError == null || retryAfterMs > longestRetryAfterMs) {
+                throttleError = new VolleyError(networkResponse);
+                longestRetryAfterMs = retryAfterMs;
+            }
+        }
+
+        return throttleError;
+    }
+
+    /**
+     * Reports a failure of the whole batch to every sub-request.
+     */
+    void dispatchError(@NonNull final VolleyError error) {
+        for (final Item item : mItems.values()) {
+            item.errorListener.onErrorResponse(error);
+        }
+    }
+
+    /**
+     * Returns the sub-responses of this batch's sub-requests, by id.
+     */
+    private Map<String, JSONObject> getResponses(@NonNull final JSONObject batchResponse) {
+        final Map<String, JSONObject> responses = new HashMap<>();
+        final JSONArray array = batchResponse.optJSONArray("responses");
+
+        for (int i = 0; array != null && i < array.length(); i++) {
+            final JSONObject response = array.optJSONObject(i);
+            if (response != null && mItems.containsKey(response.optString("id"))) {
+                responses.put(response.optString("id"), response);
+            }
+        }
+
+        return responses;
+    }
+
+    private void dispatch(@NonNull final Map<String, JSONObject> responses, @NonNull final Set<String> skippedIds) {
+        for (final Item item : mItems.values()) {
+            if (skippedIds.contains(item.id)) {
+                continue;
+            }
+
+            final JSONObject response = responses.get(item.id);
+            if (response == null) {
+                item.errorListener.onErrorResponse(new VolleyError("No response for batch request " + item.id));
+                continue;
+            }
+
+            final int status = response.optInt("status");
+            final JSONObject body = response.optJSONObject("body");
+
+            if (status >= 200 && status < 300) {
+                item.responseListener.onResponse(body != null ? body : new JSONObject());
+            } else {
+                item.errorListener.onErrorResponse(
+                        new VolleyError(toNetworkResponse(status, response.optJSONObject("headers"), body)));
+            }
+        }
+    }
+
+    private static boolean dependsOnAny(@NonNull final Item item, @NonNull final Set<String> ids) {
+        if (item.dependsOn == null) {
+            return false;
+        }
+
+        for (final String dependency : item.dependsOn) {
+            if (ids.contains(dependency)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static NetworkResponse toNetworkResponse(final int status,
+                                                     @Nullable final JSONObject headers,
+                                                     @Nullable final JSONObject body) {
+        final List<Header> allHeaders = new ArrayList<>();
+
+        if (headers != null) {
+            final Iterator<String> names = headers.keys();
+            while (names.hasNext()) {
+                final String name = names.next();
+                allHeaders.add(new Header(name, headers.optString(name)));
+            }
+        }
+
+        final byte[] data = body != null ? body.toString().getBytes(UTF_8) : new byte[0];
+        return new NetworkResponse(status, data, false, 0, allHeaders);
+    }
+
+    private static class Item {
+        final String id;
+        final String method;
+        final String relativeUrl;
+        final JSONObject body;
+        final List<String> dependsOn;
+        final Response.Listener<JSONObject> responseListener;
+        final Response.ErrorListener errorListener;
+
+        Item(final String id,
+             final String method,
+             final String relativeUrl,
+             final JSONObject body,
+             final List<String> dependsOn,
+             final Response.Listener<JSONObject> responseListener,
+             final Response.ErrorListener errorListener) {
+            this.id = id;
+            this.method = method;
+            this.relativeUrl = relativeUrl;
+            this.body = body;
+            this.dependsOn = dependsOn;
+            this.responseListener = responseListener;
+            this.errorListener = errorListener;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One logical MSGraph call, across its throttling delays and retries, so it can be cancelled as a whole.
+ * <p>
+ * Calls that have not been answered yet are remembered, so {@link #abortAll(VolleyError)} can tell every
+ * caller still waiting that its call will never complete.
+ */
+class MSGraphCall {
+    private static final Set<MSGraphCall> sOutstanding = new LinkedHashSet<>();
+
+    private boolean mCancelled;
+    private boolean mFinished;
+    private boolean mAnswered;
+    private Request<?> mRequest;
+    private Runnable mOnFinished;
+    private Response.ErrorListener mAbortListener;
+
+    MSGraphCall() {
+        synchronized (sOutstanding) {
+            sOutstanding.add(this);
+        }
+    }
+
+    /**
+     * Aborts every call not answered yet, i.e. when the request queue is shut down.
+     */
+    static void abortAll(@NonNull final VolleyError error) {
+        final List<MSGraphCall> calls;
+        synchronized (sOutstanding) {
+            calls = new ArrayList<>(sOutstanding);
+        }
+
+        for (final MSGraphCall call : calls) {
+            call.abort(error);
+        }
+    }
+
+    synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Sets the listener receiving the error if the call is aborted before it is answered.
+     */
+    synchronized void setAbortListener(@Nullable final Response.ErrorListener abortListener) {
+        mAbortListener = abortListener;
+    }
+
+    /**
+     * Remembers the Volley request currently sending this call, replacing the previous attempt.
+     * The request is cancelled right away if the call already was.
+     */
+    synchronized void setRequest(@NonNull final Request<?> request) {
+        mRequest = request;
+        if (mCancelled) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * Sets what to run once the call completes or is cancelled, i.e. to release a scheduler slot.
+     * Runs it right away if the call already was cancelled.
+     */
+    void setOnFinished(@NonNull final Runnable onFinished) {
+        final boolean cancelled;
+        synchronized (this) {
+            mOnFinished = onFinished;
+            cancelled = mCancelled;
+        }
+
+        if (cancelled) {
+            finish();
+        }
+    }
+
+    /**
+     * Claims the right to deliver the final response or error of the call.
+     *
+     * @return false if the call was already answered, aborted or cancelled, i.e. the outcome must be dropped.
+     */
+    boolean answer() {
+        synchronized (this) {
+            if (mAnswered || mCancelled) {
+                return false;
+            }
+
+            mAnswered = true;
+        }
+
+        forget();
+        return true;
+    }
+
+    /**
+     * Stops the call. Volley does not deliver a cancelled request's response, so no listener is invoked.
+     */
+    void cancel() {
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+
+            mCancelled = true;
+            if (mRequest != null) {
+                mRequest.cancel();
+            }
+        }
+
+        forget();
+        finish();
+    }
+
+    /**
+     * Stops the call and, unless it was already answered or cancelled, hands the error to its abort listener.
+     */
+    void abort(@NonNull final VolleyError error) {
+        final Response.ErrorListener abortListener;
+        synchronized (this) {
+            if (mAnswered || mCancelled) {
+                return;
+            }
+
+            mAnswered = true;
+            abortListener = mAbortListener;
+        }
+
+        cancel();
+        if (abortListener != null) {
+            abortListener.onErrorResponse(error);
+        }
+    }
+
+    /**
+     * Runs the completion set with {@link #setOnFinished(Runnable)}, at most once.
+     */
+    void finish() {
+        final Runnable onFinished;
+        synchronized (this) {
+            if (mFinished || mOnFinished == null) {
+                return;
+            }
+
+            mFinished = true;
+            onFinished = mOnFinished;
+        }
+
+        onFinished.run();
+    }
+
+    private void forget() {
+        synchronized (sOutstanding) {
+            sOutstanding.remove(this);
+        }
+    }
+}
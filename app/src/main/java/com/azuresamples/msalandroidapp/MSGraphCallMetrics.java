@@ -0,0 +1,210 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Latency of every MSGraph call, split into phases and grouped by endpoint template.
+ * <p>
+ * i.e. to tell whether a slow screen waits on our own queue, on the network (DNS, connect), on the server
+ * (time to first byte), on the download, or on our own JSON parsing. Ids in the URL are replaced by
+ * placeholders, so "v1.0/users/{id}" aggregates the calls of every user.
+ */
+public class MSGraphCallMetrics {
+
+    public enum Phase {
+        /**
+         * From the request being added to the Volley queue until a network thread sends it.
+         */
+        QUEUE_WAIT,
+
+        /**
+         * Host name resolution. Only recorded with {@link OkHttpStack}, and only when a new connection is made.
+         */
+        DNS,
+
+        /**
+         * TCP and TLS handshakes. Only recorded with {@link OkHttpStack}, and only when a new connection is made.
+         */
+        CONNECT,
+
+        /**
+         * From sending the request until the response headers are received. With another stack,
+         * it also includes DNS and connect.
+         */
+        TIME_TO_FIRST_BYTE,
+
+        /**
+         * From the response headers until the body is fully read, including decompression.
+         */
+        DOWNLOAD,
+
+        /**
+         * Parsing the response body into JSON.
+         */
+        PARSE
+    }
+
+    /**
+     * Percentiles of one phase of one endpoint template, in milliseconds.
+     */
+    public static class Entry {
+        public final String endpointTemplate;
+        public final Phase phase;
+        public final long count;
+        public final double p50Ms;
+        public final double p95Ms;
+        public final double p99Ms;
+        public final double maxMs;
+
+        Entry(@NonNull final String endpointTemplate,
+              @NonNull final Phase phase,
+              @NonNull final LatencyHistogram histogram) {
+            this.endpointTemplate = endpointTemplate;
+            this.phase = phase;
+            count = histogram.getCount();
+            p50Ms = histogram.getValueAtPercentile(50) / 1000.0;
+            p95Ms = histogram.getValueAtPercentile(95) / 1000.0;
+            p99Ms = histogram.getValueAtPercentile(99) / 1000.0;
+            maxMs = histogram.getMax() / 1000.0;
+        }
+    }
+
+    private static final Pattern GUID = Pattern.compile(
+            "[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+    private static final Pattern KEY_IN_PARENTHESES = Pattern.compile("\\('[^']*'\\)");
+    private static final Pattern OPAQUE_ID = Pattern.compile("[A-Za-z0-9_=!.-]*[0-9][A-Za-z0-9_=!.-]*");
+    private static final int MIN_OPAQUE_ID_LENGTH = 16;
+
+    private final ConcurrentHashMap<String, LatencyHistogram[]> mHistograms = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the key under which a request to the given URL is recorded, i.e.
+     * "v1.0/users/{id}/photos/{id}/$value" for "https://graph.microsoft.com/v1.0/users/alice@contoso.com/photos/48x48/$value".
+     */
+    static String getEndpointTemplate(@NonNull final String url) {
+        final Uri uri = Uri.parse(url);
+        final String path = uri.getPath();
+        if (path == null) {
+            return url;
+        }
+
+        final StringBuilder template = new StringBuilder();
+        boolean inItemPath = false;
+        for (final String segment : path.split("/")) {
+            if (segment.length() == 0) {
+                continue;
+            }
+
+            /* Path-based addressing, i.e. root:/folder/file.txt:/content, becomes root:/{path}:/content. */
+            if (inItemPath) {
+                if (segment.endsWith(":")) {
+                    inItemPath = false;
+                    template.append("/{path}:");
+                }
+                continue;
+            }
+
+            template.append(template.length() > 0 ? "/" : "").append(templateSegment(segment));
+            inItemPath = segment.endsWith(":");
+        }
+
+        if (inItemPath) {
+            template.append("/{path}");
+        }
+
+        return template.toString();
+    }
+
+    private static String templateSegment(@NonNull final String segment) {
+        final String decoded = Uri.decode(segment);
+        if (decoded.indexOf('@') >= 0
+                || GUID.matcher(decoded).matches()
+                || (decoded.length() >= MIN_OPAQUE_ID_LENGTH && OPAQUE_ID.matcher(decoded).matches())
+                || decoded.matches("[0-9]+(x[0-9]+)?")) {
+            return "{id}";
+        }
+
+        return KEY_IN_PARENTHESES.matcher(decoded).replaceAll("({id})");
+    }
+
+    /**
+     * Records the duration of a phase of a call to the given URL.
+     */
+    void record(@NonNull final String url, @NonNull final Phase phase, final long durationNanos) {
+        getHistogram(getEndpointTemplate(url), phase).record(durationNanos / 1000);
+    }
+
+    /**
+     * Returns the histogram of a phase of an endpoint template, in microseconds.
+     */
+    @NonNull
+    public LatencyHistogram getHistogram(@NonNull final String endpointTemplate, @NonNull final Phase phase) {
+        LatencyHistogram[] histograms = mHistograms.get(endpointTemplate);
+        if (histograms == null) {
+            final LatencyHistogram[] created = new LatencyHistogram[Phase.values().length];
+            for (int i = 0; i < created.length; i++) {
+                created[i] = new LatencyHistogram();
+            }
+
+            /* Two threads may race to create the histograms of a template; only one set is kept. */
+            histograms = mHistograms.putIfAbsent(endpointTemplate, created);
+            if (histograms == null) {
+                histograms = created;
+            }
+        }
+
+        return histograms[phase.ordinal()];
+    }
+
+    /**
+     * Returns the percentiles of every phase recorded so far, per endpoint template.
+     */
+    public List<Entry> getSnapshot() {
+        final List<Entry> snapshot = new ArrayList<>();
+        for (final Map.Entry<String, LatencyHistogram[]> histograms : mHistograms.entrySet()) {
+            for (final Phase phase : Phase.values()) {
+                final LatencyHistogram histogram = histograms.getValue()[phase.ordinal()];
+                if (histogram.getCount() > 0) {
+                    snapshot.add(new Entry(histograms.getKey(), phase, histogram));
+                }
+            }
+        }
+
+        return snapshot;
+    }
+
+    public void reset() {
+        mHistograms.clear();
+    }
+}
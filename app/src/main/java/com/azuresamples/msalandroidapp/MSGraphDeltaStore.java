@@ -0,0 +1,214 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local copy of a MSGraph collection kept up to date by {@link MSGraphDeltaSync}.
+ * <p>
+ * Items are keyed by their "id" and saved as a single JSON file.
+ */
+public class MSGraphDeltaStore {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private final Map<String, JSONObject> mItems = new LinkedHashMap<>();
+    private boolean mLoaded;
+    private boolean mIntact;
+
+    MSGraphDeltaStore(@NonNull final File file) {
+        mFile = file;
+    }
+
+    /**
+     * Returns the stored item with the given id, or null.
+     */
+    @Nullable
+    public synchronized JSONObject get(@NonNull final String id) {
+        load();
+        return mItems.get(id);
+    }
+
+    /**
+     * Returns a snapshot of every stored item.
+     */
+    public synchronized List<JSONObject> getAll() {
+        load();
+        return new ArrayList<>(mItems.values());
+    }
+
+    public synchronized int size() {
+        load();
+        return mItems.size();
+    }
+
+    /**
+     * Adds a new item, or merges the properties returned by the delta query into the existing one.
+     *
+     * @return true if the item was not stored before.
+     */
+    synchronized boolean upsert(@NonNull final String id, @NonNull final JSONObject changes) throws JSONException {
+        load();
+
+        final JSONObject existing = mItems.get(id);
+        if (existing == null) {
+            mItems.put(id, changes);
+            return true;
+        }
+
+        final Iterator<String> names = changes.keys();
+        while (names.hasNext()) {
+            final String name = names.next();
+            existing.put(name, changes.get(name));
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes an item reported with "@removed".
+     *
+     * @return true if the item was stored.
+     */
+    synchronized boolean remove(@NonNull final String id) {
+        load();
+        return mItems.remove(id) != null;
+    }
+
+    /**
+     * Whether the items were read back from a complete file written by {@link #save()}.
+     * A deltaLink is only valid on top of an intact store.
+     */
+    synchronized boolean isIntact() {
+        load();
+        return mIntact;
+    }
+
+    /**
+     * Drops changes that were applied in memory but not saved, i.e. after a failed sync.
+     */
+    synchronized void discardUnsavedChanges() {
+        mItems.clear();
+        mLoaded = false;
+        mIntact = false;
+    }
+
+    synchronized void clear() {
+        mItems.clear();
+        mLoaded = true;
+        mIntact = false;
+        mFile.delete();
+    }
+
+    /**
+     * Writes the items to disk. The previous file is only replaced once the new one is complete.
+     */
+    synchronized void save() throws IOException {
+        load();
+
+        final JSONObject items = new JSONObject();
+        try {
+            for (final Map.Entry<String, JSONObject> entry : mItems.entrySet()) {
+                items.put(entry.getKey(), entry.getValue());
+            }
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+
+        final File parent = mFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create " + parent);
+        }
+
+        final File temporaryFile = new File(mFile.getPath() + ".tmp");
+        final OutputStream output = new FileOutputStream(temporaryFile);
+        try {
+            output.write(items.toString().getBytes(UTF_8));
+        } finally {
+            output.close();
+        }
+
+        if (!temporaryFile.renameTo(mFile)) {
+            throw new IOException("Failed to replace " + mFile);
+        }
+
+        mIntact = true;
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+
+        mLoaded = true;
+        if (!mFile.exists()) {
+            return;
+        }
+
+        try {
+            final InputStream input = new FileInputStream(mFile);
+            final byte[] data;
+            try {
+                data = new byte[(int) mFile.length()];
+                int offset = 0;
+                int read;
+                while (offset < data.length && (read = input.read(data, offset, data.length - offset)) != -1) {
+                    offset += read;
+                }
+            } finally {
+                input.close();
+            }
+
+            final JSONObject items = new JSONObject(new String(data, UTF_8));
+            final Iterator<String> ids = items.keys();
+            while (ids.hasNext()) {
+                final String id = ids.next();
+                mItems.put(id, items.getJSONObject(id));
+            }
+
+            mIntact = true;
+        } catch (IOException | JSONException e) {
+            // A corrupted store is dropped and rebuilt by the next full sync.
+            mItems.clear();
+        }
+    }
+}
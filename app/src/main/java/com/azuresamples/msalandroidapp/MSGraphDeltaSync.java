@@ -0,0 +1,272 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps a local copy of a MSGraph collection in sync using delta queries.
+ * <p>
+ * The first sync downloads the whole collection. Its final "@odata.deltaLink" is persisted per account and
+ * resource, and every later sync only downloads what changed since: added and updated items are merged into
+ * the {@link MSGraphDeltaStore}, and items flagged with "@removed" are deleted from it.
+ * See https://learn.microsoft.com/en-us/graph/delta-query-overview for more info.
+ */
+public class MSGraphDeltaSync {
+    private static final String TAG = MSGraphDeltaSync.class.getSimpleName();
+
+    public static final String USERS_DELTA_URL = MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT + "v1.0/users/delta";
+    public static final String GROUPS_DELTA_URL = MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT + "v1.0/groups/delta";
+    public static final String INBOX_MESSAGES_DELTA_URL = MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT + "v1.0/me/mailFolders/inbox/messages/delta";
+
+    private static final String SHARED_PREFERENCES_NAME = "msgraph_delta_links";
+    private static final String STORE_DIRECTORY_NAME = "msgraph_delta";
+
+    /* MSGraph answers 410 Gone when a deltaLink can no longer be used and a full sync is needed. */
+    private static final int HTTP_GONE = 410;
+
+    /**
+     * Invoked on the main thread once the local store reflects the server.
+     */
+    public interface SyncListener {
+        void onSyncComplete(@NonNull MSGraphDeltaStore store, @NonNull Result result);
+    }
+
+    /**
+     * What a sync changed in the local store.
+     */
+    public static class Result {
+        /**
+         * True if the whole collection was downloaded, false if only the changes were.
+         */
+        public boolean fullSync;
+        public int added;
+        public int updated;
+        public int removed;
+        public int pages;
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean mSyncing = new AtomicBoolean();
+    private final SharedPreferences mPreferences;
+    private final String mAccountId;
+    private final String mDeltaLinkKey;
+    private final String mInitialDeltaUrl;
+    private final MSGraphDeltaStore mStore;
+
+    /**
+     * @param accountId       id of the account whose data is synced.
+     * @param initialDeltaUrl delta URL used for the first (full) sync, i.e. {@link #USERS_DELTA_URL}.
+     */
+    public MSGraphDeltaSync(@NonNull final Context context,
+                            @NonNull final String accountId,
+                            @NonNull final String initialDeltaUrl) {
+        final Context appContext = context.getApplicationContext();
+
+        mPreferences = appContext.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+        mAccountId = accountId;
+        mDeltaLinkKey = accountId + "|" + initialDeltaUrl;
+        mInitialDeltaUrl = initialDeltaUrl;
+        mStore = new MSGraphDeltaStore(new File(new File(appContext.getFilesDir(), STORE_DIRECTORY_NAME),
+                toFileName(mDeltaLinkKey)));
+    }
+
+    /**
+     * Returns the local copy of the collection.
+     */
+    public MSGraphDeltaStore getStore() {
+        return mStore;
+    }
+
+    /**
+     * Brings the local store up to date. Only one sync runs at a time; a call made while
+     * another sync is running is ignored.
+     */
+    public void sync(@NonNull final String accessToken,
+                     @NonNull final SyncListener syncListener,
+                     @NonNull final Response.ErrorListener errorListener) {
+        if (!mSyncing.compareAndSet(false, true)) {
+            Log.d(TAG, "Sync already in progress");
+            return;
+        }
+
+        String deltaLink = mPreferences.getString(mDeltaLinkKey, null);
+        if (deltaLink != null && !mStore.isIntact()) {
+            deltaLink = null;
+        }
+
+        startSync(deltaLink, accessToken, syncListener, errorListener, false);
+    }
+
+    /**
+     * Forgets the deltaLink and the local store, i.e. when the account signs out.
+     */
+    public void reset() {
+        mPreferences.edit().remove(mDeltaLinkKey).apply();
+        mStore.clear();
+    }
+
+    private void startSync(final String deltaLink,
+                           @NonNull final String accessToken,
+                           @NonNull final SyncListener syncListener,
+                           @NonNull final Response.ErrorListener errorListener,
+                           final boolean restarted) {
+        final Result result = new Result();
+
+        if (deltaLink == null) {
+            mStore.clear();
+            result.fullSync = true;
+        }
+
+        fetchPage(deltaLink != null ? deltaLink : mInitialDeltaUrl, accessToken, result,
+                syncListener, errorListener, restarted);
+    }
+
+    private void fetchPage(@NonNull final String url,
+                           @NonNull final String accessToken,
+                           @NonNull final Result result,
+                           @NonNull final SyncListener syncListener,
+                           @NonNull final Response.ErrorListener errorListener,
+                           final boolean restarted) {
+        /* Not bound to a scope: the sync must always end, or later syncs would be refused. */
+        MSGraphRequestWrapper.streamGraphCollection(null, mAccountId, null, MSGraphRequestPriority.BACKGROUND_SYNC,
+                url, accessToken,
+                new MSGraphStreamingRequest.ItemListener() {
+                    @Override
+                    public void onItem(@NonNull JSONObject item) {
+                        apply(item, result);
+                    }
+                },
+                new MSGraphStreamingRequest.CompletionListener() {
+                    @Override
+                    public void onComplete(@NonNull MSGraphStreamingRequest.Result page) {
+                        result.pages++;
+
+                        if (page.nextLink != null) {
+                            fetchPage(page.nextLink, accessToken, result, syncListener, errorListener, restarted);
+                        } else if (page.deltaLink != null) {
+                            commit(page.deltaLink, result, syncListener, errorListener);
+                        } else {
+                            fail(new VolleyError("Delta response has neither nextLink nor deltaLink"), errorListener);
+                        }
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        if (!restarted && error.networkResponse != null
+                                && error.networkResponse.statusCode == HTTP_GONE) {
+                            Log.d(TAG, "deltaLink expired, starting a full sync");
+                            mPreferences.edit().remove(mDeltaLinkKey).apply();
+                            startSync(null, accessToken, syncListener, errorListener, true);
+                            return;
+                        }
+
+                        fail(error, errorListener);
+                    }
+                });
+    }
+
+    private void apply(@NonNull final JSONObject item, @NonNull final Result result) {
+        final String id = item.optString("id", null);
+        if (id == null) {
+            return;
+        }
+
+        if (item.has("@removed")) {
+            if (mStore.remove(id)) {
+                result.removed++;
+            }
+            return;
+        }
+
+        try {
+            if (mStore.upsert(id, item)) {
+                result.added++;
+            } else {
+                result.updated++;
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Failed to apply change to " + id, e);
+        }
+    }
+
+    /**
+     * Saves the store first and the deltaLink second, so a crash in between
+     * can only cause changes to be downloaded again, never lost.
+     */
+    private void commit(@NonNull final String deltaLink,
+                        @NonNull final Result result,
+                        @NonNull final SyncListener syncListener,
+                        @NonNull final Response.ErrorListener errorListener) {
+        try {
+            mStore.save();
+        } catch (IOException e) {
+            fail(new VolleyError("Failed to save delta store", e), errorListener);
+            return;
+        }
+
+        mPreferences.edit().putString(mDeltaLinkKey, deltaLink).apply();
+        mSyncing.set(false);
+
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                syncListener.onSyncComplete(mStore, result);
+            }
+        });
+    }
+
+    private void fail(@NonNull final VolleyError error, @NonNull final Response.ErrorListener errorListener) {
+        mStore.discardUnsavedChanges();
+        mSyncing.set(false);
+
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                errorListener.onErrorResponse(error);
+            }
+        });
+    }
+
+    private static String toFileName(@NonNull final String key) {
+        return key.replaceAll("[^A-Za-z0-9._-]", "_") + ".json";
+    }
+}
@@ -0,0 +1,170 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.Cache;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.android.volley.toolbox.JsonObjectRequest;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A JSON request to MSGraph on behalf of a given account.
+ * <p>
+ * Responses are cached under a key that includes the account id, so two signed-in accounts never
+ * share an entry even though they request the same URL. Responses carrying an ETag are always
+ * stored and revalidated with If-None-Match; a 304 from MSGraph is then served from the disk cache.
+ */
+public class MSGraphJsonObjectRequest extends JsonObjectRequest {
+    private static final String CHARSET = "utf-8";
+
+    private final String mAccountId;
+    private final String mAccessToken;
+    private final long mCreatedAtNanos = System.nanoTime();
+    private Priority mPriority = Priority.NORMAL;
+
+    /**
+     * @param accountId id of the account the token belongs to.
+     *                  If null, the response is not cached since it could not be told apart from other accounts'.
+     *                  Only GET responses are cached: the response of a POST, i.e. $batch, answers that call only.
+     */
+    public MSGraphJsonObjectRequest(final int method,
+                                    @NonNull final String url,
+                                    @Nullable final JSONObject jsonRequest,
+                                    @Nullable final String accountId,
+                                    @NonNull final String accessToken,
+                                    @NonNull final Response.Listener<JSONObject> listener,
+                                    @NonNull final Response.ErrorListener errorListener) {
+        super(method, url, jsonRequest, listener, errorListener);
+        mAccountId = accountId;
+        mAccessToken = accessToken;
+        setShouldCache(accountId != null && method == Method.GET);
+    }
+
+    /**
+     * Sets the order in which Volley's network threads pick up this request.
+     */
+    public void setPriority(@NonNull final Priority priority) {
+        mPriority = priority;
+    }
+
+    @Override
+    public Priority getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * Returns when the request was created, i.e. right before it was added to the queue.
+     */
+    long getCreatedAtNanos() {
+        return mCreatedAtNanos;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Authorization", "Bearer " + mAccessToken);
+        return headers;
+    }
+
+    @Override
+    public String getCacheKey() {
+        return mAccountId + ":" + super.getCacheKey();
+    }
+
+    @Override
+    protected Response<JSONObject> parseNetworkResponse(final NetworkResponse response) {
+        final long startNanos = System.nanoTime();
+        try {
+            final String jsonString = new String(response.data,
+                    HttpHeaderParser.parseCharset(response.headers, CHARSET));
+            return Response.success(new JSONObject(jsonString), parseRevalidatingCacheHeaders(response));
+        } catch (UnsupportedEncodingException e) {
+            return Response.error(new ParseError(e));
+        } catch (JSONException e) {
+            return Response.error(new ParseError(e));
+        } finally {
+            MSGraphRequestWrapper.getCallMetrics().record(getUrl(), MSGraphCallMetrics.Phase.PARSE,
+                    System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * MSGraph usually answers with "Cache-Control: no-cache", which Volley treats as non-cacheable.
+     * no-cache only means "revalidate before use", so when an ETag is present we keep the entry
+     * with a zero TTL: every read goes to the network with If-None-Match, and a 304 reuses the stored body.
+     * A response marked no-store is never kept.
+     */
+    @Nullable
+    static Cache.Entry parseRevalidatingCacheHeaders(@NonNull final NetworkResponse response) {
+        final Cache.Entry entry = HttpHeaderParser.parseCacheHeaders(response);
+        if (entry != null) {
+            return entry;
+        }
+
+        if (isNoStore(response)) {
+            return null;
+        }
+
+        final String etag = response.headers != null ? response.headers.get("ETag") : null;
+        if (etag == null) {
+            return null;
+        }
+
+        final Cache.Entry revalidatingEntry = new Cache.Entry();
+        revalidatingEntry.data = response.data;
+        revalidatingEntry.etag = etag;
+        revalidatingEntry.ttl = 0;
+        revalidatingEntry.softTtl = 0;
+        revalidatingEntry.responseHeaders = response.headers;
+        revalidatingEntry.allResponseHeaders = response.allHeaders;
+        return revalidatingEntry;
+    }
+
+    private static boolean isNoStore(@NonNull final NetworkResponse response) {
+        final String cacheControl = response.headers != null ? response.headers.get("Cache-Control") : null;
+        if (cacheControl == null) {
+            return false;
+        }
+
+        for (final String directive : cacheControl.split(",")) {
+            if ("no-store".equalsIgnoreCase(directive.trim())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
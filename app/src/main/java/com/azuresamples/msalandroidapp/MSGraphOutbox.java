@@ -0,0 +1,626 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpResponse;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Durable queue of MSGraph writes (POST, PATCH, DELETE) made while the device may be offline.
+ * <p>
+ * A write is appended to a log on disk and acknowledged to the caller as soon as it is stored, so it
+ * survives process death and never waits on the network. Writes are replayed one at a time, in the order
+ * they were made, whenever connectivity returns. Each write carries a request id, sent as
+ * "client-request-id", that stays the same across replays so they can be correlated in MSGraph's logs.
+ * A write is only removed from the log once MSGraph has answered it.
+ * <p>
+ * Delivery is at-least-once. MSGraph does not de-duplicate on client-request-id, so if the connection drops
+ * after MSGraph has applied a write but before its answer arrives, the write is sent again. PATCH and DELETE
+ * are idempotent and converge; a replayed POST may create the resource twice, so callers posting to
+ * collections should include a field MSGraph de-duplicates on where one exists (i.e. "transactionId" on events).
+ * <p>
+ * Transient failures (401, 408, 429 and 5xx) never drop a write: it stays at the head of the log and is
+ * replayed with exponential backoff, or once Retry-After has elapsed. Replays also wait while the rest of the
+ * app is held back by MSGraph's throttling. A 401 evicts the account's cached tokens and asks the
+ * {@link TokenProvider} for a fresh one, once per write; a write refused again backs off like any other.
+ * Only a permanent refusal (any other 4xx) removes a write without delivering it, reported through
+ * {@link DeliveryListener#onRejected}.
+ */
+public class MSGraphOutbox {
+    private static final String TAG = MSGraphOutbox.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "msgraph_outbox";
+    private static final String LOG_FILE_NAME = "outbox.log";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int REQUEST_TIMEOUT_MS = 10000;
+
+    /* Backoff after consecutive transient failures of the write at the head of the log, doubled each time. */
+    private static final long MIN_REPLAY_DELAY_MS = 5 * 1000;
+    private static final long MAX_REPLAY_DELAY_MS = 15 * 60 * 1000;
+
+    /* Used when a 429 comes without Retry-After. */
+    private static final long DEFAULT_THROTTLE_DELAY_MS = 30 * 1000;
+
+    /* Rewrite the log once this many delivered writes are still recorded in it. */
+    private static final int COMPACTION_THRESHOLD = 64;
+
+    private static final String OP_ADD = "add";
+    private static final String OP_DONE = "done";
+
+    private static final int HTTP_UNAUTHORIZED = 401;
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_REQUEST_TIMEOUT = 408;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Supplies access tokens when writes are replayed. Tokens expire, so they are never stored in the log.
+     * Called on a background thread, so it may block, i.e. on MSAL's acquireTokenSilent.
+     */
+    public interface TokenProvider {
+        /**
+         * @param forceRefresh true if MSGraph refused the previous token with a 401, i.e. it was revoked.
+         *                     The token must then be acquired again rather than read from a cache.
+         * @return a token for the account, or null to postpone the replay.
+         */
+        @Nullable
+        String getAccessToken(@NonNull String accountId, boolean forceRefresh);
+    }
+
+    /**
+     * Invoked on the main thread when a write has been durably stored.
+     */
+    public interface EnqueueListener {
+        void onEnqueued(@NonNull String requestId);
+    }
+
+    /**
+     * Invoked on the main thread when MSGraph has answered a replayed write.
+     */
+    public interface DeliveryListener {
+        void onDelivered(@NonNull String requestId, @NonNull NetworkResponse response);
+
+        /**
+         * The write was refused by MSGraph (i.e. 400 or 403) and will not be sent again.
+         */
+        void onRejected(@NonNull String requestId, @NonNull VolleyError error);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /* A single thread keeps appends and replays in order. */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final Context mContext;
+    private final File mLogFile;
+    private final Deque<Entry> mPending = new ArrayDeque<>();
+    private final BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (isConnected()) {
+                replay();
+            }
+        }
+    };
+    private final Runnable mDelayedReplay = new Runnable() {
+        @Override
+        public void run() {
+            replay();
+        }
+    };
+
+    private TokenProvider mTokenProvider;
+    private DeliveryListener mDeliveryListener;
+
+    /* Only accessed on mExecutor. */
+    private boolean mLoaded;
+    private int mDoneCount;
+
+    MSGraphOutbox(@NonNull final Context context) {
+        mContext = context.getApplicationContext();
+        mLogFile = new File(new File(mContext.getFilesDir(), DIRECTORY_NAME), LOG_FILE_NAME);
+    }
+
+    /**
+     * Starts replaying stored writes, now and whenever connectivity returns.
+     */
+    public synchronized void start(@NonNull final TokenProvider tokenProvider,
+                                   @Nullable final DeliveryListener deliveryListener) {
+        final boolean started = mTokenProvider != null;
+        mTokenProvider = tokenProvider;
+        mDeliveryListener = deliveryListener;
+
+        if (!started) {
+            mContext.registerReceiver(mConnectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+
+        replay();
+    }
+
+    /**
+     * Stops listening for connectivity. Stored writes are kept and replayed after the next {@link #start}.
+     */
+    public synchronized void stop() {
+        if (mTokenProvider == null) {
+            return;
+        }
+
+        mContext.unregisterReceiver(mConnectivityReceiver);
+        mMainHandler.removeCallbacks(mDelayedReplay);
+        mTokenProvider = null;
+        mDeliveryListener = null;
+    }
+
+    /**
+     * Stores a write to be sent to MSGraph.
+     *
+     * @param method    Request.Method.POST, PATCH or DELETE.
+     * @param accountId id of the account the write is made on behalf of.
+     * @param body      request body, or null.
+     * @return the request id of the write, sent as "client-request-id" on every replay.
+     */
+    public String enqueue(final int method,
+                          @NonNull final String url,
+                          @Nullable final JSONObject body,
+                          @NonNull final String accountId,
+                          @Nullable final EnqueueListener enqueueListener,
+                          @NonNull final Response.ErrorListener errorListener) {
+        if (method != Request.Method.POST && method != Request.Method.PATCH && method != Request.Method.DELETE) {
+            throw new IllegalArgumentException("Only POST, PATCH and DELETE are queued: " + method);
+        }
+
+        final Entry entry = new Entry(UUID.randomUUID().toString(), method, url,
+                body != null ? body.toString() : null, accountId);
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load();
+                    append(entry.toJson(OP_ADD));
+                    mPending.addLast(entry);
+                } catch (IOException | JSONException e) {
+                    postError(new VolleyError("Failed to store write", e), errorListener);
+                    return;
+                }
+
+                if (enqueueListener != null) {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            enqueueListener.onEnqueued(entry.key);
+                        }
+                    });
+                }
+
+                replayPending();
+            }
+        });
+
+        return entry.key;
+    }
+
+    /**
+     * Sends stored writes now if the device is online.
+     */
+    public void replay() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                replayPending();
+            }
+        });
+    }
+
+    /**
+     * Sends pending writes in order until the log is empty or one cannot be delivered yet.
+     */
+    private void replayPending() {
+        load();
+
+        final TokenProvider tokenProvider;
+        final DeliveryListener deliveryListener;
+        synchronized (this) {
+            tokenProvider = mTokenProvider;
+            deliveryListener = mDeliveryListener;
+        }
+
+        if (tokenProvider == null || mPending.isEmpty() || !isConnected()) {
+            return;
+        }
+
+        mMainHandler.removeCallbacks(mDelayedReplay);
+
+        while (!mPending.isEmpty()) {
+            /* Writes honour the same Retry-After as every other MSGraph request of the app. */
+            final long throttleDelayMs = MSGraphRequestWrapper.getRetryPolicy().getThrottleDelayMs();
+            if (throttleDelayMs > 0) {
+                Log.d(TAG, "Graph is throttling, postponing replay");
+                scheduleReplay(throttleDelayMs);
+                return;
+            }
+
+            final Entry entry = mPending.peekFirst();
+            final boolean forceRefresh = entry.forceRefresh;
+            entry.forceRefresh = false;
+            final String accessToken = tokenProvider.getAccessToken(entry.accountId, forceRefresh);
+            if (accessToken == null) {
+                Log.d(TAG, "No token for " + entry.accountId + ", postponing replay");
+                return;
+            }
+
+            final NetworkResponse response;
+            try {
+                response = send(entry, accessToken);
+            } catch (IOException e) {
+                /* Still offline, or the connection dropped: the write is kept and replayed later. */
+                Log.d(TAG, "Replay interrupted: " + e.toString());
+                if (isConnected()) {
+                    /* No connectivity broadcast will come while the device stays online. */
+                    scheduleReplay(getBackoffDelayMs(entry));
+                }
+                return;
+            }
+
+            final int statusCode = response.statusCode;
+            if (isTransient(statusCode)) {
+                Log.d(TAG, "Replay postponed, MSGraph answered " + statusCode);
+                if (statusCode == HTTP_UNAUTHORIZED && !entry.tokenRefreshed) {
+                    /* The token was revoked or is otherwise refused; a cached copy would be refused again. */
+                    AccessTokenCache.getInstance().remove(entry.accountId);
+                    entry.forceRefresh = true;
+                    entry.tokenRefreshed = true;
+                    continue;
+                }
+
+                long retryAfterMs = MSGraphRetryPolicy.parseRetryAfterMs(response);
+                if (retryAfterMs < 0 && statusCode == HTTP_TOO_MANY_REQUESTS) {
+                    retryAfterMs = DEFAULT_THROTTLE_DELAY_MS;
+                }
+                MSGraphRequestWrapper.getRetryPolicy().throttle(retryAfterMs);
+                scheduleReplay(Math.max(retryAfterMs, getBackoffDelayMs(entry)));
+                return;
+            }
+
+            try {
+                markDone(entry);
+            } catch (IOException | JSONException e) {
+                Log.e(TAG, "Failed to record delivered write " + entry.key, e);
+                return;
+            }
+
+            if (deliveryListener == null) {
+                continue;
+            }
+
+            final boolean delivered = statusCode < 300
+                    || (statusCode == HTTP_NOT_FOUND && entry.method == Request.Method.DELETE);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (delivered) {
+                        deliveryListener.onDelivered(entry.key, response);
+                    } else {
+                        deliveryListener.onRejected(entry.key, new VolleyError(response));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Whether MSGraph may accept the same write later, so it stays at the head of the log.
+     */
+    private static boolean isTransient(final int statusCode) {
+        return statusCode == HTTP_UNAUTHORIZED
+                || statusCode == HTTP_REQUEST_TIMEOUT
+                || statusCode == HTTP_TOO_MANY_REQUESTS
+                || statusCode >= 500;
+    }
+
+    /**
+     * Returns the delay before the write at the head of the log is sent again, doubled for each consecutive
+     * transient failure.
+     */
+    private static long getBackoffDelayMs(@NonNull final Entry entry) {
+        final int failures = Math.min(entry.failures++, 20);
+        return Math.min(MAX_REPLAY_DELAY_MS, MIN_REPLAY_DELAY_MS << failures);
+    }
+
+    private void scheduleReplay(final long delayMs) {
+        Log.d(TAG, "Replaying in " + delayMs + "ms");
+        mMainHandler.removeCallbacks(mDelayedReplay);
+        mMainHandler.postDelayed(mDelayedReplay, delayMs);
+    }
+
+    private boolean isConnected() {
+        final ConnectivityManager connectivityManager =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        final NetworkInfo networkInfo = connectivityManager != null ? connectivityManager.getActiveNetworkInfo() : null;
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    private NetworkResponse send(@NonNull final Entry entry, @NonNull final String accessToken) throws IOException {
+        final HttpResponse response;
+        try {
+            response = MSGraphRequestWrapper.getHttpStack()
+                    .executeRequest(new OutboxRequest(entry, accessToken), new HashMap<String, String>());
+        } catch (AuthFailureError e) {
+            throw new IOException(e);
+        }
+
+        final InputStream content = response.getContent();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (content != null) {
+            try {
+                final byte[] buffer = new byte[4096];
+                int read;
+                while ((read = content.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+            } finally {
+                content.close();
+            }
+        }
+
+        return new NetworkResponse(response.getStatusCode(), body.toByteArray(), false, 0, response.getHeaders());
+    }
+
+    /**
+     * Reads the log back after a process restart. Writes recorded as done are skipped, and a line
+     * torn by a crash during an append is ignored.
+     */
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+
+        mLoaded = true;
+        if (!mLogFile.exists()) {
+            return;
+        }
+
+        final Map<String, Entry> entries = new LinkedHashMap<>();
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mLogFile), UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        final JSONObject record = new JSONObject(line);
+                        if (OP_DONE.equals(record.getString("op"))) {
+                            entries.remove(record.getString("key"));
+                            mDoneCount++;
+                        } else {
+                            final Entry entry = Entry.fromJson(record);
+                            entries.put(entry.key, entry);
+                        }
+                    } catch (JSONException e) {
+                        Log.w(TAG, "Skipping malformed outbox record");
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read outbox", e);
+        }
+
+        mPending.addAll(entries.values());
+    }
+
+    private void markDone(@NonNull final Entry entry) throws IOException, JSONException {
+        mPending.pollFirst();
+
+        if (mPending.isEmpty()) {
+            /* Nothing left to replay, the log can start over. */
+            if (mLogFile.exists() && !mLogFile.delete()) {
+                throw new IOException("Failed to delete " + mLogFile);
+            }
+            mDoneCount = 0;
+            return;
+        }
+
+        append(new JSONObject().put("op", OP_DONE).put("key", entry.key));
+        if (++mDoneCount >= COMPACTION_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the log with only the pending writes. The previous log is only replaced once the new one is complete.
+     */
+    private void compact() throws IOException, JSONException {
+        final File temporaryFile = new File(mLogFile.getPath() + ".tmp");
+        final FileOutputStream output = new FileOutputStream(temporaryFile);
+        try {
+            for (final Entry entry : mPending) {
+                output.write((entry.toJson(OP_ADD).toString() + "\n").getBytes(UTF_8));
+            }
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+
+        if (!temporaryFile.renameTo(mLogFile)) {
+            throw new IOException("Failed to replace " + mLogFile);
+        }
+
+        mDoneCount = 0;
+    }
+
+    /**
+     * Appends a record and flushes it to the storage device before returning.
+     */
+    private void append(@NonNull final JSONObject record) throws IOException {
+        final File parent = mLogFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create " + parent);
+        }
+
+        final FileOutputStream output = new FileOutputStream(mLogFile, true);
+        try {
+            output.write((record.toString() + "\n").getBytes(UTF_8));
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+    }
+
+    private void postError(@NonNull final VolleyError error, @NonNull final Response.ErrorListener errorListener) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                errorListener.onErrorResponse(error);
+            }
+        });
+    }
+
+    private static class Entry {
+        final String key;
+        final int method;
+        final String url;
+        final String body;
+        final String accountId;
+
+        /* Only accessed on mExecutor, and not persisted: a restart starts over with the shortest backoff. */
+        int failures;
+        boolean forceRefresh;
+        boolean tokenRefreshed;
+
+        Entry(@NonNull final String key,
+              final int method,
+              @NonNull final String url,
+              @Nullable final String body,
+              @NonNull final String accountId) {
+            this.key = key;
+            this.method = method;
+            this.url = url;
+            this.body = body;
+            this.accountId = accountId;
+        }
+
+        JSONObject toJson(@NonNull final String op) throws JSONException {
+            final JSONObject record = new JSONObject()
+                    .put("op", op)
+                    .put("key", key)
+                    .put("method", method)
+                    .put("url", url)
+                    .put("accountId", accountId);
+            if (body != null) {
+                record.put("body", body);
+            }
+            return record;
+        }
+
+        static Entry fromJson(@NonNull final JSONObject record) throws JSONException {
+            return new Entry(record.getString("key"),
+                    record.getInt("method"),
+                    record.getString("url"),
+                    record.has("body") ? record.getString("body") : null,
+                    record.getString("accountId"));
+        }
+    }
+
+    /**
+     * Carries a replayed write, made directly on the HTTP stack. It is never added to a RequestQueue.
+     */
+    private static class OutboxRequest extends Request<Void> {
+        private final Entry mEntry;
+        private final String mAccessToken;
+
+        OutboxRequest(@NonNull final Entry entry, @NonNull final String accessToken) {
+            super(entry.method, entry.url, null);
+            mEntry = entry;
+            mAccessToken = accessToken;
+            setRetryPolicy(new DefaultRetryPolicy(REQUEST_TIMEOUT_MS, 0, DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+        }
+
+        @Override
+        public Map<String, String> getHeaders() {
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Authorization", "Bearer " + mAccessToken);
+            headers.put("client-request-id", mEntry.key);
+            return headers;
+        }
+
+        @Override
+        public String getBodyContentType() {
+            return "application/json; charset=utf-8";
+        }
+
+        @Override
+        public byte[] getBody() {
+            return mEntry.body != null ? mEntry.body.getBytes(UTF_8) : null;
+        }
+
+        @Override
+        protected Response<Void> parseNetworkResponse(final NetworkResponse response) {
+            return Response.success(null, null);
+        }
+
+        @Override
+        protected void deliverResponse(final Void response) {
+        }
+    }
+}
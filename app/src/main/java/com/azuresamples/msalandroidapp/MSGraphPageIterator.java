@@ -0,0 +1,366 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Walks a MSGraph collection page by page by following "@odata.nextLink".
+ * <p>
+ * While the caller is consuming page N, the iterator is already downloading the following pages,
+ * up to {@link #setPrefetchDepth(int)} pages ahead. Pages are delivered on the main thread.
+ * A page the caller is waiting for is sent as {@link MSGraphRequestPriority#USER_VISIBLE}, a page
+ * fetched ahead as {@link MSGraphRequestPriority#PREFETCH}.
+ * <p>
+ * i.e.
+ * MSGraphPageIterator iterator = new MSGraphPageIterator(MS_GRAPH_ROOT_ENDPOINT + "v1.0/users", accessToken)
+ *         .setPageSize(100)
+ *         .setPrefetchDepth(2)
+ *         .setMaxItems(1000);
+ * iterator.next(pageListener, errorListener);
+ */
+public class MSGraphPageIterator {
+    private static final int DEFAULT_PREFETCH_DEPTH = 1;
+
+    /**
+     * Receives one page of the collection.
+     */
+    public interface PageListener {
+        /**
+         * @param items        items of this page. Empty once the collection is exhausted.
+         * @param hasMorePages whether calling {@link #next} again can return more items.
+         */
+        void onPage(@NonNull List<JSONObject> items, boolean hasMorePages);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Deque<List<JSONObject>> mPrefetchedPages = new ArrayDeque<>();
+    private final String mAccessToken;
+
+    private MSGraphRequestScope mScope;
+    private String mAccountId;
+    private String mTenantId;
+    private String mNextUrl;
+    private int mPageSize;
+    private int mPrefetchDepth = DEFAULT_PREFETCH_DEPTH;
+    private int mMaxItems = Integer.MAX_VALUE;
+
+    private boolean mFetching;
+    private boolean mClosed;
+    private VolleyError mError;
+    private PageListener mPendingPageListener;
+    private Response.ErrorListener mPendingErrorListener;
+
+    private long mStartTimeMs;
+    private long mLastPageTimeMs;
+    private int mItemsFetched;
+    private int mPagesFetched;
+
+    /**
+     * @param collectionUrl URL of the first page, i.e. MS_GRAPH_ROOT_ENDPOINT + "v1.0/users".
+     */
+    public MSGraphPageIterator(@NonNull final String collectionUrl,
+                               @NonNull final String accessToken) {
+        mNextUrl = collectionUrl;
+        mAccessToken = accessToken;
+    }
+
+    /**
+     * Sends the pages on behalf of the given account, so they are rate limited and prioritized with its other
+     * Graph calls by {@link MSGraphRequestScheduler}. Must be called before the first {@link #next}.
+     */
+    public MSGraphPageIterator setAccount(@NonNull final String accountId, @Nullable final String tenantId) {
+        mAccountId = accountId;
+        mTenantId = tenantId;
+        return this;
+    }
+
+    /**
+     * Binds the downloads to the given scope: once it is closed, pages being downloaded are cancelled.
+     */
+    public MSGraphPageIterator setScope(@NonNull final MSGraphRequestScope scope) {
+        mScope = scope;
+        return this;
+    }
+
+    /**
+     * Sets the number of items requested per page ($top). Must be called before the first {@link #next}.
+     */
+    public MSGraphPageIterator setPageSize(final int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive.");
+        }
+
+        mPageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Sets how many pages may be downloaded ahead of the page being consumed.
+     */
+    public MSGraphPageIterator setPrefetchDepth(final int prefetchDepth) {
+        if (prefetchDepth < 0) {
+            throw new IllegalArgumentException("prefetchDepth cannot be negative.");
+        }
+
+        mPrefetchDepth = prefetchDepth;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of items returned across all pages.
+     */
+    public MSGraphPageIterator setMaxItems(final int maxItems) {
+        if (maxItems <= 0) {
+            throw new IllegalArgumentException("maxItems must be positive.");
+        }
+
+        mMaxItems = maxItems;
+        return this;
+    }
+
+    /**
+     * Delivers the next page to pageListener, either straight from the prefetched pages
+     * or once it has been downloaded.
+     */
+    @MainThread
+    public void next(@NonNull final PageListener pageListener,
+                     @NonNull final Response.ErrorListener errorListener) {
+        if (mPendingPageListener != null) {
+            throw new IllegalStateException("The previous page has not been delivered yet.");
+        }
+
+        mPendingPageListener = pageListener;
+        mPendingErrorListener = errorListener;
+
+        deliverPendingPage();
+        fillPipeline();
+    }
+
+    /**
+     * Whether more pages can be returned by {@link #next}.
+     */
+    @MainThread
+    public boolean hasNext() {
+        return !mClosed && mError == null && (!mPrefetchedPages.isEmpty() || !isExhausted());
+    }
+
+    /**
+     * Stops prefetching. Pages being downloaded are discarded.
+     */
+    @MainThread
+    public void close() {
+        mClosed = true;
+        mPrefetchedPages.clear();
+        mPendingPageListener = null;
+        mPendingErrorListener = null;
+    }
+
+    /**
+     * Items downloaded per second since the first page was requested.
+     */
+    @MainThread
+    public double getItemsPerSecond() {
+        return perSecond(mItemsFetched);
+    }
+
+    /**
+     * Pages downloaded per second since the first page was requested.
+     */
+    @MainThread
+    public double getPagesPerSecond() {
+        return perSecond(mPagesFetched);
+    }
+
+    public int getItemsFetched() {
+        return mItemsFetched;
+    }
+
+    public int getPagesFetched() {
+        return mPagesFetched;
+    }
+
+    private double perSecond(final int count) {
+        final long elapsedMs = mLastPageTimeMs - mStartTimeMs;
+        if (count == 0 || elapsedMs <= 0) {
+            return 0;
+        }
+
+        return count * 1000.0 / elapsedMs;
+    }
+
+    private boolean isExhausted() {
+        return mNextUrl == null || mItemsFetched >= mMaxItems;
+    }
+
+    private void deliverPendingPage() {
+        if (mPendingPageListener == null) {
+            return;
+        }
+
+        final PageListener pageListener = mPendingPageListener;
+        final Response.ErrorListener errorListener = mPendingErrorListener;
+
+        if (!mPrefetchedPages.isEmpty()) {
+            mPendingPageListener = null;
+            mPendingErrorListener = null;
+            final List<JSONObject> page = mPrefetchedPages.poll();
+            pageListener.onPage(page, hasNext());
+        } else if (mError != null) {
+            mPendingPageListener = null;
+            mPendingErrorListener = null;
+            errorListener.onErrorResponse(mError);
+        } else if (mClosed || isExhausted()) {
+            mPendingPageListener = null;
+            mPendingErrorListener = null;
+            pageListener.onPage(Collections.<JSONObject>emptyList(), false);
+        }
+    }
+
+    /**
+     * Starts downloading the next page if the caller is waiting for one
+     * or fewer than prefetchDepth pages are ready.
+     */
+    private void fillPipeline() {
+        if (mFetching || mClosed || mError != null || isExhausted()) {
+            return;
+        }
+
+        final int wanted = mPrefetchDepth + (mPendingPageListener != null ? 1 : 0);
+        if (mPrefetchedPages.size() >= wanted) {
+            return;
+        }
+
+        if (mStartTimeMs == 0) {
+            mStartTimeMs = SystemClock.elapsedRealtime();
+        }
+
+        mFetching = true;
+        final String url = mPagesFetched == 0 && mPageSize > 0 ? withPageSize(mNextUrl, mPageSize) : mNextUrl;
+        final List<JSONObject> page = new ArrayList<>();
+        final int remaining = mMaxItems - mItemsFetched;
+
+        final MSGraphRequestPriority priority = mPendingPageListener != null
+                ? MSGraphRequestPriority.USER_VISIBLE
+                : MSGraphRequestPriority.PREFETCH;
+
+        MSGraphRequestWrapper.streamGraphCollection(mScope, mAccountId, mTenantId, priority, url, mAccessToken,
+                new MSGraphStreamingRequest.ItemListener() {
+                    @Override
+                    public void onItem(@NonNull JSONObject item) {
+                        if (page.size() < remaining) {
+                            page.add(item);
+                        }
+                    }
+                },
+                new MSGraphStreamingRequest.CompletionListener() {
+                    @Override
+                    public void onComplete(@NonNull final MSGraphStreamingRequest.Result result) {
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onPageFetched(page, result.nextLink);
+                            }
+                        });
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(final VolleyError error) {
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onPageFailed(error);
+                            }
+                        });
+                    }
+                });
+    }
+
+    private void onPageFetched(@NonNull final List<JSONObject> page, final String nextLink) {
+        mFetching = false;
+        if (mClosed) {
+            return;
+        }
+
+        mLastPageTimeMs = SystemClock.elapsedRealtime();
+        mPagesFetched++;
+        mItemsFetched += page.size();
+        mNextUrl = nextLink;
+        mPrefetchedPages.add(page);
+
+        deliverPendingPage();
+        fillPipeline();
+    }
+
+    private void onPageFailed(@NonNull final VolleyError error) {
+        mFetching = false;
+        if (mClosed) {
+            return;
+        }
+
+        mError = error;
+        deliverPendingPage();
+    }
+
+    /**
+     * Sets $top in the URL, replacing the one already there: MSGraph rejects a duplicate query parameter.
+     */
+    static String withPageSize(@NonNull final String url, final int pageSize) {
+        final int queryStart = url.indexOf('?');
+        if (queryStart < 0) {
+            return url + "?$top=" + pageSize;
+        }
+
+        final StringBuilder builder = new StringBuilder(url.substring(0, queryStart + 1));
+        for (final String parameter : url.substring(queryStart + 1).split("&")) {
+            final int equals = parameter.indexOf('=');
+            final String name = equals >= 0 ? parameter.substring(0, equals) : parameter;
+            if (parameter.isEmpty() || "$top".equals(name) || "%24top".equalsIgnoreCase(name)) {
+                continue;
+            }
+
+            builder.append(parameter).append('&');
+        }
+
+        return builder.append("$top=").append(pageSize).toString();
+    }
+}
@@ -0,0 +1,515 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Header;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpResponse;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the profile photo of signed-in accounts from /me/photos/{size}/$value.
+ * <p>
+ * The smallest photo size covering the target view is requested, and its bytes are streamed straight
+ * to a disk cache. The file is decoded with downsampling to the target size, and the bitmap is kept
+ * in a memory cache bounded in bytes. A photo on disk is revalidated with its ETag, so an unchanged
+ * photo costs a 304 instead of its bytes.
+ * See https://learn.microsoft.com/en-us/graph/api/profilephoto-get for more info.
+ */
+public class MSGraphPhotoLoader {
+    private static final String TAG = MSGraphPhotoLoader.class.getSimpleName();
+
+    private static final String PHOTO_DIRECTORY_NAME = "msgraph_photos";
+    private static final String ETAG_FILE_SUFFIX = ".etag";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* Square sizes MSGraph serves, in pixels. */
+    private static final int[] PHOTO_SIZES = {48, 64, 96, 120, 240, 360, 432, 504, 648};
+
+    /* Decoded photos may use up to this fraction of the app's heap. */
+    private static final int MEMORY_CACHE_HEAP_DIVISOR = 16;
+
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int HTTP_NOT_FOUND = 404;
+
+    /* A photo is nice to have, it must not hold back the data the user is waiting for. */
+    private static final MSGraphRequestPriority PRIORITY = MSGraphRequestPriority.PREFETCH;
+
+    /**
+     * Invoked on the main thread with the photo, or null if the account has none.
+     */
+    public interface PhotoListener {
+        void onPhoto(@Nullable Bitmap photo);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final File mDirectory;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final Set<String> mLoading = new HashSet<>();
+
+    MSGraphPhotoLoader(@NonNull final Context context) {
+        mDirectory = new File(context.getApplicationContext().getCacheDir(), PHOTO_DIRECTORY_NAME);
+        mMemoryCache = new LruCache<String, Bitmap>((int) (Runtime.getRuntime().maxMemory() / MEMORY_CACHE_HEAP_DIVISOR)) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Returns the smallest photo size MSGraph serves that covers the target size, or the largest one.
+     */
+    static int getPhotoSize(final int targetSizePx) {
+        for (final int size : PHOTO_SIZES) {
+            if (size >= targetSizePx) {
+                return size;
+            }
+        }
+
+        return PHOTO_SIZES[PHOTO_SIZES.length - 1];
+    }
+
+    /**
+     * Returns the photo if it is in memory, without any I/O, i.e. to bind a list item.
+     */
+    @Nullable
+    public Bitmap getFromMemory(@NonNull final String accountId, final int targetSizePx) {
+        return mMemoryCache.get(getMemoryKey(accountId, targetSizePx));
+    }
+
+    /**
+     * Loads the photo of the account the token belongs to, decoded to about targetSizePx.
+     * <p>
+     * Like other Graph calls, the fetch is rate limited per account, held back while MSGraph is throttling
+     * and retried by {@link MSGraphRetryPolicy}. If a scope is given, the fetch is cancelled once the scope
+     * is closed and the listeners are not invoked anymore. A photo already being loaded is not fetched again,
+     * and only the caller that started the load is answered.
+     */
+    public void load(@Nullable final MSGraphRequestScope scope,
+                     @NonNull final String accountId,
+                     @Nullable final String tenantId,
+                     @NonNull final String accessToken,
+                     final int targetSizePx,
+                     @NonNull final PhotoListener photoListener,
+                     @NonNull final Response.ErrorListener errorListener) {
+        final Bitmap cached = getFromMemory(accountId, targetSizePx);
+        if (cached != null) {
+            photoListener.onPhoto(cached);
+            return;
+        }
+
+        if (scope != null && scope.isClosed()) {
+            return;
+        }
+
+        final String key = getMemoryKey(accountId, targetSizePx);
+        synchronized (mLoading) {
+            if (!mLoading.add(key)) {
+                Log.d(TAG, "Photo of " + accountId + " is already being loaded");
+                return;
+            }
+        }
+
+        final MSGraphCall call = new MSGraphCall();
+        final Runnable cancellation = new Runnable() {
+            @Override
+            public void run() {
+                call.cancel();
+                finishLoading(key);
+            }
+        };
+
+        if (scope != null) {
+            scope.add(cancellation);
+        }
+
+        final PhotoListener callerPhotoListener = new PhotoListener() {
+            @Override
+            public void onPhoto(@Nullable Bitmap photo) {
+                call.finish();
+                finishLoading(key);
+                if (scope != null) {
+                    scope.remove(cancellation);
+                    if (scope.isClosed()) {
+                        return;
+                    }
+                }
+
+                photoListener.onPhoto(photo);
+            }
+        };
+        final Response.ErrorListener callerErrorListener = new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                call.finish();
+                finishLoading(key);
+                if (scope != null) {
+                    scope.remove(cancellation);
+                    if (scope.isClosed()) {
+                        return;
+                    }
+                }
+
+                errorListener.onErrorResponse(error);
+            }
+        };
+        call.setAbortListener(callerErrorListener);
+
+        final MSGraphRequestScheduler scheduler = MSGraphRequestWrapper.getScheduler();
+        scheduler.submit(accountId, tenantId, PRIORITY, new Runnable() {
+            @Override
+            public void run() {
+                call.setOnFinished(new Runnable() {
+                    @Override
+                    public void run() {
+                        scheduler.complete(PRIORITY);
+                    }
+                });
+
+                fetchWithRetry(accountId, accessToken, targetSizePx, callerPhotoListener, callerErrorListener,
+                        call, new MSGraphRetryPolicy.Attempt());
+            }
+        });
+    }
+
+    /**
+     * Drops the photos of an account from memory and disk, i.e. when it is removed.
+     */
+    public void remove(@NonNull final String accountId) {
+        final String keyPrefix = accountId + "|";
+        for (final String key : mMemoryCache.snapshot().keySet()) {
+            if (key.startsWith(keyPrefix)) {
+                mMemoryCache.remove(key);
+            }
+        }
+
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        final String filePrefix = toFileName(accountId) + "_";
+        for (final File file : files) {
+            if (file.getName().startsWith(filePrefix)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Fetches the photo on the IO pool, waiting out MSGraph throttling first, and schedules the retries
+     * {@link MSGraphRetryPolicy} allows on the main thread rather than sleeping on the pool.
+     */
+    private void fetchWithRetry(@NonNull final String accountId,
+                                @NonNull final String accessToken,
+                                final int targetSizePx,
+                                @NonNull final PhotoListener photoListener,
+                                @NonNull final Response.ErrorListener errorListener,
+                                @NonNull final MSGraphCall call,
+                                @NonNull final MSGraphRetryPolicy.Attempt attempt) {
+        if (call.isCancelled()) {
+            return;
+        }
+
+        final Runnable resend = new Runnable() {
+            @Override
+            public void run() {
+                fetchWithRetry(accountId, accessToken, targetSizePx, photoListener, errorListener, call, attempt);
+            }
+        };
+
+        final MSGraphRetryPolicy retryPolicy = MSGraphRequestWrapper.getRetryPolicy();
+        final long throttleDelayMs = retryPolicy.getThrottleDelayMs();
+        if (throttleDelayMs > 0) {
+            Log.d(TAG, "Graph is throttling, delaying photo request by " + throttleDelayMs + "ms");
+            mMainHandler.postDelayed(resend, throttleDelayMs);
+            return;
+        }
+
+        final int size = getPhotoSize(targetSizePx);
+        final MSGraphStreamingRequest.TransportRequest request = new MSGraphStreamingRequest.TransportRequest(
+                MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT + "v1.0/me/photos/" + size + "x" + size + "/$value",
+                accessToken);
+        call.setRequest(request);
+
+        MSGraphRequestWrapper.executeIo(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap photo;
+                try {
+                    photo = fetch(request, accountId, size, targetSizePx);
+                } catch (final IOException e) {
+                    retryOrFail(new VolleyError(e), errorListener, call, attempt, resend);
+                    return;
+                } catch (final VolleyError e) {
+                    retryOrFail(e, errorListener, call, attempt, resend);
+                    return;
+                }
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (call.answer()) {
+                            photoListener.onPhoto(photo);
+                        }
+                    }
+                });
+            }
+        }, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                deliverError(error, errorListener, call);
+            }
+        });
+    }
+
+    private void retryOrFail(@NonNull final VolleyError error,
+                             @NonNull final Response.ErrorListener errorListener,
+                             @NonNull final MSGraphCall call,
+                             @NonNull final MSGraphRetryPolicy.Attempt attempt,
+                             @NonNull final Runnable resend) {
+        final long retryDelayMs = MSGraphRequestWrapper.getRetryPolicy().getRetryDelayMs(Request.Method.GET, error, attempt);
+        if (retryDelayMs < 0) {
+            deliverError(error, errorListener, call);
+            return;
+        }
+
+        Log.d(TAG, "Retrying photo request in " + retryDelayMs + "ms, attempt " + (attempt.retries + 1));
+        mMainHandler.postDelayed(resend, retryDelayMs);
+    }
+
+    @Nullable
+    private Bitmap fetch(@NonNull final MSGraphStreamingRequest.TransportRequest request,
+                         @NonNull final String accountId,
+                         final int size,
+                         final int targetSizePx) throws IOException, VolleyError {
+        final File file = new File(mDirectory, toFileName(accountId) + "_" + size + ".jpg");
+        final File etagFile = new File(file.getPath() + ETAG_FILE_SUFFIX);
+
+        final Map<String, String> headers = new HashMap<>();
+        final String etag = file.exists() ? readEtag(etagFile) : null;
+        if (etag != null) {
+            headers.put("If-None-Match", etag);
+        }
+
+        final HttpResponse response;
+        try {
+            response = MSGraphRequestWrapper.getHttpStack().executeRequest(request, headers);
+        } catch (AuthFailureError e) {
+            throw new IOException(e);
+        }
+
+        final InputStream content = response.getContent();
+        try {
+            switch (response.getStatusCode()) {
+                case HTTP_OK:
+                    writeToDisk(content, file);
+                    writeEtag(etagFile, getHeader(response, "ETag"));
+                    break;
+
+                case HTTP_NOT_MODIFIED:
+                    Log.d(TAG, "Photo of " + accountId + " is unchanged");
+                    break;
+
+                case HTTP_NOT_FOUND:
+                    /* The account has no photo. */
+                    file.delete();
+                    etagFile.delete();
+                    return null;
+
+                default:
+                    throw new VolleyError(new NetworkResponse(response.getStatusCode(), new byte[0],
+                            false, 0, response.getHeaders()));
+            }
+        } finally {
+            if (content != null) {
+                content.close();
+            }
+        }
+
+        final Bitmap photo = decode(file, targetSizePx);
+        if (photo != null) {
+            mMemoryCache.put(getMemoryKey(accountId, targetSizePx), photo);
+        }
+
+        return photo;
+    }
+
+    /**
+     * Copies the body to disk as it arrives. The cached file is only replaced once the copy is complete.
+     */
+    private void writeToDisk(@Nullable final InputStream content, @NonNull final File file) throws IOException {
+        if (content == null) {
+            throw new IOException("Photo response has no body");
+        }
+
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            throw new IOException("Failed to create " + mDirectory);
+        }
+
+        final File temporaryFile = File.createTempFile(file.getName(), ".tmp", mDirectory);
+        try {
+            final OutputStream output = new FileOutputStream(temporaryFile);
+            try {
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = content.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                }
+            } finally {
+                output.close();
+            }
+
+            if (!temporaryFile.renameTo(file)) {
+                throw new IOException("Failed to replace " + file);
+            }
+        } finally {
+            temporaryFile.delete();
+        }
+    }
+
+    /**
+     * Decodes the file with the largest power of two downsampling that keeps it at least targetSizePx.
+     */
+    @Nullable
+    private static Bitmap decode(@NonNull final File file, final int targetSizePx) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= targetSizePx
+                && options.outHeight / (sampleSize * 2) >= targetSizePx) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    @Nullable
+    private static String readEtag(@NonNull final File etagFile) {
+        if (!etagFile.exists()) {
+            return null;
+        }
+
+        try {
+            final InputStream input = new FileInputStream(etagFile);
+            try {
+                final byte[] data = new byte[(int) etagFile.length()];
+                int offset = 0;
+                int read;
+                while (offset < data.length && (read = input.read(data, offset, data.length - offset)) != -1) {
+                    offset += read;
+                }
+                return new String(data, 0, offset, UTF_8);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeEtag(@NonNull final File etagFile, @Nullable final String etag) throws IOException {
+        if (etag == null) {
+            etagFile.delete();
+            return;
+        }
+
+        final OutputStream output = new FileOutputStream(etagFile);
+        try {
+            output.write(etag.getBytes(UTF_8));
+        } finally {
+            output.close();
+        }
+    }
+
+    @Nullable
+    private static String getHeader(@NonNull final HttpResponse response, @NonNull final String name) {
+        for (final Header header : response.getHeaders()) {
+            if (name.equalsIgnoreCase(header.getName())) {
+                return header.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    private void deliverError(@NonNull final VolleyError error,
+                              @NonNull final Response.ErrorListener errorListener,
+                              @NonNull final MSGraphCall call) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (call.answer()) {
+                    errorListener.onErrorResponse(error);
+                }
+            }
+        });
+    }
+
+    private void finishLoading(@NonNull final String key) {
+        synchronized (mLoading) {
+            mLoading.remove(key);
+        }
+    }
+
+    private static String getMemoryKey(@NonNull final String accountId, final int targetSizePx) {
+        return accountId + "|" + targetSizePx;
+    }
+
+    private static String toFileName(@NonNull final String accountId) {
+        return accountId.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
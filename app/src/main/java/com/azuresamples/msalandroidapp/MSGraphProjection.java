@@ -0,0 +1,122 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The properties of a MSGraph item that a {@link MSGraphQuery} selected, decoded from its response by
+ * {@link MSGraphQuery#decode(JSONObject)}.
+ * <p>
+ * Properties are looked up by the path they were selected with, i.e. "displayName" or "manager/displayName".
+ * A property MSGraph did not return is absent; a property returned as null is present, with a null value.
+ */
+public class MSGraphProjection {
+    private final Map<String, Object> mValues;
+
+    MSGraphProjection(@NonNull final Map<String, Object> values) {
+        mValues = values;
+    }
+
+    public Set<String> getProperties() {
+        return Collections.unmodifiableSet(mValues.keySet());
+    }
+
+    public boolean has(@NonNull final String property) {
+        return mValues.containsKey(property);
+    }
+
+    @Nullable
+    public String getString(@NonNull final String property) {
+        final Object value = mValues.get(property);
+        return value == null || value == JSONObject.NULL ? null : value.toString();
+    }
+
+    public long getLong(@NonNull final String property, final long fallback) {
+        final Object value = mValues.get(property);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+
+        if (value instanceof String) {
+            try {
+                return Long.parseLong((String) value);
+            } catch (NumberFormatException e) {
+                return fallback;
+            }
+        }
+
+        return fallback;
+    }
+
+    public boolean getBoolean(@NonNull final String property, final boolean fallback) {
+        final Object value = mValues.get(property);
+        return value instanceof Boolean ? (Boolean) value : fallback;
+    }
+
+    /**
+     * Returns a complex property or an expanded relationship, i.e. "manager".
+     */
+    @Nullable
+    public JSONObject getObject(@NonNull final String property) {
+        final Object value = mValues.get(property);
+        return value instanceof JSONObject ? (JSONObject) value : null;
+    }
+
+    @Nullable
+    public JSONArray getArray(@NonNull final String property) {
+        final Object value = mValues.get(property);
+        return value instanceof JSONArray ? (JSONArray) value : null;
+    }
+
+    /**
+     * Returns the selected properties only, keyed by their path, i.e. to display them.
+     */
+    public JSONObject toJson() {
+        final JSONObject json = new JSONObject();
+        for (final Map.Entry<String, Object> value : mValues.entrySet()) {
+            try {
+                json.put(value.getKey(), value.getValue());
+            } catch (JSONException e) {
+                /* Only thrown for non-finite numbers, which MSGraph never sends. */
+            }
+        }
+
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return toJson().toString();
+    }
+}
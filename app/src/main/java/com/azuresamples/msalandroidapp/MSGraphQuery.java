@@ -0,0 +1,451 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Builds MSGraph URLs with OData query options, so a screen only downloads the properties it renders.
+ * <pre>
+ * String url = new MSGraphQuery("v1.0/me")
+ *         .select("displayName", "mail")
+ *         .build();
+ * </pre>
+ * The response is decoded by the same query with {@link #decode(JSONObject)}, which keeps the selected
+ * properties only. {@link #parse(String)} decodes such a URL back into a query, i.e. to decode the response
+ * of a URL typed by the user.
+ * See https://learn.microsoft.com/en-us/graph/query-parameters for more info.
+ */
+public class MSGraphQuery {
+    private static final String SELECT = "$select";
+    private static final String EXPAND = "$expand";
+    private static final String FILTER = "$filter";
+    private static final String TOP = "$top";
+    private static final String ORDER_BY = "$orderby";
+    private static final String COUNT = "$count";
+
+    /* MSGraph pages hold at most 999 items. */
+    private static final int MAX_TOP = 999;
+
+    /* Property paths, i.e. "displayName", "manager/displayName" or "microsoft.graph.user/mail". */
+    private static final Pattern PROPERTY = Pattern.compile("[A-Za-z_][A-Za-z0-9_.]*(/[A-Za-z_][A-Za-z0-9_.]*)*");
+
+    /* Annotations MSGraph adds to every response, i.e. "@odata.context". */
+    private static final String ODATA_ANNOTATION_PREFIX = "@odata.";
+
+    /* Characters left as they are in query option values; MSGraph reads them unescaped. */
+    private static final String ALLOWED_VALUE_CHARACTERS = ",/'()$";
+
+    private final String mResourceUrl;
+    private final Set<String> mSelect = new LinkedHashSet<>();
+    private final Set<String> mExpand = new LinkedHashSet<>();
+    private final List<String> mOrderBy = new ArrayList<>();
+    private String mFilter;
+    private int mTop;
+    private boolean mCount;
+
+    /**
+     * @param resource either a path relative to {@link MSGraphRequestWrapper#MS_GRAPH_ROOT_ENDPOINT},
+     *                 i.e. "v1.0/me", or an absolute URL without query.
+     */
+    public MSGraphQuery(@NonNull final String resource) {
+        if (resource.indexOf('?') >= 0) {
+            throw new IllegalArgumentException("Resource must not have a query, use MSGraphQuery.parse(): " + resource);
+        }
+
+        mResourceUrl = resource.startsWith("https://")
+                ? resource
+                : MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT + resource;
+    }
+
+    /**
+     * Restricts the response to the given properties.
+     */
+    public MSGraphQuery select(@NonNull final String... properties) {
+        for (final String property : properties) {
+            mSelect.add(checkProperty(property));
+        }
+        return this;
+    }
+
+    /**
+     * Includes the given relationships, i.e. "manager", in the response.
+     */
+    public MSGraphQuery expand(@NonNull final String... relationships) {
+        for (final String relationship : relationships) {
+            mExpand.add(checkProperty(relationship));
+        }
+        return this;
+    }
+
+    /**
+     * Keeps only the items matching an OData filter expression, i.e. "startswith(displayName,'a')".
+     */
+    public MSGraphQuery filter(@NonNull final String expression) {
+        if (expression.trim().isEmpty()) {
+            throw new IllegalArgumentException("Filter must not be empty");
+        }
+
+        mFilter = expression;
+        return this;
+    }
+
+    /**
+     * Sets the number of items per page, between 1 and 999.
+     */
+    public MSGraphQuery top(final int top) {
+        if (top < 1 || top > MAX_TOP) {
+            throw new IllegalArgumentException("$top must be between 1 and " + MAX_TOP + ": " + top);
+        }
+
+        mTop = top;
+        return this;
+    }
+
+    /**
+     * Sorts the items by the given property. Calls are cumulative: the first one is the primary sort.
+     */
+    public MSGraphQuery orderBy(@NonNull final String property, final boolean descending) {
+        mOrderBy.add(checkProperty(property) + (descending ? " desc" : ""));
+        return this;
+    }
+
+    /**
+     * Asks for the total number of items in "@odata.count".
+     * MSGraph requires the ConsistencyLevel: eventual header on some resources when this is set.
+     */
+    public MSGraphQuery count(final boolean count) {
+        mCount = count;
+        return this;
+    }
+
+    public String getResourceUrl() {
+        return mResourceUrl;
+    }
+
+    public Set<String> getSelect() {
+        return Collections.unmodifiableSet(mSelect);
+    }
+
+    public Set<String> getExpand() {
+        return Collections.unmodifiableSet(mExpand);
+    }
+
+    public List<String> getOrderBy() {
+        return Collections.unmodifiableList(mOrderBy);
+    }
+
+    @Nullable
+    public String getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * Returns the number of items per page, or 0 if MSGraph's default is used.
+     */
+    public int getTop() {
+        return mTop;
+    }
+
+    public boolean getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the URL to request.
+     */
+    public String build() {
+        final StringBuilder url = new StringBuilder(mResourceUrl);
+        char separator = '?';
+
+        if (!mSelect.isEmpty()) {
+            appendOption(url, separator, SELECT, join(mSelect));
+            separator = '&';
+        }
+
+        if (!mExpand.isEmpty()) {
+            appendOption(url, separator, EXPAND, join(mExpand));
+            separator = '&';
+        }
+
+        if (mFilter != null) {
+            appendOption(url, separator, FILTER, mFilter);
+            separator = '&';
+        }
+
+        if (!mOrderBy.isEmpty()) {
+            appendOption(url, separator, ORDER_BY, join(mOrderBy));
+            separator = '&';
+        }
+
+        if (mTop > 0) {
+            appendOption(url, separator, TOP, String.valueOf(mTop));
+            separator = '&';
+        }
+
+        if (mCount) {
+            appendOption(url, separator, COUNT, "true");
+        }
+
+        return url.toString();
+    }
+
+    @Override
+    public String toString() {
+        return build();
+    }
+
+    /**
+     * Decodes a single item response, i.e. of "v1.0/me", keeping the selected properties and expanded
+     * relationships only. Without $select, every property is kept but the OData annotations.
+     */
+    public MSGraphProjection decode(@NonNull final JSONObject item) {
+        final Map<String, Object> values = new LinkedHashMap<>();
+
+        if (mSelect.isEmpty()) {
+            final Iterator<String> names = item.keys();
+            while (names.hasNext()) {
+                final String name = names.next();
+                if (!name.startsWith(ODATA_ANNOTATION_PREFIX)) {
+                    values.put(name, item.opt(name));
+                }
+            }
+        } else {
+            for (final String property : mSelect) {
+                final Object value = resolve(item, property);
+                if (value != null) {
+                    values.put(property, value);
+                }
+            }
+        }
+
+        for (final String relationship : mExpand) {
+            final Object value = item.opt(relationship);
+            if (value != null) {
+                values.put(relationship, value);
+            }
+        }
+
+        return new MSGraphProjection(values);
+    }
+
+    /**
+     * Decodes each item of a collection response, i.e. of "v1.0/users".
+     */
+    public List<MSGraphProjection> decodeCollection(@NonNull final JSONObject page) {
+        final List<MSGraphProjection> items = new ArrayList<>();
+        final JSONArray value = page.optJSONArray("value");
+        if (value == null) {
+            return items;
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+            final JSONObject item = value.optJSONObject(i);
+            if (item != null) {
+                items.add(decode(item));
+            }
+        }
+
+        return items;
+    }
+
+    /**
+     * Decodes the response of a URL, i.e. typed by the user, with the query of that URL: a single item
+     * becomes its projection, and a collection the projections of its items under "value".
+     * The response is returned as it is if the URL has a query option that cannot be decoded.
+     */
+    public static JSONObject decodeResponse(@NonNull final String url, @NonNull final JSONObject response) {
+        final MSGraphQuery query;
+        try {
+            query = parse(url);
+        } catch (IllegalArgumentException e) {
+            return response;
+        }
+
+        if (response.optJSONArray("value") == null) {
+            return query.decode(response).toJson();
+        }
+
+        final JSONArray items = new JSONArray();
+        for (final MSGraphProjection item : query.decodeCollection(response)) {
+            items.put(item.toJson());
+        }
+
+        try {
+            return new JSONObject().put("value", items);
+        } catch (JSONException e) {
+            return response;
+        }
+    }
+
+    /**
+     * Follows a property path, skipping type casts such as "microsoft.graph.user".
+     *
+     * @return the value, JSONObject.NULL if it is null, or null if it is absent.
+     */
+    @Nullable
+    private static Object resolve(@NonNull final JSONObject item, @NonNull final String path) {
+        Object value = item;
+        for (final String segment : path.split("/")) {
+            if (segment.indexOf('.') >= 0) {
+                continue;
+            }
+
+            if (!(value instanceof JSONObject)) {
+                return null;
+            }
+
+            value = ((JSONObject) value).opt(segment);
+        }
+
+        return value;
+    }
+
+    /**
+     * Decodes a MSGraph URL built by {@link #build()}, or typed by the user.
+     *
+     * @throws IllegalArgumentException if the URL has an unsupported or malformed query option.
+     */
+    public static MSGraphQuery parse(@NonNull final String url) {
+        final int queryStart = url.indexOf('?');
+        final MSGraphQuery query = new MSGraphQuery(queryStart >= 0 ? url.substring(0, queryStart) : url);
+        if (queryStart < 0) {
+            return query;
+        }
+
+        for (final String parameter : url.substring(queryStart + 1).split("&")) {
+            if (parameter.isEmpty()) {
+                continue;
+            }
+
+            final int equals = parameter.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Malformed query option: " + parameter);
+            }
+
+            final String name = Uri.decode(parameter.substring(0, equals));
+            final String value = Uri.decode(parameter.substring(equals + 1));
+
+            switch (name) {
+                case SELECT:
+                    query.select(split(value));
+                    break;
+
+                case EXPAND:
+                    query.expand(split(value));
+                    break;
+
+                case FILTER:
+                    query.filter(value);
+                    break;
+
+                case TOP:
+                    try {
+                        query.top(Integer.parseInt(value.trim()));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("$top is not a number: " + value, e);
+                    }
+                    break;
+
+                case ORDER_BY:
+                    for (final String order : split(value)) {
+                        final String[] parts = order.split(" +");
+                        if (parts.length > 2 || (parts.length == 2
+                                && !"asc".equalsIgnoreCase(parts[1]) && !"desc".equalsIgnoreCase(parts[1]))) {
+                            throw new IllegalArgumentException("Malformed $orderby: " + order);
+                        }
+                        query.orderBy(parts[0], parts.length == 2 && "desc".equalsIgnoreCase(parts[1]));
+                    }
+                    break;
+
+                case COUNT:
+                    if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+                        throw new IllegalArgumentException("$count must be true or false: " + value);
+                    }
+                    query.count(Boolean.parseBoolean(value.toLowerCase()));
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Unsupported query option: " + name);
+            }
+        }
+
+        return query;
+    }
+
+    private static String checkProperty(@NonNull final String property) {
+        if (!PROPERTY.matcher(property).matches()) {
+            throw new IllegalArgumentException("Invalid property: " + property);
+        }
+        return property;
+    }
+
+    private static void appendOption(@NonNull final StringBuilder url,
+                                     final char separator,
+                                     @NonNull final String name,
+                                     @NonNull final String value) {
+        url.append(separator)
+                .append(name)
+                .append('=')
+                .append(Uri.encode(value, ALLOWED_VALUE_CHARACTERS));
+    }
+
+    private static String join(@NonNull final Iterable<String> values) {
+        final StringBuilder joined = new StringBuilder();
+        for (final String value : values) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    private static String[] split(@NonNull final String value) {
+        final List<String> values = new ArrayList<>();
+        for (final String part : value.split(",")) {
+            if (!part.trim().isEmpty()) {
+                values.add(part.trim());
+            }
+        }
+        return values.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,72 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import com.android.volley.Request;
+
+/**
+ * Priority classes of MSGraph requests, from the most to the least urgent.
+ * <p>
+ * Higher classes are always dispatched first, and the lower classes may only occupy
+ * a few of the network threads at a time, so the request for the screen the user is
+ * looking at is not stuck behind a prefetch or a background sync.
+ */
+public enum MSGraphRequestPriority {
+    /**
+     * Data the user is waiting for, i.e. after a tap. Not limited in concurrency.
+     */
+    USER_VISIBLE(Request.Priority.HIGH, Integer.MAX_VALUE),
+
+    /**
+     * Data the user is likely to need soon, i.e. the next page of a list.
+     */
+    PREFETCH(Request.Priority.NORMAL, 2),
+
+    /**
+     * Data nobody is waiting for, i.e. keeping a local copy in sync.
+     */
+    BACKGROUND_SYNC(Request.Priority.LOW, 1);
+
+    private final Request.Priority mVolleyPriority;
+    private final int mMaxInFlight;
+
+    MSGraphRequestPriority(final Request.Priority volleyPriority, final int maxInFlight) {
+        mVolleyPriority = volleyPriority;
+        mMaxInFlight = maxInFlight;
+    }
+
+    /**
+     * Priority of the request in the Volley queue.
+     */
+    Request.Priority getVolleyPriority() {
+        return mVolleyPriority;
+    }
+
+    /**
+     * Maximum number of requests of this class sent and not yet answered at the same time.
+     */
+    int getMaxInFlight() {
+        return mMaxInFlight;
+    }
+}
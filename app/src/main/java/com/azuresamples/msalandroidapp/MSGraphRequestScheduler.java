@@ -0,0 +1,363 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares the MSGraph request rate fairly between accounts.
+ * <p>
+ * Every account, and every tenant, has a token bucket bounding its request rate. Requests waiting
+ * for a token are queued per account, and queues are served round-robin: one request per account
+ * per turn, so a large backlog of one account does not delay the requests of the others.
+ * <p>
+ * Queues are kept per {@link MSGraphRequestPriority} as well: a class is only served once no request
+ * of a higher class can be sent, and only while fewer than its maximum number of requests are in flight.
+ */
+public class MSGraphRequestScheduler {
+    private static final int DEFAULT_ACCOUNT_CAPACITY = 10;
+    private static final double DEFAULT_ACCOUNT_REQUESTS_PER_SECOND = 5;
+    private static final int DEFAULT_TENANT_CAPACITY = 20;
+    private static final double DEFAULT_TENANT_REQUESTS_PER_SECOND = 10;
+
+    /**
+     * Queueing metrics of one account.
+     */
+    public static class AccountMetrics {
+        public final String accountId;
+
+        /**
+         * Number of requests waiting for a token.
+         */
+        public int queueDepth;
+        public long dispatchedCount;
+        public long totalWaitMs;
+        public long maxWaitMs;
+
+        AccountMetrics(@NonNull final String accountId) {
+            this.accountId = accountId;
+        }
+
+        public long getAverageWaitMs() {
+            return dispatchedCount > 0 ? totalWaitMs / dispatchedCount : 0;
+        }
+    }
+
+    private static class Task {
+        final String tenantId;
+        final MSGraphRequestPriority priority;
+        final Runnable dispatch;
+        final long submittedAtMs;
+
+        Task(@Nullable final String tenantId,
+             @NonNull final MSGraphRequestPriority priority,
+             @NonNull final Runnable dispatch,
+             final long submittedAtMs) {
+            this.tenantId = tenantId;
+            this.priority = priority;
+            this.dispatch = dispatch;
+            this.submittedAtMs = submittedAtMs;
+        }
+    }
+
+    private static class AccountState {
+        final Map<MSGraphRequestPriority, Deque<Task>> queues = new EnumMap<>(MSGraphRequestPriority.class);
+        final AccountMetrics metrics;
+        MSGraphTokenBucket bucket;
+
+        AccountState(@NonNull final String accountId) {
+            metrics = new AccountMetrics(accountId);
+            for (final MSGraphRequestPriority priority : MSGraphRequestPriority.values()) {
+                queues.put(priority, new ArrayDeque<Task>());
+            }
+        }
+
+        int getQueueDepth() {
+            int depth = 0;
+            for (final Deque<Task> queue : queues.values()) {
+                depth += queue.size();
+            }
+            return depth;
+        }
+    }
+
+    private final Handler mHandler;
+    private final Map<String, AccountState> mAccounts = new LinkedHashMap<>();
+    private final Map<String, MSGraphTokenBucket> mTenantBuckets = new HashMap<>();
+
+    /* Per priority, the accounts with queued requests in the order they are served. */
+    private final Map<MSGraphRequestPriority, Deque<String>> mRotations = new EnumMap<>(MSGraphRequestPriority.class);
+
+    /* Per priority, the number of requests dispatched and not yet completed. */
+    private final int[] mInFlight = new int[MSGraphRequestPriority.values().length];
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private int mAccountCapacity = DEFAULT_ACCOUNT_CAPACITY;
+    private double mAccountRequestsPerSecond = DEFAULT_ACCOUNT_REQUESTS_PER_SECOND;
+    private int mTenantCapacity = DEFAULT_TENANT_CAPACITY;
+    private double mTenantRequestsPerSecond = DEFAULT_TENANT_REQUESTS_PER_SECOND;
+
+    /**
+     * @param handler handler of the thread dispatching the requests.
+     */
+    MSGraphRequestScheduler(@NonNull final Handler handler) {
+        mHandler = handler;
+        for (final MSGraphRequestPriority priority : MSGraphRequestPriority.values()) {
+            mRotations.put(priority, new ArrayDeque<String>());
+        }
+    }
+
+    /**
+     * Sets the burst size and sustained rate allowed to each account.
+     */
+    public synchronized void setAccountRateLimit(final int capacity, final double requestsPerSecond) {
+        mAccountCapacity = capacity;
+        mAccountRequestsPerSecond = requestsPerSecond;
+        for (final AccountState state : mAccounts.values()) {
+            state.bucket = null;
+        }
+    }
+
+    /**
+     * Sets the burst size and sustained rate shared by all the accounts of a tenant.
+     */
+    public synchronized void setTenantRateLimit(final int capacity, final double requestsPerSecond) {
+        mTenantCapacity = capacity;
+        mTenantRequestsPerSecond = requestsPerSecond;
+        mTenantBuckets.clear();
+    }
+
+    /**
+     * Runs the dispatch on the handler's thread once the account, and the tenant if known, have a token
+     * and its priority class has room in flight. The dispatched request must report its completion with
+     * {@link #complete(MSGraphRequestPriority)}.
+     */
+    void submit(@NonNull final String accountId,
+                @Nullable final String tenantId,
+                @NonNull final MSGraphRequestPriority priority,
+                @NonNull final Runnable dispatch) {
+        synchronized (this) {
+            AccountState state = mAccounts.get(accountId);
+            if (state == null) {
+                state = new AccountState(accountId);
+                mAccounts.put(accountId, state);
+            }
+
+            final Deque<Task> queue = state.queues.get(priority);
+            if (queue.isEmpty()) {
+                mRotations.get(priority).addLast(accountId);
+            }
+
+            queue.addLast(new Task(tenantId, priority, dispatch, SystemClock.elapsedRealtime()));
+            state.metrics.queueDepth = state.getQueueDepth();
+        }
+
+        scheduleDrain();
+    }
+
+    /**
+     * Reports that a dispatched request received its final response or error.
+     */
+    void complete(@NonNull final MSGraphRequestPriority priority) {
+        synchronized (this) {
+            if (mInFlight[priority.ordinal()] > 0) {
+                mInFlight[priority.ordinal()]--;
+            }
+        }
+
+        scheduleDrain();
+    }
+
+    /**
+     * Drops every queued request and forgets the in-flight ones, i.e. once the request queue is shut down.
+     */
+    synchronized void clear() {
+        mHandler.removeCallbacks(mDrain);
+        for (final Deque<String> rotation : mRotations.values()) {
+            rotation.clear();
+        }
+
+        for (final AccountState state : mAccounts.values()) {
+            for (final Deque<Task> queue : state.queues.values()) {
+                queue.clear();
+            }
+            state.metrics.queueDepth = 0;
+        }
+
+        for (int i = 0; i < mInFlight.length; i++) {
+            mInFlight[i] = 0;
+        }
+    }
+
+    /**
+     * Returns a copy of the metrics of every account seen so far.
+     */
+    public synchronized List<AccountMetrics> getMetrics() {
+        final List<AccountMetrics> metrics = new ArrayList<>();
+        for (final AccountState state : mAccounts.values()) {
+            final AccountMetrics copy = new AccountMetrics(state.metrics.accountId);
+            copy.queueDepth = state.metrics.queueDepth;
+            copy.dispatchedCount = state.metrics.dispatchedCount;
+            copy.totalWaitMs = state.metrics.totalWaitMs;
+            copy.maxWaitMs = state.metrics.maxWaitMs;
+            metrics.add(copy);
+        }
+
+        return metrics;
+    }
+
+    private void scheduleDrain() {
+        mHandler.removeCallbacks(mDrain);
+        mHandler.post(mDrain);
+    }
+
+    private void drain() {
+        final List<Runnable> ready = new ArrayList<>();
+
+        synchronized (this) {
+            final long now = SystemClock.elapsedRealtime();
+            long nextDelayMs = Long.MAX_VALUE;
+
+            for (final MSGraphRequestPriority priority : MSGraphRequestPriority.values()) {
+                nextDelayMs = Math.min(nextDelayMs, drain(priority, now, ready));
+            }
+
+            /* Requests held back by their in-flight limit are drained again on completion. */
+            mHandler.removeCallbacks(mDrain);
+            if (nextDelayMs != Long.MAX_VALUE) {
+                mHandler.postDelayed(mDrain, nextDelayMs);
+            }
+        }
+
+        for (final Runnable dispatch : ready) {
+            dispatch.run();
+        }
+    }
+
+    /**
+     * Dispatches the requests of one priority class that can be sent now.
+     *
+     * @return the delay until a token allows more of them to be sent, or Long.MAX_VALUE.
+     */
+    private long drain(@NonNull final MSGraphRequestPriority priority,
+                       final long now,
+                       @NonNull final List<Runnable> ready) {
+        final Deque<String> rotation = mRotations.get(priority);
+        long nextDelayMs = Long.MAX_VALUE;
+        boolean progress = true;
+
+        /* One request per account per pass, until no account can send anymore. */
+        while (progress && !rotation.isEmpty()) {
+            progress = false;
+            nextDelayMs = Long.MAX_VALUE;
+
+            for (int i = rotation.size(); i > 0; i--) {
+                if (mInFlight[priority.ordinal()] >= priority.getMaxInFlight()) {
+                    return Long.MAX_VALUE;
+                }
+
+                final String accountId = rotation.pollFirst();
+                final AccountState state = mAccounts.get(accountId);
+                final Deque<Task> queue = state.queues.get(priority);
+                final Task task = queue.peekFirst();
+
+                final MSGraphTokenBucket accountBucket = getAccountBucket(state, now);
+                final MSGraphTokenBucket tenantBucket = getTenantBucket(task.tenantId, now);
+                final long delayMs = Math.max(accountBucket.getDelayMs(now),
+                        tenantBucket != null ? tenantBucket.getDelayMs(now) : 0);
+
+                if (delayMs == 0) {
+                    accountBucket.consume(now);
+                    if (tenantBucket != null) {
+                        tenantBucket.consume(now);
+                    }
+
+                    queue.pollFirst();
+                    mInFlight[priority.ordinal()]++;
+                    record(state, task, now);
+                    ready.add(task.dispatch);
+                    progress = true;
+                } else {
+                    nextDelayMs = Math.min(nextDelayMs, delayMs);
+                }
+
+                if (!queue.isEmpty()) {
+                    rotation.addLast(accountId);
+                }
+            }
+        }
+
+        return nextDelayMs;
+    }
+
+    private static void record(@NonNull final AccountState state, @NonNull final Task task, final long now) {
+        final long waitMs = now - task.submittedAtMs;
+        state.metrics.queueDepth = state.getQueueDepth();
+        state.metrics.dispatchedCount++;
+        state.metrics.totalWaitMs += waitMs;
+        state.metrics.maxWaitMs = Math.max(state.metrics.maxWaitMs, waitMs);
+    }
+
+    private MSGraphTokenBucket getAccountBucket(@NonNull final AccountState state, final long now) {
+        if (state.bucket == null) {
+            state.bucket = new MSGraphTokenBucket(mAccountCapacity, mAccountRequestsPerSecond, now);
+        }
+
+        return state.bucket;
+    }
+
+    @Nullable
+    private MSGraphTokenBucket getTenantBucket(@Nullable final String tenantId, final long now) {
+        if (tenantId == null) {
+            return null;
+        }
+
+        MSGraphTokenBucket bucket = mTenantBuckets.get(tenantId);
+        if (bucket == null) {
+            bucket = new MSGraphTokenBucket(mTenantCapacity, mTenantRequestsPerSecond, now);
+            mTenantBuckets.put(tenantId, bucket);
+        }
+
+        return bucket;
+    }
+}
@@ -0,0 +1,238 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.microsoft.identity.client.AuthenticationCallback;
+import com.microsoft.identity.client.IAccount;
+import com.microsoft.identity.client.IAuthenticationResult;
+import com.microsoft.identity.client.IMultipleAccountPublicClientApplication;
+import com.microsoft.identity.client.IPublicClientApplication;
+import com.microsoft.identity.client.ISingleAccountPublicClientApplication;
+import com.microsoft.identity.client.SilentAuthenticationCallback;
+import com.microsoft.identity.client.exception.MsalException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Ties token and MSGraph work to the lifetime of a screen, i.e. a fragment's view.
+ * <p>
+ * Graph calls made through the scope are cancelled by {@link #close()}, and the callbacks wrapped by
+ * the scope are dropped once it is closed. MSAL token requests cannot be cancelled, but their result
+ * is no longer delivered, so nothing touches a destroyed view.
+ * <pre>
+ * public void onDestroyView() {
+ *     mRequestScope.close();
+ *     super.onDestroyView();
+ * }
+ * </pre>
+ * Callbacks are expected on the main thread, which is where MSAL and Volley deliver them.
+ */
+public class MSGraphRequestScope {
+    private final Context mContext;
+    private final Set<Runnable> mCancellations = new LinkedHashSet<>();
+    private volatile boolean mClosed;
+
+    public MSGraphRequestScope(@NonNull final Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    Context getContext() {
+        return mContext;
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * Cancels every outstanding Graph call of this scope and drops the callbacks still to come.
+     */
+    public void close() {
+        final List<Runnable> cancellations;
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+
+            mClosed = true;
+            cancellations = new ArrayList<>(mCancellations);
+            mCancellations.clear();
+        }
+
+        for (final Runnable cancellation : cancellations) {
+            cancellation.run();
+        }
+    }
+
+    /**
+     * Registers how to cancel outstanding work. Runs it right away if the scope is already closed.
+     */
+    void add(@NonNull final Runnable cancellation) {
+        synchronized (this) {
+            if (!mClosed) {
+                mCancellations.add(cancellation);
+                return;
+            }
+        }
+
+        cancellation.run();
+    }
+
+    /**
+     * Forgets the cancellation of work that completed.
+     */
+    synchronized void remove(@NonNull final Runnable cancellation) {
+        mCancellations.remove(cancellation);
+    }
+
+    public <T> Response.Listener<T> wrap(@NonNull final Response.Listener<T> listener) {
+        return new Response.Listener<T>() {
+            @Override
+            public void onResponse(T response) {
+                if (!mClosed) {
+                    listener.onResponse(response);
+                }
+            }
+        };
+    }
+
+    public Response.ErrorListener wrap(@NonNull final Response.ErrorListener errorListener) {
+        return new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                if (!mClosed) {
+                    errorListener.onErrorResponse(error);
+                }
+            }
+        };
+    }
+
+    public SilentAuthenticationCallback wrap(@NonNull final SilentAuthenticationCallback callback) {
+        return new SilentAuthenticationCallback() {
+            @Override
+            public void onSuccess(IAuthenticationResult authenticationResult) {
+                if (!mClosed) {
+                    callback.onSuccess(authenticationResult);
+                }
+            }
+
+            @Override
+            public void onError(MsalException exception) {
+                if (!mClosed) {
+                    callback.onError(exception);
+                }
+            }
+        };
+    }
+
+    public AuthenticationCallback wrap(@NonNull final AuthenticationCallback callback) {
+        return new AuthenticationCallback() {
+            @Override
+            public void onSuccess(IAuthenticationResult authenticationResult) {
+                if (!mClosed) {
+                    callback.onSuccess(authenticationResult);
+                }
+            }
+
+            @Override
+            public void onError(MsalException exception) {
+                if (!mClosed) {
+                    callback.onError(exception);
+                }
+            }
+
+            @Override
+            public void onCancel() {
+                if (!mClosed) {
+                    callback.onCancel();
+                }
+            }
+        };
+    }
+
+    public IPublicClientApplication.LoadAccountsCallback wrap(@NonNull final IPublicClientApplication.LoadAccountsCallback callback) {
+        return new IPublicClientApplication.LoadAccountsCallback() {
+            @Override
+            public void onTaskCompleted(List<IAccount> result) {
+                if (!mClosed) {
+                    callback.onTaskCompleted(result);
+                }
+            }
+
+            @Override
+            public void onError(MsalException exception) {
+                if (!mClosed) {
+                    callback.onError(exception);
+                }
+            }
+        };
+    }
+
+    public ISingleAccountPublicClientApplication.SignOutCallback wrap(
+            @NonNull final ISingleAccountPublicClientApplication.SignOutCallback callback) {
+        return new ISingleAccountPublicClientApplication.SignOutCallback() {
+            @Override
+            public void onSignOut() {
+                if (!mClosed) {
+                    callback.onSignOut();
+                }
+            }
+
+            @Override
+            public void onError(@NonNull MsalException exception) {
+                if (!mClosed) {
+                    callback.onError(exception);
+                }
+            }
+        };
+    }
+
+    public IMultipleAccountPublicClientApplication.RemoveAccountCallback wrap(
+            @NonNull final IMultipleAccountPublicClientApplication.RemoveAccountCallback callback) {
+        return new IMultipleAccountPublicClientApplication.RemoveAccountCallback() {
+            @Override
+            public void onRemoved() {
+                if (!mClosed) {
+                    callback.onRemoved();
+                }
+            }
+
+            @Override
+            public void onError(@NonNull MsalException exception) {
+                if (!mClosed) {
+                    callback.onError(exception);
+                }
+            }
+        };
+    }
+}
@@ -24,21 +24,38 @@
 package com.azuresamples.msalandroidapp;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import com.android.volley.AuthFailureError;
 import com.android.volley.DefaultRetryPolicy;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
 import com.android.volley.Response;
-import com.android.volley.toolbox.JsonObjectRequest;
-import com.android.volley.toolbox.Volley;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.ClearCacheRequest;
+import com.android.volley.toolbox.DiskBasedCache;
+import com.android.volley.toolbox.HttpResponse;
+import com.android.volley.toolbox.HurlStack;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MSGraphRequestWrapper {
     private static final String TAG = MSGraphRequestWrapper.class.getSimpleName();
@@ -46,6 +63,231 @@ public class MSGraphRequestWrapper {
     // See: https://docs.microsoft.com/en-us/graph/deployments#microsoft-graph-and-graph-explorer-service-root-endpoints
     public static final String MS_GRAPH_ROOT_ENDPOINT = "https://graph.microsoft.com/";
 
+    // See: https://learn.microsoft.com/en-us/graph/json-batching
+    public static final String MS_GRAPH_BATCH_ENDPOINT = MS_GRAPH_ROOT_ENDPOINT + "v1.0/$batch";
+
+    /* Number of network dispatcher threads shared by every Graph call in the app. */
+    private static final int NETWORK_THREAD_POOL_SIZE = 4;
+
+    private static final String CACHE_DIRECTORY_NAME = "msgraph";
+    private static final int CACHE_SIZE_IN_BYTES = 5 * 1024 * 1024;
+
+    private static final int REQUEST_TIMEOUT_MS = 3000;
+
+    /* A batch is answered once its slowest sub-request completes. */
+    private static final int BATCH_TIMEOUT_MS = 10000;
+
+    /* Number of threads reading streamed responses directly from the HTTP stack. */
+    private static final int IO_THREAD_POOL_SIZE = 2;
+
+    private static final MSGraphSingleFlight sSingleFlight = new MSGraphSingleFlight();
+    private static final MSGraphRetryPolicy sRetryPolicy = new MSGraphRetryPolicy();
+    private static final MSGraphTransferStats sTransferStats = new MSGraphTransferStats();
+    private static final MSGraphCallMetrics sCallMetrics = new MSGraphCallMetrics();
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static final MSGraphRequestScheduler sScheduler = new MSGraphRequestScheduler(sMainHandler);
+    private static final SwitchableHttpStack sHttpStack = new SwitchableHttpStack(createHttpStack(new HurlStack()));
+
+    private static RequestQueue sRequestQueue;
+    private static MSGraphResponseCache sResponseCache;
+    private static ExecutorService sIoExecutor;
+    private static ExecutorService sUploadExecutor;
+    private static MSGraphPhotoLoader sPhotoLoader;
+    private static MSGraphOutbox sOutbox;
+
+    /**
+     * Returns the application-wide request queue, creating and starting it on first use.
+     * The queue is bound to the application context, so one set of dispatcher threads
+     * and one HTTP stack (and its keep-alive connections) is shared by all fragments.
+     **/
+    static synchronized RequestQueue getRequestQueue(@NonNull final Context context) {
+        if (sRequestQueue == null) {
+            final Context appContext = context.getApplicationContext();
+            final File cacheDirectory = new File(appContext.getCacheDir(), CACHE_DIRECTORY_NAME);
+
+            sResponseCache = new MSGraphResponseCache(appContext,
+                    new DiskBasedCache(cacheDirectory, CACHE_SIZE_IN_BYTES));
+            sRequestQueue = new RequestQueue(
+                    sResponseCache,
+                    new BasicNetwork(getHttpStack()),
+                    NETWORK_THREAD_POOL_SIZE);
+            sRequestQueue.start();
+        }
+
+        return sRequestQueue;
+    }
+
+    /**
+     * Returns the HTTP stack used by the request queue, for calls that read the response body directly.
+     **/
+    static BaseHttpStack getHttpStack() {
+        return sHttpStack;
+    }
+
+    /**
+     * Replaces the HTTP transport, i.e. with an {@link OkHttpStack} to multiplex Graph calls over HTTP/2.
+     * Responses are still gzip-negotiated, counted and timed on top of it.
+     * Requests already being sent complete on the previous transport; the following ones use the new one.
+     **/
+    public static void setHttpStack(@NonNull final BaseHttpStack httpStack) {
+        sHttpStack.setDelegate(createHttpStack(httpStack));
+    }
+
+    private static BaseHttpStack createHttpStack(@NonNull final BaseHttpStack transport) {
+        return new TimingHttpStack(new GzipHttpStack(transport, sTransferStats), sCallMetrics);
+    }
+
+    /**
+     * Returns the bounded pool running calls that bypass the request queue.
+     **/
+    static synchronized ExecutorService getIoExecutor() {
+        if (sIoExecutor == null) {
+            sIoExecutor = Executors.newFixedThreadPool(IO_THREAD_POOL_SIZE);
+        }
+
+        return sIoExecutor;
+    }
+
+    /**
+     * Runs a task on the bounded IO pool. If the pool refuses the task, or is shut down before the task starts,
+     * the error is handed to onRejected instead, so the caller is always answered.
+     **/
+    static void executeIo(@NonNull final Runnable task, @NonNull final Response.ErrorListener onRejected) {
+        try {
+            getIoExecutor().execute(new IoTask(task, onRejected));
+        } catch (RejectedExecutionException e) {
+            onRejected.onErrorResponse(new MSGraphCancelledError("Graph IO pool rejected the request"));
+        }
+    }
+
+    /**
+     * Runs a step of a file upload on its own thread, so a long upload never holds back the IO pool.
+     * Uploads share that one thread and take turns, one request at a time. If the thread refuses the task,
+     * or is shut down before the task starts, the error is handed to onRejected instead.
+     **/
+    static void executeUpload(@NonNull final Runnable task, @NonNull final Response.ErrorListener onRejected) {
+        try {
+            getUploadExecutor().execute(new IoTask(task, onRejected));
+        } catch (RejectedExecutionException e) {
+            onRejected.onErrorResponse(new MSGraphCancelledError("Graph upload thread rejected the request"));
+        }
+    }
+
+    private static synchronized ExecutorService getUploadExecutor() {
+        if (sUploadExecutor == null) {
+            sUploadExecutor = Executors.newSingleThreadExecutor();
+        }
+
+        return sUploadExecutor;
+    }
+
+    /**
+     * Returns the application-wide profile photo loader, so its memory cache outlives screens.
+     **/
+    public static synchronized MSGraphPhotoLoader getPhotoLoader(@NonNull final Context context) {
+        if (sPhotoLoader == null) {
+            sPhotoLoader = new MSGraphPhotoLoader(context);
+        }
+
+        return sPhotoLoader;
+    }
+
+    /**
+     * Returns the application-wide outbox of Graph writes, so writes made offline are replayed in a single order.
+     **/
+    public static synchronized MSGraphOutbox getOutbox(@NonNull final Context context) {
+        if (sOutbox == null) {
+            sOutbox = new MSGraphOutbox(context);
+        }
+
+        return sOutbox;
+    }
+
+    /**
+     * Returns the de-duplication layer of identical in-flight GETs, i.e. to read how many calls were coalesced.
+     **/
+    public static MSGraphSingleFlight getSingleFlight() {
+        return sSingleFlight;
+    }
+
+    /**
+     * Returns the retry policy shared by every Graph call, so calls made directly on the HTTP stack
+     * honour MSGraph's throttling as well.
+     **/
+    static MSGraphRetryPolicy getRetryPolicy() {
+        return sRetryPolicy;
+    }
+
+    /**
+     * Returns the per-account and per-tenant rate limiter, i.e. to configure its limits or read its queue metrics.
+     **/
+    public static MSGraphRequestScheduler getScheduler() {
+        return sScheduler;
+    }
+
+    /**
+     * Returns the bytes received per endpoint, on the wire and after decompression.
+     **/
+    public static MSGraphTransferStats getTransferStats() {
+        return sTransferStats;
+    }
+
+    /**
+     * Returns the latency of every phase of Graph calls, per endpoint template.
+     **/
+    public static MSGraphCallMetrics getCallMetrics() {
+        return sCallMetrics;
+    }
+
+    /**
+     * Cancels all pending Graph requests and stops the shared dispatcher threads.
+     * Every caller still waiting for an answer receives a {@link MSGraphCancelledError}.
+     * Meant for the activity that is finishing; the next Graph call after this creates a fresh queue.
+     **/
+    public static void shutdown() {
+        final List<Runnable> droppedTasks = new ArrayList<>();
+
+        synchronized (MSGraphRequestWrapper.class) {
+            /* Drop requests waiting for a retry, for throttling to end or for a rate limiter token. */
+            sMainHandler.removeCallbacksAndMessages(null);
+            sScheduler.clear();
+
+            if (sIoExecutor != null) {
+                droppedTasks.addAll(sIoExecutor.shutdownNow());
+                sIoExecutor = null;
+            }
+
+            if (sUploadExecutor != null) {
+                droppedTasks.addAll(sUploadExecutor.shutdownNow());
+                sUploadExecutor = null;
+            }
+
+            if (sRequestQueue != null) {
+                Log.d(TAG, "Shutting down graph request queue");
+
+                sRequestQueue.cancelAll(new RequestQueue.RequestFilter() {
+                    @Override
+                    public boolean apply(Request<?> request) {
+                        return true;
+                    }
+                });
+                sRequestQueue.stop();
+                sRequestQueue = null;
+            }
+        }
+
+        /* Nothing dropped above will ever be answered, so tell the callers, outside of the lock. */
+        final MSGraphCancelledError error = new MSGraphCancelledError("Graph client was shut down");
+        for (final Runnable task : droppedTasks) {
+            if (task instanceof IoTask) {
+                ((IoTask) task).reject(error);
+            }
+        }
+
+        MSGraphCall.abortAll(error);
+        sSingleFlight.clear();
+    }
+
     /**
      * Use Volley to make an HTTP request with
      * 1) a given MSGraph resource URL
@@ -57,14 +299,93 @@ public class MSGraphRequestWrapper {
                                                @NonNull final String accessToken,
                                                @NonNull final Response.Listener<JSONObject> responseListener,
                                                @NonNull final Response.ErrorListener errorListener) {
+        callGraphAPIUsingVolley(context, null, null, graphResourceUrl, accessToken, responseListener, errorListener);
+    }
+
+    /**
+     * Same as above, on behalf of the given account.
+     * The response is kept in a disk cache partitioned by account id and revalidated with its ETag,
+     * so requesting an unchanged resource again costs a 304 instead of the full body.
+     * Requests are rate limited per account and per tenant by {@link MSGraphRequestScheduler}.
+     **/
+    public static void callGraphAPIUsingVolley(@NonNull final Context context,
+                                               @Nullable final String accountId,
+                                               @Nullable final String tenantId,
+                                               @NonNull final String graphResourceUrl,
+                                               @NonNull final String accessToken,
+                                               @NonNull final Response.Listener<JSONObject> responseListener,
+                                               @NonNull final Response.ErrorListener errorListener) {
+        callGraphAPIUsingVolley(context, accountId, tenantId, MSGraphRequestPriority.USER_VISIBLE,
+                graphResourceUrl, accessToken, responseListener, errorListener);
+    }
+
+    /**
+     * Same as above, with the given priority class, i.e. {@link MSGraphRequestPriority#PREFETCH}
+     * for data the user has not asked for yet.
+     **/
+    public static void callGraphAPIUsingVolley(@NonNull final Context context,
+                                               @Nullable final String accountId,
+                                               @Nullable final String tenantId,
+                                               @NonNull final MSGraphRequestPriority priority,
+                                               @NonNull final String graphResourceUrl,
+                                               @NonNull final String accessToken,
+                                               @NonNull final Response.Listener<JSONObject> responseListener,
+                                               @NonNull final Response.ErrorListener errorListener) {
+        callGraphAPI(context, null, accountId, tenantId, priority, graphResourceUrl, accessToken,
+                responseListener, errorListener);
+    }
+
+    /**
+     * Same as above, bound to the given scope: the call is cancelled, and its listeners are not invoked,
+     * once the scope is closed.
+     **/
+    public static void callGraphAPIUsingVolley(@NonNull final MSGraphRequestScope scope,
+                                               @Nullable final String accountId,
+                                               @Nullable final String tenantId,
+                                               @NonNull final String graphResourceUrl,
+                                               @NonNull final String accessToken,
+                                               @NonNull final Response.Listener<JSONObject> responseListener,
+                                               @NonNull final Response.ErrorListener errorListener) {
+        callGraphAPIUsingVolley(scope, accountId, tenantId, MSGraphRequestPriority.USER_VISIBLE,
+                graphResourceUrl, accessToken, responseListener, errorListener);
+    }
+
+    /**
+     * Same as above, with the given priority class.
+     **/
+    public static void callGraphAPIUsingVolley(@NonNull final MSGraphRequestScope scope,
+                                               @Nullable final String accountId,
+                                               @Nullable final String tenantId,
+                                               @NonNull final MSGraphRequestPriority priority,
+                                               @NonNull final String graphResourceUrl,
+                                               @NonNull final String accessToken,
+                                               @NonNull final Response.Listener<JSONObject> responseListener,
+                                               @NonNull final Response.ErrorListener errorListener) {
+        callGraphAPI(scope.getContext(), scope, accountId, tenantId, priority, graphResourceUrl, accessToken,
+                responseListener, errorListener);
+    }
+
+    private static void callGraphAPI(@NonNull final Context context,
+                                     @Nullable final MSGraphRequestScope scope,
+                                     @Nullable final String accountId,
+                                     @Nullable final String tenantId,
+                                     @NonNull final MSGraphRequestPriority priority,
+                                     @NonNull final String graphResourceUrl,
+                                     @NonNull final String accessToken,
+                                     @NonNull final Response.Listener<JSONObject> responseListener,
+                                     @NonNull final Response.ErrorListener errorListener) {
         Log.d(TAG, "Starting volley request to graph");
 
         /* Make sure we have a token to send to graph */
         if (accessToken == null || accessToken.length() == 0) {
+            errorListener.onErrorResponse(new VolleyError("No access token to call graph with"));
+            return;
+        }
+
+        if (scope != null && scope.isClosed()) {
             return;
         }
 
-        RequestQueue queue = Volley.newRequestQueue(context);
         JSONObject parameters = new JSONObject();
 
         try {
@@ -73,22 +394,648 @@ public class MSGraphRequestWrapper {
             Log.d(TAG, "Failed to put parameters: " + e.toString());
         }
 
-        JsonObjectRequest request = new JsonObjectRequest(Request.Method.GET, graphResourceUrl,
-                parameters, responseListener, errorListener) {
+        final String key = accountId != null
+                ? MSGraphSingleFlight.getKey(accountId, Request.Method.GET, graphResourceUrl)
+                : null;
+        send(context, scope, accountId, tenantId, priority, Request.Method.GET, graphResourceUrl, parameters, key,
+                REQUEST_TIMEOUT_MS, accessToken, responseListener, errorListener);
+    }
+
+    /**
+     * Sends a call bound to the scope, if any. A call made on behalf of an account is rate limited by the
+     * scheduler, and shares the network call of an identical one in flight if it has a single-flight key.
+     **/
+    private static void send(@NonNull final Context context,
+                             @Nullable final MSGraphRequestScope scope,
+                             @Nullable final String accountId,
+                             @Nullable final String tenantId,
+                             @NonNull final MSGraphRequestPriority priority,
+                             final int method,
+                             @NonNull final String url,
+                             @Nullable final JSONObject body,
+                             @Nullable final String key,
+                             final int timeoutMs,
+                             @NonNull final String accessToken,
+                             @NonNull final Response.Listener<JSONObject> responseListener,
+                             @NonNull final Response.ErrorListener errorListener) {
+        final MSGraphCall call = new MSGraphCall();
+
+        Response.Listener<JSONObject> callerListener = responseListener;
+        Response.ErrorListener callerErrorListener = errorListener;
+        if (scope != null) {
+            final ScopedCall scopedCall = new ScopedCall(scope, key, call, responseListener, errorListener);
+            callerListener = scopedCall.responseListener;
+            callerErrorListener = scopedCall.errorListener;
+            scope.add(scopedCall);
+        }
+
+        /* Identical calls for the same account that are already on the wire share its response. */
+        if (key != null) {
+            if (!sSingleFlight.join(key, callerListener, callerErrorListener)) {
+                Log.d(TAG, "Joined in-flight request to " + url);
+
+                /* Answered by the call already in flight, this one is never sent. */
+                call.cancel();
+                return;
+            }
+
+            /* The network call is only cancelled once no caller waits for it anymore. */
+            sSingleFlight.setOnAbandoned(key, new Runnable() {
+                @Override
+                public void run() {
+                    call.cancel();
+                }
+            });
+
+            callerListener = sSingleFlight.getResponseListener(key);
+            callerErrorListener = sSingleFlight.getErrorListener(key);
+        }
+
+        call.setAbortListener(callerErrorListener);
+        if (accountId == null) {
+            addWithRetry(context, method, url, body, null, accessToken, callerListener, callerErrorListener,
+                    priority, timeoutMs, call, new MSGraphRetryPolicy.Attempt());
+            return;
+        }
+
+        final Response.Listener<JSONObject> sharedListener = callerListener;
+        final Response.ErrorListener sharedErrorListener = callerErrorListener;
+        sScheduler.submit(accountId, tenantId, priority, new Runnable() {
             @Override
-            public Map<String, String> getHeaders() {
-                Map<String, String> headers = new HashMap<>();
-                headers.put("Authorization", "Bearer " + accessToken);
-                return headers;
+            public void run() {
+                call.setOnFinished(new Runnable() {
+                    @Override
+                    public void run() {
+                        sScheduler.complete(priority);
+                    }
+                });
+
+                addWithRetry(context, method, url, body, accountId, accessToken,
+                        new Response.Listener<JSONObject>() {
+                            @Override
+                            public void onResponse(JSONObject response) {
+                                call.finish();
+                                sharedListener.onResponse(response);
+                            }
+                        },
+                        new Response.ErrorListener() {
+                            @Override
+                            public void onErrorResponse(VolleyError error) {
+                                call.finish();
+                                sharedErrorListener.onErrorResponse(error);
+                            }
+                        },
+                        priority, timeoutMs, call, new MSGraphRetryPolicy.Attempt());
             }
-        };
+        });
+    }
+
+    /**
+     * Adds a request to the queue once any throttling delay requested by MSGraph has elapsed,
+     * and sends it again after a failure if the retry policy allows it.
+     * Nothing is sent anymore once the call is cancelled, and a call is answered at most once.
+     **/
+    private static void addWithRetry(@NonNull final Context context,
+                                     final int method,
+                                     @NonNull final String url,
+                                     @Nullable final JSONObject body,
+                                     @Nullable final String accountId,
+                                     @NonNull final String accessToken,
+                                     @NonNull final Response.Listener<JSONObject> responseListener,
+                                     @NonNull final Response.ErrorListener errorListener,
+                                     @NonNull final MSGraphRequestPriority priority,
+                                     final int timeoutMs,
+                                     @NonNull final MSGraphCall call,
+                                     @NonNull final MSGraphRetryPolicy.Attempt attempt) {
+        if (call.isCancelled()) {
+            return;
+        }
+
+        final long throttleDelayMs = sRetryPolicy.getThrottleDelayMs();
+        if (throttleDelayMs > 0) {
+            Log.d(TAG, "Graph is throttling, delaying request by " + throttleDelayMs + "ms");
+            sMainHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    addWithRetry(context, method, url, body, accountId, accessToken,
+                            responseListener, errorListener, priority, timeoutMs, call, attempt);
+                }
+            }, throttleDelayMs);
+            return;
+        }
+
+        MSGraphJsonObjectRequest request = new MSGraphJsonObjectRequest(method, url,
+                body, accountId, accessToken,
+                new Response.Listener<JSONObject>() {
+                    @Override
+                    public void onResponse(JSONObject response) {
+                        if (call.answer()) {
+                            responseListener.onResponse(response);
+                        }
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        final long retryDelayMs = sRetryPolicy.getRetryDelayMs(method, error, attempt);
+                        if (retryDelayMs < 0) {
+                            if (call.answer()) {
+                                errorListener.onErrorResponse(error);
+                            }
+                            return;
+                        }
+
+                        Log.d(TAG, "Retrying request to graph in " + retryDelayMs + "ms, attempt " + (attempt.retries + 1));
+                        sMainHandler.postDelayed(new Runnable() {
+                            @Override
+                            public void run() {
+                                addWithRetry(context, method, url, body, accountId, accessToken,
+                                        responseListener, errorListener, priority, timeoutMs, call, attempt);
+                            }
+                        }, retryDelayMs);
+                    }
+                });
+
+        Log.d(TAG, "Adding HTTP request to Queue, Request: " + request.toString());
 
-        Log.d(TAG, "Adding HTTP GET to Queue, Request: " + request.toString());
+        request.setPriority(priority.getVolleyPriority());
 
+        /* Retries are driven by MSGraphRetryPolicy, not by Volley. */
         request.setRetryPolicy(new DefaultRetryPolicy(
-                3000,
-                DefaultRetryPolicy.DEFAULT_MAX_RETRIES,
+                timeoutMs,
+                0,
                 DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
-        queue.add(request);
+        call.setRequest(request);
+        getRequestQueue(context).add(request);
+    }
+
+    /**
+     * Streams a MSGraph collection (i.e. /users or /me/messages) with
+     * 1) a given MSGraph collection URL
+     * 2) an access token
+     * Each element of the "value" array is passed to itemListener as soon as it is parsed,
+     * so memory use does not grow with the page size. Listeners are invoked on a background thread.
+     * Exactly one of completionListener and errorListener is invoked.
+     **/
+    public static void streamGraphCollection(@NonNull final String graphCollectionUrl,
+                                             @NonNull final String accessToken,
+                                             @NonNull final MSGraphStreamingRequest.ItemListener itemListener,
+                                             @NonNull final MSGraphStreamingRequest.CompletionListener completionListener,
+                                             @NonNull final Response.ErrorListener errorListener) {
+        streamGraphCollection(null, null, null, MSGraphRequestPriority.USER_VISIBLE, graphCollectionUrl,
+                accessToken, itemListener, completionListener, errorListener);
+    }
+
+    /**
+     * Same as above, on behalf of the given account, with the given priority class and, if any, bound to the
+     * given scope: once the scope is closed, the call is cancelled and its listeners are not invoked anymore.
+     * Like other Graph calls, it is rate limited per account and held back while MSGraph is throttling.
+     * It is retried by {@link MSGraphRetryPolicy} as long as no item has been delivered.
+     **/
+    public static void streamGraphCollection(@Nullable final MSGraphRequestScope scope,
+                                             @Nullable final String accountId,
+                                             @Nullable final String tenantId,
+                                             @NonNull final MSGraphRequestPriority priority,
+                                             @NonNull final String graphCollectionUrl,
+                                             @NonNull final String accessToken,
+                                             @NonNull final MSGraphStreamingRequest.ItemListener itemListener,
+                                             @NonNull final MSGraphStreamingRequest.CompletionListener completionListener,
+                                             @NonNull final Response.ErrorListener errorListener) {
+        Log.d(TAG, "Starting streaming request to graph");
+
+        /* Make sure we have a token to send to graph */
+        if (accessToken == null || accessToken.length() == 0) {
+            errorListener.onErrorResponse(new VolleyError("No access token to call graph with"));
+            return;
+        }
+
+        if (scope != null && scope.isClosed()) {
+            return;
+        }
+
+        final MSGraphCall call = new MSGraphCall();
+        final Runnable cancellation = new Runnable() {
+            @Override
+            public void run() {
+                call.cancel();
+            }
+        };
+
+        if (scope != null) {
+            scope.add(cancellation);
+        }
+
+        final MSGraphStreamingRequest.CompletionListener callerCompletionListener =
+                new MSGraphStreamingRequest.CompletionListener() {
+                    @Override
+                    public void onComplete(@NonNull MSGraphStreamingRequest.Result result) {
+                        call.finish();
+                        if (scope != null) {
+                            scope.remove(cancellation);
+                            if (scope.isClosed()) {
+                                return;
+                            }
+                        }
+
+                        completionListener.onComplete(result);
+                    }
+                };
+        final Response.ErrorListener callerErrorListener = new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                call.finish();
+                if (scope != null) {
+                    scope.remove(cancellation);
+                    if (scope.isClosed()) {
+                        return;
+                    }
+                }
+
+                errorListener.onErrorResponse(error);
+            }
+        };
+        call.setAbortListener(callerErrorListener);
+
+        if (accountId == null) {
+            streamWithRetry(graphCollectionUrl, accessToken, itemListener, callerCompletionListener,
+                    callerErrorListener, call, new MSGraphRetryPolicy.Attempt());
+            return;
+        }
+
+        sScheduler.submit(accountId, tenantId, priority, new Runnable() {
+            @Override
+            public void run() {
+                call.setOnFinished(new Runnable() {
+                    @Override
+                    public void run() {
+                        sScheduler.complete(priority);
+                    }
+                });
+
+                streamWithRetry(graphCollectionUrl, accessToken, itemListener, callerCompletionListener,
+                        callerErrorListener, call, new MSGraphRetryPolicy.Attempt());
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #addWithRetry} for streamed collections. A page is only sent again if none of its items
+     * were delivered yet, so the item listener never sees an item twice.
+     **/
+    private static void streamWithRetry(@NonNull final String url,
+                                        @NonNull final String accessToken,
+                                        @NonNull final MSGraphStreamingRequest.ItemListener itemListener,
+                                        @NonNull final MSGraphStreamingRequest.CompletionListener completionListener,
+                                        @NonNull final Response.ErrorListener errorListener,
+                                        @NonNull final MSGraphCall call,
+                                        @NonNull final MSGraphRetryPolicy.Attempt attempt) {
+        if (call.isCancelled()) {
+            return;
+        }
+
+        final Runnable resend = new Runnable() {
+            @Override
+            public void run() {
+                streamWithRetry(url, accessToken, itemListener, completionListener, errorListener, call, attempt);
+            }
+        };
+
+        final long throttleDelayMs = sRetryPolicy.getThrottleDelayMs();
+        if (throttleDelayMs > 0) {
+            Log.d(TAG, "Graph is throttling, delaying streaming request by " + throttleDelayMs + "ms");
+            sMainHandler.postDelayed(resend, throttleDelayMs);
+            return;
+        }
+
+        final AtomicInteger deliveredItems = new AtomicInteger();
+        final Response.ErrorListener finalErrorListener = new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                if (call.answer()) {
+                    errorListener.onErrorResponse(error);
+                }
+            }
+        };
+
+        final MSGraphStreamingRequest request = new MSGraphStreamingRequest(getHttpStack(), url, accessToken,
+                new MSGraphStreamingRequest.ItemListener() {
+                    @Override
+                    public void onItem(@NonNull JSONObject item) {
+                        deliveredItems.incrementAndGet();
+                        itemListener.onItem(item);
+                    }
+                },
+                new MSGraphStreamingRequest.CompletionListener() {
+                    @Override
+                    public void onComplete(@NonNull MSGraphStreamingRequest.Result result) {
+                        if (call.answer()) {
+                            completionListener.onComplete(result);
+                        }
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        final long retryDelayMs = sRetryPolicy.getRetryDelayMs(Request.Method.GET, error, attempt);
+                        if (retryDelayMs < 0 || deliveredItems.get() > 0) {
+                            finalErrorListener.onErrorResponse(error);
+                            return;
+                        }
+
+                        Log.d(TAG, "Retrying streaming request to graph in " + retryDelayMs + "ms, attempt " + (attempt.retries + 1));
+                        sMainHandler.postDelayed(resend, retryDelayMs);
+                    }
+                });
+
+        call.setRequest(request.getTransportRequest());
+        executeIo(request, finalErrorListener);
+    }
+
+    /**
+     * Removes every cached MSGraph response, i.e. after an account signs out.
+     **/
+    public static void clearCache(@NonNull final Context context) {
+        final RequestQueue queue = getRequestQueue(context);
+        queue.add(new ClearCacheRequest(queue.getCache(), null));
+    }
+
+    /**
+     * Removes the cached MSGraph responses of one account, i.e. after it is removed.
+     * The responses cached for the other accounts are kept.
+     **/
+    public static void clearCache(@NonNull final Context context, @NonNull final String accountId) {
+        getRequestQueue(context);
+
+        final MSGraphResponseCache cache;
+        synchronized (MSGraphRequestWrapper.class) {
+            cache = sResponseCache;
+        }
+
+        executeIo(new Runnable() {
+            @Override
+            public void run() {
+                cache.removeAccount(accountId);
+            }
+        }, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                Log.d(TAG, "Failed to clear cached responses of " + accountId + ": " + error.toString());
+            }
+        });
+    }
+
+    /**
+     * Use Volley to send every sub-request of the given batch to MSGraph's JSON batching endpoint
+     * in a single HTTP POST. Each sub-request's listener receives its own response.
+     **/
+    public static void callGraphBatchUsingVolley(@NonNull final Context context,
+                                                 @NonNull final MSGraphBatchRequest batch,
+                                                 @NonNull final String accessToken) {
+        callGraphBatchUsingVolley(context, MS_GRAPH_BATCH_ENDPOINT, batch, accessToken);
+    }
+
+    /**
+     * Same as above, against the given $batch endpoint URL.
+     **/
+    public static void callGraphBatchUsingVolley(@NonNull final Context context,
+                                                 @NonNull final String batchEndpointUrl,
+                                                 @NonNull final MSGraphBatchRequest batch,
+                                                 @NonNull final String accessToken) {
+        callGraphBatch(context, null, null, null, batchEndpointUrl, batch, accessToken, new MSGraphRetryPolicy.Attempt());
+    }
+
+    /**
+     * Same as above, on behalf of the given account, against MSGraph's $batch endpoint.
+     * Like other Graph calls, the batch is rate limited per account and per tenant, and a batch made only of
+     * GETs shares the response of an identical batch in flight. Sub-requests MSGraph throttles are sent again
+     * in a new batch once their Retry-After has elapsed, as long as {@link MSGraphRetryPolicy} allows it.
+     **/
+    public static void callGraphBatchUsingVolley(@NonNull final Context context,
+                                                 @NonNull final String accountId,
+                                                 @Nullable final String tenantId,
+                                                 @NonNull final MSGraphBatchRequest batch,
+                                                 @NonNull final String accessToken) {
+        callGraphBatch(context, null, accountId, tenantId, MS_GRAPH_BATCH_ENDPOINT, batch, accessToken,
+                new MSGraphRetryPolicy.Attempt());
+    }
+
+    /**
+     * Same as above, bound to the given scope: the batch is cancelled, and the listeners of its sub-requests
+     * are not invoked, once the scope is closed.
+     **/
+    public static void callGraphBatchUsingVolley(@NonNull final MSGraphRequestScope scope,
+                                                 @NonNull final String accountId,
+                                                 @Nullable final String tenantId,
+                                                 @NonNull final MSGraphBatchRequest batch,
+                                                 @NonNull final String accessToken) {
+        callGraphBatch(scope.getContext(), scope, accountId, tenantId, MS_GRAPH_BATCH_ENDPOINT, batch, accessToken,
+                new MSGraphRetryPolicy.Attempt());
+    }
+
+    private static void callGraphBatch(@NonNull final Context context,
+                                       @Nullable final MSGraphRequestScope scope,
+                                       @Nullable final String accountId,
+                                       @Nullable final String tenantId,
+                                       @NonNull final String batchEndpointUrl,
+                                       @NonNull final MSGraphBatchRequest batch,
+                                       @NonNull final String accessToken,
+                                       @NonNull final MSGraphRetryPolicy.Attempt throttleAttempt) {
+        Log.d(TAG, "Starting volley batch request to graph with " + batch.size() + " requests");
+
+        if (batch.size() == 0) {
+            return;
+        }
+
+        /* Make sure we have a token to send to graph */
+        if (accessToken == null || accessToken.length() == 0) {
+            batch.dispatchError(new VolleyError("No access token to call graph with"));
+            return;
+        }
+
+        if (scope != null && scope.isClosed()) {
+            return;
+        }
+
+        final JSONObject body;
+        try {
+            body = batch.toJson();
+        } catch (JSONException e) {
+            batch.dispatchError(new VolleyError("Failed to build batch request", e));
+            return;
+        }
+
+        /* Only a batch of GETs is safe to share, and the body tells identical batches apart. */
+        final String key = accountId != null && batch.isReadOnly()
+                ? MSGraphSingleFlight.getKey(accountId, Request.Method.POST, batchEndpointUrl + " " + body)
+                : null;
+
+        /* A batch may carry non-idempotent sub-requests, so the POST itself is never retried. */
+        send(context, scope, accountId, tenantId, MSGraphRequestPriority.USER_VISIBLE, Request.Method.POST,
+                batchEndpointUrl, body, key, BATCH_TIMEOUT_MS, accessToken,
+                new Response.Listener<JSONObject>() {
+                    @Override
+                    public void onResponse(JSONObject response) {
+                        dispatchBatchResponse(context, scope, accountId, tenantId, batchEndpointUrl, batch,
+                                accessToken, response, throttleAttempt);
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        batch.dispatchError(error);
+                    }
+                });
+    }
+
+    /**
+     * Fans a batch response out to the sub-requests. Throttled sub-requests were not run by MSGraph, so
+     * whatever their method they are sent again after their Retry-After, with the ones that depend on them.
+     **/
+    private static void dispatchBatchResponse(@NonNull final Context context,
+                                              @Nullable final MSGraphRequestScope scope,
+                                              @Nullable final String accountId,
+                                              @Nullable final String tenantId,
+                                              @NonNull final String batchEndpointUrl,
+                                              @NonNull final MSGraphBatchRequest batch,
+                                              @NonNull final String accessToken,
+                                              @NonNull final JSONObject response,
+                                              @NonNull final MSGraphRetryPolicy.Attempt throttleAttempt) {
+        final VolleyError throttleError = batch.getThrottleError(response);
+        final long retryDelayMs = throttleError != null
+                ? sRetryPolicy.getRetryDelayMs(Request.Method.GET, throttleError, throttleAttempt)
+                : -1;
+        if (retryDelayMs < 0) {
+            batch.dispatchResponse(response);
+            return;
+        }
+
+        final MSGraphBatchRequest throttled = batch.dispatchResponseExceptThrottled(response);
+        Log.d(TAG, "Sending " + throttled.size() + " throttled batch requests again in " + retryDelayMs
+                + "ms, attempt " + (throttleAttempt.retries + 1));
+
+        /* Waiting counts as a call, so the sub-requests are still answered if the client is shut down meanwhile. */
+        final MSGraphCall wait = new MSGraphCall();
+        final Runnable cancellation = new Runnable() {
+            @Override
+            public void run() {
+                wait.cancel();
+            }
+        };
+        wait.setAbortListener(new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                throttled.dispatchError(error);
+            }
+        });
+
+        if (scope != null) {
+            scope.add(cancellation);
+        }
+
+        sMainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (scope != null) {
+                    scope.remove(cancellation);
+                }
+
+                if (wait.answer()) {
+                    callGraphBatch(context, scope, accountId, tenantId, batchEndpointUrl, throttled, accessToken,
+                            throttleAttempt);
+                }
+            }
+        }, retryDelayMs);
+    }
+
+    /**
+     * A Graph call bound to a {@link MSGraphRequestScope}. Running it cancels the call on behalf of its caller.
+     **/
+    private static class ScopedCall implements Runnable {
+        final Response.Listener<JSONObject> responseListener;
+        final Response.ErrorListener errorListener;
+        private final String mSingleFlightKey;
+        private final MSGraphCall mCall;
+
+        ScopedCall(@NonNull final MSGraphRequestScope scope,
+                   @Nullable final String singleFlightKey,
+                   @NonNull final MSGraphCall call,
+                   @NonNull final Response.Listener<JSONObject> callerListener,
+                   @NonNull final Response.ErrorListener callerErrorListener) {
+            mSingleFlightKey = singleFlightKey;
+            mCall = call;
+
+            this.responseListener = new Response.Listener<JSONObject>() {
+                @Override
+                public void onResponse(JSONObject response) {
+                    scope.remove(ScopedCall.this);
+                    if (!scope.isClosed()) {
+                        callerListener.onResponse(response);
+                    }
+                }
+            };
+            this.errorListener = new Response.ErrorListener() {
+                @Override
+                public void onErrorResponse(VolleyError error) {
+                    scope.remove(ScopedCall.this);
+                    if (!scope.isClosed()) {
+                        callerErrorListener.onErrorResponse(error);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void run() {
+            if (mSingleFlightKey != null) {
+                sSingleFlight.leave(mSingleFlightKey, responseListener);
+            } else {
+                mCall.cancel();
+            }
+        }
+    }
+
+    /**
+     * A task of the IO pool that can still be answered if the pool drops it before it starts.
+     **/
+    private static class IoTask implements Runnable {
+        private final Runnable mTask;
+        private final Response.ErrorListener mOnRejected;
+
+        IoTask(@NonNull final Runnable task, @NonNull final Response.ErrorListener onRejected) {
+            mTask = task;
+            mOnRejected = onRejected;
+        }
+
+        @Override
+        public void run() {
+            mTask.run();
+        }
+
+        void reject(@NonNull final VolleyError error) {
+            mOnRejected.onErrorResponse(error);
+        }
+    }
+
+    /**
+     * Lets the transport be replaced without rebuilding the request queue.
+     * Each request is sent on the transport that is current when it starts.
+     **/
+    private static class SwitchableHttpStack extends BaseHttpStack {
+        private volatile BaseHttpStack mDelegate;
+
+        SwitchableHttpStack(@NonNull final BaseHttpStack delegate) {
+            mDelegate = delegate;
+        }
+
+        void setDelegate(@NonNull final BaseHttpStack delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public HttpResponse executeRequest(final Request<?> request,
+                                           final Map<String, String> additionalHeaders)
+                throws IOException, AuthFailureError {
+            return mDelegate.executeRequest(request, additionalHeaders);
+        }
     }
 }
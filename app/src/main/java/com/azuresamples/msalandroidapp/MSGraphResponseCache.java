@@ -0,0 +1,139 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.Cache;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The disk cache of MSGraph responses, with an index of the keys cached for each account.
+ * <p>
+ * Keys are "accountId:url" (see {@link MSGraphJsonObjectRequest#getCacheKey()}), so the responses of one
+ * account can be dropped without touching the other signed-in accounts'. The index is persisted next to
+ * the cache, so responses cached before a restart are dropped as well.
+ */
+class MSGraphResponseCache implements Cache {
+    private static final String SHARED_PREFERENCES_NAME = "msgraph_cache_index";
+    private static final char ACCOUNT_SEPARATOR = ':';
+
+    private final Cache mCache;
+    private final SharedPreferences mIndex;
+
+    MSGraphResponseCache(@NonNull final Context context, @NonNull final Cache cache) {
+        mCache = cache;
+        mIndex = context.getApplicationContext().getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public Entry get(final String key) {
+        return mCache.get(key);
+    }
+
+    @Override
+    public void put(final String key, final Entry entry) {
+        mCache.put(key, entry);
+
+        final String accountId = getAccountId(key);
+        if (accountId == null) {
+            return;
+        }
+
+        synchronized (this) {
+            final Set<String> keys = mIndex.getStringSet(accountId, null);
+            if (keys != null && keys.contains(key)) {
+                return;
+            }
+
+            /* The set returned by SharedPreferences must not be modified. */
+            final Set<String> updatedKeys = keys != null ? new HashSet<>(keys) : new HashSet<String>();
+            updatedKeys.add(key);
+            mIndex.edit().putStringSet(accountId, updatedKeys).apply();
+        }
+    }
+
+    @Override
+    public void initialize() {
+        mCache.initialize();
+    }
+
+    @Override
+    public void invalidate(final String key, final boolean fullExpire) {
+        mCache.invalidate(key, fullExpire);
+    }
+
+    @Override
+    public void remove(final String key) {
+        mCache.remove(key);
+
+        final String accountId = getAccountId(key);
+        if (accountId == null) {
+            return;
+        }
+
+        synchronized (this) {
+            final Set<String> keys = mIndex.getStringSet(accountId, null);
+            if (keys == null || !keys.contains(key)) {
+                return;
+            }
+
+            final Set<String> updatedKeys = new HashSet<>(keys);
+            updatedKeys.remove(key);
+            mIndex.edit().putStringSet(accountId, updatedKeys).apply();
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        mCache.clear();
+        mIndex.edit().clear().apply();
+    }
+
+    /**
+     * Removes every response cached for the given account. Does disk I/O, so not on the main thread.
+     */
+    synchronized void removeAccount(@NonNull final String accountId) {
+        final Set<String> keys = mIndex.getStringSet(accountId, null);
+        if (keys != null) {
+            for (final String key : keys) {
+                mCache.remove(key);
+            }
+        }
+
+        mIndex.edit().remove(accountId).apply();
+    }
+
+    @Nullable
+    private static String getAccountId(@NonNull final String key) {
+        final int separator = key.indexOf(ACCOUNT_SEPARATOR);
+        return separator > 0 ? key.substring(0, separator) : null;
+    }
+}
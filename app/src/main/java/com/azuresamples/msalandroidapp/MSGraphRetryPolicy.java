@@ -0,0 +1,226 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+/**
+ * Decides whether and when a failed MSGraph request is sent again.
+ * <p>
+ * Only idempotent requests are retried, and only when MSGraph is throttling (429) or temporarily
+ * unavailable (503, 504), or the request timed out. The delay honours the Retry-After header and
+ * otherwise follows decorrelated-jitter backoff. A Retry-After also holds back every other request
+ * until it elapses, so the whole app backs off together instead of extending the throttling.
+ * Retries are limited by a budget per time window.
+ * See https://learn.microsoft.com/en-us/graph/throttling for more info.
+ */
+public class MSGraphRetryPolicy {
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+    private static final int HTTP_GATEWAY_TIMEOUT = 504;
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 4;
+    private static final long DEFAULT_BASE_DELAY_MS = 500;
+    private static final long DEFAULT_MAX_DELAY_MS = 30000;
+    private static final int DEFAULT_RETRY_BUDGET = 10;
+    private static final long DEFAULT_BUDGET_WINDOW_MS = 60000;
+
+    /**
+     * Retry state of a single request.
+     */
+    static class Attempt {
+        int retries;
+        long previousDelayMs;
+    }
+
+    private final Random mRandom = new Random();
+    private final Deque<Long> mRetryTimestamps = new ArrayDeque<>();
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMs;
+    private final long mMaxDelayMs;
+    private final int mRetryBudget;
+    private final long mBudgetWindowMs;
+
+    private long mThrottledUntilMs;
+
+    public MSGraphRetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS,
+                DEFAULT_RETRY_BUDGET, DEFAULT_BUDGET_WINDOW_MS);
+    }
+
+    /**
+     * @param maxAttempts    maximum number of times a request is sent, including the first one.
+     * @param baseDelayMs    smallest backoff delay.
+     * @param maxDelayMs     largest backoff delay.
+     * @param retryBudget    maximum number of retries, across all requests, within budgetWindowMs.
+     * @param budgetWindowMs length of the retry budget window.
+     */
+    public MSGraphRetryPolicy(final int maxAttempts,
+                              final long baseDelayMs,
+                              final long maxDelayMs,
+                              final int retryBudget,
+                              final long budgetWindowMs) {
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMs = baseDelayMs;
+        mMaxDelayMs = maxDelayMs;
+        mRetryBudget = retryBudget;
+        mBudgetWindowMs = budgetWindowMs;
+    }
+
+    /**
+     * Returns how long a new request must wait because MSGraph asked us to back off, or 0.
+     */
+    public synchronized long getThrottleDelayMs() {
+        return Math.max(0, mThrottledUntilMs - SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Forgets any throttling and the retries spent from the budget, i.e. between unit tests.
+     */
+    synchronized void reset() {
+        mThrottledUntilMs = 0;
+        mRetryTimestamps.clear();
+    }
+
+    /**
+     * Holds back every request until the given Retry-After has elapsed, i.e. for a throttled
+     * request sent outside of Volley.
+     */
+    synchronized void throttle(final long retryAfterMs) {
+        if (retryAfterMs > 0) {
+            mThrottledUntilMs = Math.max(mThrottledUntilMs, SystemClock.elapsedRealtime() + retryAfterMs);
+        }
+    }
+
+    /**
+     * Returns the delay before the failed request is sent again, or -1 if it must not be retried.
+     */
+    synchronized long getRetryDelayMs(final int method,
+                                      @NonNull final VolleyError error,
+                                      @NonNull final Attempt attempt) {
+        final long now = SystemClock.elapsedRealtime();
+        final NetworkResponse response = error.networkResponse;
+        final long retryAfterMs = response != null ? parseRetryAfterMs(response) : -1;
+
+        /* Throttling applies to every request, retried or not. */
+        throttle(retryAfterMs);
+
+        if (!isIdempotent(method) || !isRetryable(error) || attempt.retries + 1 >= mMaxAttempts) {
+            return -1;
+        }
+
+        if (!consumeBudget(now)) {
+            return -1;
+        }
+
+        /* Decorrelated jitter: sleep = min(cap, random_between(base, previous * 3)) */
+        final long previous = Math.max(mBaseDelayMs, attempt.previousDelayMs);
+        final long upperBound = Math.min(mMaxDelayMs, previous * 3);
+        final long jitterDelayMs = mBaseDelayMs + (long) (mRandom.nextDouble() * (upperBound - mBaseDelayMs));
+
+        final long delayMs = Math.max(jitterDelayMs, Math.max(retryAfterMs, mThrottledUntilMs - now));
+
+        attempt.retries++;
+        attempt.previousDelayMs = jitterDelayMs;
+        return delayMs;
+    }
+
+    static boolean isIdempotent(final int method) {
+        switch (method) {
+            case Request.Method.GET:
+            case Request.Method.HEAD:
+            case Request.Method.OPTIONS:
+            case Request.Method.PUT:
+            case Request.Method.DELETE:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isRetryable(@NonNull final VolleyError error) {
+        if (error instanceof TimeoutError) {
+            return true;
+        }
+
+        if (error.networkResponse == null) {
+            return false;
+        }
+
+        final int statusCode = error.networkResponse.statusCode;
+        return statusCode == HTTP_TOO_MANY_REQUESTS
+                || statusCode == HTTP_SERVICE_UNAVAILABLE
+                || statusCode == HTTP_GATEWAY_TIMEOUT;
+    }
+
+    private boolean consumeBudget(final long now) {
+        while (!mRetryTimestamps.isEmpty() && now - mRetryTimestamps.peekFirst() >= mBudgetWindowMs) {
+            mRetryTimestamps.pollFirst();
+        }
+
+        if (mRetryTimestamps.size() >= mRetryBudget) {
+            return false;
+        }
+
+        mRetryTimestamps.addLast(now);
+        return true;
+    }
+
+    /**
+     * Parses Retry-After, either in seconds or as an HTTP date.
+     *
+     * @return the delay in milliseconds, or -1 if absent or malformed.
+     */
+    static long parseRetryAfterMs(@NonNull final NetworkResponse response) {
+        if (response.headers == null) {
+            return -1;
+        }
+
+        final String retryAfter = response.headers.get("Retry-After");
+        if (retryAfter == null) {
+            return -1;
+        }
+
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            final long date = HttpHeaderParser.parseDateAsEpoch(retryAfter);
+            return date > 0 ? Math.max(0, date - System.currentTimeMillis()) : -1;
+        }
+    }
+}
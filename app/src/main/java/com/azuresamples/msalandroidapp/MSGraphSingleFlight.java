@@ -0,0 +1,200 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets identical MSGraph requests that are in flight at the same time share one network call.
+ * <p>
+ * i.e. rapid taps on "Call Graph API silently" for the same account and URL put a single GET on the wire,
+ * and its response (or error) is delivered to every caller. Callers receive the same JSONObject instance,
+ * so they should not modify it. The network call is cancelled once every caller has left.
+ */
+public class MSGraphSingleFlight {
+    private final Map<String, Flight> mInFlight = new HashMap<>();
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mCoalescedCount = new AtomicLong();
+
+    /**
+     * Builds the key of a request. Requests with the same key are coalesced.
+     */
+    static String getKey(@NonNull final String accountId, final int method, @NonNull final String url) {
+        return accountId + " " + method + " " + url;
+    }
+
+    /**
+     * Registers the listeners of a request.
+     *
+     * @return true if no identical request is in flight, i.e. the caller must send it
+     * with {@link #getResponseListener(String)} and {@link #getErrorListener(String)}.
+     */
+    synchronized boolean join(@NonNull final String key,
+                              @NonNull final Response.Listener<JSONObject> responseListener,
+                              @NonNull final Response.ErrorListener errorListener) {
+        mRequestCount.incrementAndGet();
+
+        Flight flight = mInFlight.get(key);
+        final boolean leader = flight == null;
+        if (leader) {
+            flight = new Flight();
+            mInFlight.put(key, flight);
+        } else {
+            mCoalescedCount.incrementAndGet();
+        }
+
+        flight.callbacks.add(new Callbacks(responseListener, errorListener));
+        return leader;
+    }
+
+    /**
+     * Sets how to cancel the network call of the given key once no caller waits for it anymore.
+     */
+    synchronized void setOnAbandoned(@NonNull final String key, @NonNull final Runnable onAbandoned) {
+        final Flight flight = mInFlight.get(key);
+        if (flight != null) {
+            flight.onAbandoned = onAbandoned;
+        }
+    }
+
+    /**
+     * Removes a caller registered with {@link #join}. If it was the last one, the request is forgotten
+     * and its network call cancelled.
+     */
+    void leave(@NonNull final String key, @NonNull final Response.Listener<JSONObject> responseListener) {
+        final Runnable onAbandoned;
+        synchronized (this) {
+            final Flight flight = mInFlight.get(key);
+            if (flight == null) {
+                return;
+            }
+
+            for (int i = 0; i < flight.callbacks.size(); i++) {
+                if (flight.callbacks.get(i).responseListener == responseListener) {
+                    flight.callbacks.remove(i);
+                    break;
+                }
+            }
+
+            if (!flight.callbacks.isEmpty()) {
+                return;
+            }
+
+            mInFlight.remove(key);
+            onAbandoned = flight.onAbandoned;
+        }
+
+        if (onAbandoned != null) {
+            onAbandoned.run();
+        }
+    }
+
+    /**
+     * Returns a listener that delivers the response to every caller waiting on the given key.
+     */
+    Response.Listener<JSONObject> getResponseListener(@NonNull final String key) {
+        return new Response.Listener<JSONObject>() {
+            @Override
+            public void onResponse(JSONObject response) {
+                for (final Callbacks callbacks : complete(key)) {
+                    callbacks.responseListener.onResponse(response);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a listener that delivers the error to every caller waiting on the given key.
+     */
+    Response.ErrorListener getErrorListener(@NonNull final String key) {
+        return new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                for (final Callbacks callbacks : complete(key)) {
+                    callbacks.errorListener.onErrorResponse(error);
+                }
+            }
+        };
+    }
+
+    /**
+     * Number of requests submitted, coalesced or not.
+     */
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Number of requests that were served by another identical request's network call.
+     */
+    public long getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    /**
+     * Number of network calls actually made.
+     */
+    public long getNetworkCallCount() {
+        return mRequestCount.get() - mCoalescedCount.get();
+    }
+
+    /**
+     * Forgets every in-flight request, i.e. once their network calls have been cancelled.
+     */
+    synchronized void clear() {
+        mInFlight.clear();
+    }
+
+    private synchronized List<Callbacks> complete(@NonNull final String key) {
+        final Flight flight = mInFlight.remove(key);
+        return flight != null ? flight.callbacks : new ArrayList<Callbacks>();
+    }
+
+    private static class Flight {
+        final List<Callbacks> callbacks = new ArrayList<>();
+        Runnable onAbandoned;
+    }
+
+    private static class Callbacks {
+        final Response.Listener<JSONObject> responseListener;
+        final Response.ErrorListener errorListener;
+
+        Callbacks(final Response.Listener<JSONObject> responseListener,
+                  final Response.ErrorListener errorListener) {
+            this.responseListener = responseListener;
+            this.errorListener = errorListener;
+        }
+    }
+}
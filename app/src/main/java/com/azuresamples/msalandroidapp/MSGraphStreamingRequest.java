@@ -0,0 +1,339 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.HttpResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Reads an MSGraph collection (i.e. /users, /me/messages) without materializing the whole response.
+ * <p>
+ * The body is tokenized while it is being received, and each element of the "value" array is handed
+ * to an {@link ItemListener} as soon as it is complete. Only one item is held in memory at a time,
+ * regardless of the page size.
+ * <p>
+ * All listeners are invoked on the background thread that reads the response.
+ * Once {@link #getTransportRequest()} is cancelled, reading stops and no listener is invoked anymore.
+ */
+public class MSGraphStreamingRequest implements Runnable {
+    private static final String CHARSET = "UTF-8";
+
+    /* Upper bound of an error body kept for the error listener. */
+    private static final int MAX_ERROR_BODY_SIZE = 64 * 1024;
+
+    private static final int TIMEOUT_MS = 10000;
+
+    /**
+     * Receives the items of the "value" array, one at a time.
+     */
+    public interface ItemListener {
+        void onItem(@NonNull JSONObject item);
+    }
+
+    /**
+     * Invoked once the whole response has been read.
+     */
+    public interface CompletionListener {
+        void onComplete(@NonNull Result result);
+    }
+
+    /**
+     * Summary of a streamed collection page.
+     */
+    public static class Result {
+        /**
+         * Number of items delivered to the {@link ItemListener}.
+         */
+        public int itemCount;
+
+        /**
+         * Value of "@odata.nextLink", or null if this is the last page.
+         */
+        @Nullable
+        public String nextLink;
+
+        /**
+         * Value of "@odata.deltaLink", only present on the last page of a delta query.
+         */
+        @Nullable
+        public String deltaLink;
+    }
+
+    private final BaseHttpStack mHttpStack;
+    private final TransportRequest mTransportRequest;
+    private final ItemListener mItemListener;
+    private final CompletionListener mCompletionListener;
+    private final Response.ErrorListener mErrorListener;
+
+    public MSGraphStreamingRequest(@NonNull final BaseHttpStack httpStack,
+                                   @NonNull final String url,
+                                   @NonNull final String accessToken,
+                                   @NonNull final ItemListener itemListener,
+                                   @NonNull final CompletionListener completionListener,
+                                   @NonNull final Response.ErrorListener errorListener) {
+        mHttpStack = httpStack;
+        mTransportRequest = new TransportRequest(url, accessToken);
+        mItemListener = itemListener;
+        mCompletionListener = completionListener;
+        mErrorListener = errorListener;
+    }
+
+    /**
+     * Returns the request sent on the HTTP stack, i.e. to cancel it.
+     */
+    Request<?> getTransportRequest() {
+        return mTransportRequest;
+    }
+
+    @Override
+    public void run() {
+        final Result result;
+
+        if (mTransportRequest.isCanceled()) {
+            return;
+        }
+
+        try {
+            final HttpResponse response = mHttpStack.executeRequest(
+                    mTransportRequest,
+                    Collections.<String, String>emptyMap());
+
+            final InputStream content = response.getContent();
+            try {
+                if (response.getStatusCode() < 200 || response.getStatusCode() >= 300) {
+                    mErrorListener.onErrorResponse(new VolleyError(new NetworkResponse(
+                            response.getStatusCode(),
+                            readErrorBody(content),
+                            false,
+                            0,
+                            response.getHeaders())));
+                    return;
+                }
+
+                if (content == null) {
+                    mCompletionListener.onComplete(new Result());
+                    return;
+                }
+
+                result = readCollection(new JsonReader(new InputStreamReader(content, CHARSET)),
+                        new ItemListener() {
+                            @Override
+                            public void onItem(@NonNull JSONObject item) {
+                                if (mTransportRequest.isCanceled()) {
+                                    throw new CancellationException();
+                                }
+
+                                try {
+                                    mItemListener.onItem(item);
+                                } catch (RuntimeException e) {
+                                    throw new ItemListenerException(e);
+                                }
+                            }
+                        });
+            } finally {
+                if (content != null) {
+                    content.close();
+                }
+            }
+        } catch (CancellationException e) {
+            return;
+        } catch (ItemListenerException e) {
+            /* The caller's listener failed; the call is still answered, so it is not left outstanding. */
+            if (!mTransportRequest.isCanceled()) {
+                mErrorListener.onErrorResponse(new VolleyError(e.getCause()));
+            }
+            return;
+        } catch (IOException | JSONException | IllegalStateException e) {
+            if (!mTransportRequest.isCanceled()) {
+                mErrorListener.onErrorResponse(new VolleyError(e));
+            }
+            return;
+        } catch (VolleyError e) {
+            if (!mTransportRequest.isCanceled()) {
+                mErrorListener.onErrorResponse(e);
+            }
+            return;
+        }
+
+        if (!mTransportRequest.isCanceled()) {
+            mCompletionListener.onComplete(result);
+        }
+    }
+
+    /**
+     * Reads a collection response, emitting each element of "value" as soon as it is parsed.
+     */
+    static Result readCollection(@NonNull final JsonReader reader,
+                                 @NonNull final ItemListener itemListener) throws IOException, JSONException {
+        final Result result = new Result();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+
+            if ("value".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    final Object item = readValue(reader);
+                    if (item instanceof JSONObject) {
+                        result.itemCount++;
+                        itemListener.onItem((JSONObject) item);
+                    }
+                }
+                reader.endArray();
+            } else if ("@odata.nextLink".equals(name) && reader.peek() == JsonToken.STRING) {
+                result.nextLink = reader.nextString();
+            } else if ("@odata.deltaLink".equals(name) && reader.peek() == JsonToken.STRING) {
+                result.deltaLink = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return result;
+    }
+
+    /**
+     * Reads the next JSON value into its org.json representation.
+     */
+    private static Object readValue(@NonNull final JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                final JSONObject object = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    final String name = reader.nextName();
+                    object.put(name, readValue(reader));
+                }
+                reader.endObject();
+                return object;
+
+            case BEGIN_ARRAY:
+                final JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readValue(reader));
+                }
+                reader.endArray();
+                return array;
+
+            case NUMBER:
+                final String number = reader.nextString();
+                try {
+                    return Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    return Double.parseDouble(number);
+                }
+
+            case BOOLEAN:
+                return reader.nextBoolean();
+
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+
+            default:
+                return reader.nextString();
+        }
+    }
+
+    private static byte[] readErrorBody(@Nullable final InputStream content) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (content == null) {
+            return body.toByteArray();
+        }
+
+        final byte[] buffer = new byte[4096];
+        int read;
+        while (body.size() < MAX_ERROR_BODY_SIZE && (read = content.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+
+        return body.toByteArray();
+    }
+
+    /**
+     * Carries an exception thrown by the {@link ItemListener} out of the parser.
+     */
+    private static class ItemListenerException extends RuntimeException {
+        ItemListenerException(@NonNull final RuntimeException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Carries the URL and headers of a call made directly on the HTTP stack.
+     * It is never added to a RequestQueue.
+     */
+    static class TransportRequest extends Request<Void> {
+        private final String mAccessToken;
+
+        TransportRequest(@NonNull final String url, @NonNull final String accessToken) {
+            super(Method.GET, url, null);
+            mAccessToken = accessToken;
+            setRetryPolicy(new DefaultRetryPolicy(TIMEOUT_MS, 0, DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+        }
+
+        @Override
+        public Map<String, String> getHeaders() {
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Authorization", "Bearer " + mAccessToken);
+            return headers;
+        }
+
+        @Override
+        protected Response<Void> parseNetworkResponse(final NetworkResponse response) {
+            return Response.success(null, null);
+        }
+
+        @Override
+        protected void deliverResponse(final Void response) {
+        }
+    }
+}
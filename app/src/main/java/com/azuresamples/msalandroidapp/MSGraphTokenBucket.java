@@ -0,0 +1,75 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+/**
+ * Classic token bucket: holds up to a capacity of tokens, refilled at a constant rate.
+ * Each request consumes one token, so bursts up to the capacity are allowed and the sustained
+ * rate is bounded by the refill rate. Times are in milliseconds, i.e. from SystemClock.elapsedRealtime().
+ */
+class MSGraphTokenBucket {
+    private final int mCapacity;
+    private final double mTokensPerMs;
+    private double mTokens;
+    private long mLastRefillMs;
+
+    /**
+     * @param capacity        maximum number of tokens, i.e. the largest burst.
+     * @param tokensPerSecond refill rate.
+     * @param nowMs           current time; the bucket starts full.
+     */
+    MSGraphTokenBucket(final int capacity, final double tokensPerSecond, final long nowMs) {
+        if (capacity < 1 || tokensPerSecond <= 0) {
+            throw new IllegalArgumentException("Capacity and rate must be positive");
+        }
+
+        mCapacity = capacity;
+        mTokensPerMs = tokensPerSecond / 1000;
+        mTokens = capacity;
+        mLastRefillMs = nowMs;
+    }
+
+    /**
+     * Returns how long to wait until a token is available, or 0 if one is available now.
+     */
+    long getDelayMs(final long nowMs) {
+        refill(nowMs);
+        return mTokens >= 1 ? 0 : (long) Math.ceil((1 - mTokens) / mTokensPerMs);
+    }
+
+    /**
+     * Takes a token. Must only be called when {@link #getDelayMs(long)} returned 0.
+     */
+    void consume(final long nowMs) {
+        refill(nowMs);
+        mTokens -= 1;
+    }
+
+    private void refill(final long nowMs) {
+        if (nowMs > mLastRefillMs) {
+            mTokens = Math.min(mCapacity, mTokens + (nowMs - mLastRefillMs) * mTokensPerMs);
+            mLastRefillMs = nowMs;
+        }
+    }
+}
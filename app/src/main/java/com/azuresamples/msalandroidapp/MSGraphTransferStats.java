@@ -0,0 +1,121 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bytes received from MSGraph on the wire and after decompression, per endpoint.
+ * <p>
+ * i.e. to measure the bandwidth saved by gzip on metered networks, and to spot
+ * endpoints whose responses are never compressed.
+ */
+public class MSGraphTransferStats {
+
+    /**
+     * Byte counts of one endpoint.
+     */
+    public static class Entry {
+        /**
+         * Endpoint template, with ids replaced, i.e. "v1.0/users/{id}". Same key as {@link MSGraphCallMetrics}.
+         */
+        public final String endpoint;
+        public long responseCount;
+
+        /**
+         * Number of responses that were not compressed.
+         */
+        public long uncompressedResponseCount;
+        public long wireBytes;
+        public long decodedBytes;
+
+        Entry(@NonNull final String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        Entry(@NonNull final Entry entry) {
+            endpoint = entry.endpoint;
+            responseCount = entry.responseCount;
+            uncompressedResponseCount = entry.uncompressedResponseCount;
+            wireBytes = entry.wireBytes;
+            decodedBytes = entry.decodedBytes;
+        }
+
+        /**
+         * Fraction of the decoded bytes that did not have to be downloaded, between 0 and 1.
+         */
+        public double getSavedRatio() {
+            return decodedBytes > 0 ? 1 - (double) wireBytes / decodedBytes : 0;
+        }
+    }
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    /**
+     * Returns the key under which a request to the given URL is counted. Ids are templated,
+     * so the number of entries stays bounded by the number of endpoints, not of resources.
+     */
+    static String getEndpoint(@NonNull final String url) {
+        return MSGraphCallMetrics.getEndpointTemplate(url);
+    }
+
+    synchronized void record(@NonNull final String endpoint,
+                             final boolean compressed,
+                             final long wireBytes,
+                             final long decodedBytes) {
+        Entry entry = mEntries.get(endpoint);
+        if (entry == null) {
+            entry = new Entry(endpoint);
+            mEntries.put(endpoint, entry);
+        }
+
+        entry.responseCount++;
+        entry.wireBytes += wireBytes;
+        entry.decodedBytes += decodedBytes;
+        if (!compressed && decodedBytes > 0) {
+            entry.uncompressedResponseCount++;
+        }
+    }
+
+    /**
+     * Returns a copy of the counts of every endpoint called so far.
+     */
+    public synchronized List<Entry> getSnapshot() {
+        final List<Entry> snapshot = new ArrayList<>();
+        for (final Entry entry : mEntries.values()) {
+            snapshot.add(new Entry(entry));
+        }
+
+        return snapshot;
+    }
+
+    public synchronized void reset() {
+        mEntries.clear();
+    }
+}
@@ -0,0 +1,780 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.Header;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Uploads a large file to the signed-in user's OneDrive with an upload session.
+ * <p>
+ * The file is sent in fixed-size byte ranges read from a FileChannel, so only one range is held in memory.
+ * The session URL is persisted, and an interrupted upload resumes from the ranges MSGraph still expects
+ * instead of starting over. OneDrive requires the ranges of a session to be sent sequentially, in order.
+ * Sessions are saved per account: the upload URL is pre-authenticated, so it must never be resumed by another one.
+ * Like other Graph calls, ranges wait while MSGraph is throttling and are retried by {@link MSGraphRetryPolicy}.
+ * Uploads run on their own thread rather than the IO pool, and wait out backoffs on a Handler, so the thread
+ * is never put to sleep.
+ * See https://learn.microsoft.com/en-us/graph/api/driveitem-createuploadsession for more info.
+ */
+public class MSGraphUploadSession {
+    private static final String TAG = MSGraphUploadSession.class.getSimpleName();
+
+    private static final String SHARED_PREFERENCES_NAME = "msgraph_upload_sessions";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* Byte ranges must be a multiple of 320 KiB. */
+    private static final int CHUNK_SIZE_IN_BYTES = 10 * 320 * 1024;
+
+    /* A range is sent over a mobile network, so allow it time. */
+    private static final int CHUNK_TIMEOUT_MS = 60000;
+    private static final int SESSION_TIMEOUT_MS = 10000;
+
+    /* Number of times the upload resynchronizes with the session after a failed range. */
+    private static final int MAX_RESUME_ATTEMPTS = 3;
+
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_CREATED = 201;
+    private static final int HTTP_ACCEPTED = 202;
+    private static final int HTTP_NOT_FOUND = 404;
+
+    /**
+     * Invoked on the main thread after each range MSGraph acknowledged.
+     */
+    public interface ProgressListener {
+        void onProgress(long uploadedBytes, long totalBytes);
+    }
+
+    /**
+     * Invoked on the main thread with the uploaded driveItem.
+     */
+    public interface CompletionListener {
+        void onComplete(@NonNull JSONObject driveItem);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean mCancelled = new AtomicBoolean();
+    private final SharedPreferences mPreferences;
+    private final File mFile;
+    private final String mAccountId;
+    private final String mDrivePath;
+    private final String mSessionKey;
+
+    /* The upload in progress, or null. */
+    private Upload mUpload;
+
+    /**
+     * @param accountId id of the account whose drive receives the file.
+     * @param file      file to upload.
+     * @param drivePath destination relative to the drive root, i.e. "Logs/app.log".
+     */
+    public MSGraphUploadSession(@NonNull final Context context,
+                                @NonNull final String accountId,
+                                @NonNull final File file,
+                                @NonNull final String drivePath) {
+        mPreferences = context.getApplicationContext()
+                .getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+        mFile = file;
+        mAccountId = accountId;
+        mDrivePath = drivePath;
+        mSessionKey = accountId + "|" + file.getAbsolutePath() + "|" + drivePath;
+    }
+
+    /**
+     * Uploads the file, resuming a previous session of the same account, file and destination if there is one.
+     * An empty file is uploaded with a single PUT, since an upload session cannot carry zero bytes.
+     * A call made while this session is already uploading is ignored.
+     * <p>
+     * Exactly one of completionListener and errorListener is invoked, the latter with a
+     * {@link MSGraphCancelledError} if the upload is cancelled.
+     */
+    public void upload(@NonNull final String accessToken,
+                       @NonNull final ProgressListener progressListener,
+                       @NonNull final CompletionListener completionListener,
+                       @NonNull final Response.ErrorListener errorListener) {
+        final Upload upload;
+        synchronized (this) {
+            if (mUpload != null) {
+                Log.d(TAG, "Upload already in progress");
+                return;
+            }
+
+            mCancelled.set(false);
+            mUpload = new Upload(accessToken, progressListener, completionListener, errorListener);
+            upload = mUpload;
+        }
+
+        upload.submit();
+    }
+
+    /**
+     * Stops the upload after the range being sent, and deletes the session so it is not resumed.
+     * While a range is in flight, the session is only deleted once that range is answered,
+     * so the deletion cannot race the upload. An upload waiting to retry a range stops right away.
+     */
+    public void cancel() {
+        final Upload upload;
+        synchronized (this) {
+            mCancelled.set(true);
+            upload = mUpload;
+        }
+
+        if (upload == null) {
+            deleteSession();
+            return;
+        }
+
+        upload.wakeUp();
+    }
+
+    private void onUploadEnded() {
+        final boolean cancelled;
+        synchronized (this) {
+            mUpload = null;
+            cancelled = mCancelled.get();
+        }
+
+        if (cancelled) {
+            deleteSession();
+        }
+    }
+
+    private void deleteSession() {
+        final String uploadUrl = getSavedUploadUrl();
+        mPreferences.edit().remove(mSessionKey).apply();
+        if (uploadUrl == null) {
+            return;
+        }
+
+        new DeleteSession(uploadUrl).submit();
+    }
+
+    /**
+     * Sends a file, one step at a time on the upload thread: each step sends one request, then either
+     * submits the next step or schedules it once a backoff has elapsed, so the thread never sleeps.
+     * Steps of an upload never overlap, so its state is only accessed by one thread at a time.
+     */
+    private class Upload implements Runnable {
+        private final String mAccessToken;
+        private final ProgressListener mProgressListener;
+        private final CompletionListener mCompletionListener;
+        private final Response.ErrorListener mErrorListener;
+
+        /* Set while the next step waits on the main thread's Handler, cleared by whoever submits it. */
+        private final AtomicBoolean mWaiting = new AtomicBoolean();
+        private final Runnable mResume = new Runnable() {
+            @Override
+            public void run() {
+                if (mWaiting.compareAndSet(true, false)) {
+                    submit();
+                }
+            }
+        };
+
+        private long mTotalBytes = -1;
+        private String mUploadUrl;
+        private long mOffset;
+        private FileInputStream mInput;
+        private ByteBuffer mBuffer;
+        private MSGraphRetryPolicy.Attempt mAttempt = new MSGraphRetryPolicy.Attempt();
+        private int mResumeAttempts;
+
+        /* Why the last range failed, until the session says where to continue. */
+        private Exception mRangeError;
+
+        Upload(@NonNull final String accessToken,
+               @NonNull final ProgressListener progressListener,
+               @NonNull final CompletionListener completionListener,
+               @NonNull final Response.ErrorListener errorListener) {
+            mAccessToken = accessToken;
+            mProgressListener = progressListener;
+            mCompletionListener = completionListener;
+            mErrorListener = errorListener;
+        }
+
+        void submit() {
+            MSGraphRequestWrapper.executeUpload(this, new Response.ErrorListener() {
+                @Override
+                public void onErrorResponse(VolleyError error) {
+                    finish(null, error);
+                }
+            });
+        }
+
+        /**
+         * Runs the next step now if it is waiting for a backoff, i.e. once the upload was cancelled.
+         */
+        void wakeUp() {
+            if (mWaiting.compareAndSet(true, false)) {
+                mMainHandler.removeCallbacks(mResume);
+                submit();
+            }
+        }
+
+        private void schedule(final long delayMs) {
+            mWaiting.set(true);
+            mMainHandler.postDelayed(mResume, delayMs);
+
+            /* Cancelled while this step was running: cancel() found nothing to wake up. */
+            if (mCancelled.get()) {
+                wakeUp();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (mCancelled.get()) {
+                    finish(null, new MSGraphCancelledError("Upload was cancelled"));
+                    return;
+                }
+
+                final long throttleDelayMs = MSGraphRequestWrapper.getRetryPolicy().getThrottleDelayMs();
+                if (throttleDelayMs > 0) {
+                    Log.d(TAG, "Graph is throttling, delaying upload by " + throttleDelayMs + "ms");
+                    schedule(throttleDelayMs);
+                    return;
+                }
+
+                final JSONObject driveItem = step();
+                if (driveItem != null) {
+                    finish(driveItem, null);
+                }
+            } catch (final VolleyError e) {
+                finish(null, e);
+            } catch (final IOException | JSONException e) {
+                finish(null, new VolleyError(e));
+            }
+        }
+
+        /**
+         * Sends the next request of the upload, and submits or schedules the one after it.
+         *
+         * @return the driveItem once the upload is complete, or null.
+         */
+        @Nullable
+        private JSONObject step() throws IOException, JSONException, VolleyError {
+            if (mTotalBytes < 0) {
+                mTotalBytes = mFile.length();
+            }
+
+            try {
+                if (mTotalBytes == 0) {
+                    return uploadEmptyFile(mAccessToken);
+                }
+
+                if (mUploadUrl == null) {
+                    start();
+                } else if (mRangeError != null) {
+                    resync();
+                }
+            } catch (final VolleyError e) {
+                if (retry(e)) {
+                    return null;
+                }
+                throw e;
+            }
+
+            return sendRange();
+        }
+
+        /**
+         * Resumes a saved session from the ranges it still expects, or creates one.
+         */
+        private void start() throws IOException, JSONException, VolleyError {
+            String uploadUrl = getSavedUploadUrl();
+            if (uploadUrl != null) {
+                mOffset = getNextExpectedOffset(uploadUrl);
+                if (mOffset < 0) {
+                    Log.d(TAG, "Upload session expired, starting over");
+                    uploadUrl = null;
+                } else {
+                    Log.d(TAG, "Resuming upload at byte " + mOffset);
+                }
+            }
+
+            if (uploadUrl == null) {
+                uploadUrl = createSession(mAccessToken);
+                mOffset = 0;
+            }
+
+            mInput = new FileInputStream(mFile);
+            mBuffer = ByteBuffer.allocate((int) Math.min(CHUNK_SIZE_IN_BYTES, mTotalBytes));
+            mUploadUrl = uploadUrl;
+        }
+
+        /**
+         * The last range may or may not have been received; asks the session where to continue.
+         */
+        private void resync() throws IOException, VolleyError {
+            mOffset = getNextExpectedOffset(mUploadUrl);
+            if (mOffset < 0) {
+                mPreferences.edit().remove(mSessionKey).apply();
+                throw asVolleyError(mRangeError);
+            }
+
+            mRangeError = null;
+        }
+
+        /**
+         * Sends the range at the current offset.
+         *
+         * @return the driveItem if it was the last range, or null.
+         */
+        @Nullable
+        private JSONObject sendRange() throws IOException, JSONException, VolleyError {
+            final int length = (int) Math.min(mBuffer.capacity(), mTotalBytes - mOffset);
+            final byte[] chunk = readRange(mInput.getChannel(), mBuffer, mOffset, length);
+
+            final UploadResponse response;
+            try {
+                response = execute(new UploadRequest(Request.Method.PUT, mUploadUrl, null, chunk,
+                        "bytes " + mOffset + "-" + (mOffset + length - 1) + "/" + mTotalBytes,
+                        CHUNK_TIMEOUT_MS));
+            } catch (final IOException | VolleyError e) {
+                if (e instanceof VolleyError && retry((VolleyError) e)) {
+                    return null;
+                }
+
+                if (++mResumeAttempts > MAX_RESUME_ATTEMPTS) {
+                    throw asVolleyError(e);
+                }
+
+                mRangeError = e;
+                submit();
+                return null;
+            }
+
+            mResumeAttempts = 0;
+            mAttempt = new MSGraphRetryPolicy.Attempt();
+
+            if (response.statusCode == HTTP_OK || response.statusCode == HTTP_CREATED) {
+                mPreferences.edit().remove(mSessionKey).apply();
+                notifyProgress(mProgressListener, mTotalBytes, mTotalBytes);
+                return new JSONObject(response.body);
+            }
+
+            mOffset = parseNextExpectedOffset(new JSONObject(response.body));
+            if (mOffset < 0) {
+                throw new VolleyError("Upload session expects no more ranges");
+            }
+
+            notifyProgress(mProgressListener, mOffset, mTotalBytes);
+            submit();
+            return null;
+        }
+
+        /**
+         * Schedules the failed request again if MSGraph is throttling or temporarily unavailable.
+         * Every request of an upload can be repeated: ranges are only accepted in order, and a session
+         * whose creation was lost is simply never used.
+         *
+         * @return false if the request must not be retried.
+         */
+        private boolean retry(@NonNull final VolleyError error) {
+            final long retryDelayMs = MSGraphRequestWrapper.getRetryPolicy()
+                    .getRetryDelayMs(Request.Method.PUT, error, mAttempt);
+            if (retryDelayMs < 0) {
+                return false;
+            }
+
+            Log.d(TAG, "Retrying upload at byte " + mOffset + " in " + retryDelayMs + "ms");
+            schedule(retryDelayMs);
+            return true;
+        }
+
+        private void finish(@Nullable final JSONObject driveItem, @Nullable final VolleyError error) {
+            if (mInput != null) {
+                try {
+                    mInput.close();
+                } catch (IOException e) {
+                    Log.d(TAG, "Failed to close " + mFile + ": " + e.toString());
+                }
+            }
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (driveItem != null) {
+                        mCompletionListener.onComplete(driveItem);
+                    } else {
+                        mErrorListener.onErrorResponse(error);
+                    }
+                }
+            });
+            onUploadEnded();
+        }
+    }
+
+    /**
+     * Deletes an upload session on the upload thread, once MSGraph no longer asks us to back off.
+     */
+    private class DeleteSession implements Runnable {
+        private final String mUploadUrl;
+
+        DeleteSession(@NonNull final String uploadUrl) {
+            mUploadUrl = uploadUrl;
+        }
+
+        void submit() {
+            MSGraphRequestWrapper.executeUpload(this, new Response.ErrorListener() {
+                @Override
+                public void onErrorResponse(VolleyError error) {
+                    Log.d(TAG, "Failed to delete upload session: " + error.toString());
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            final long throttleDelayMs = MSGraphRequestWrapper.getRetryPolicy().getThrottleDelayMs();
+            if (throttleDelayMs > 0) {
+                mMainHandler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        submit();
+                    }
+                }, throttleDelayMs);
+                return;
+            }
+
+            try {
+                execute(new UploadRequest(Request.Method.DELETE, mUploadUrl, null, null, null, SESSION_TIMEOUT_MS));
+            } catch (IOException | VolleyError e) {
+                Log.d(TAG, "Failed to delete upload session: " + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Uploads an empty file with a simple PUT of its content.
+     */
+    private JSONObject uploadEmptyFile(@NonNull final String accessToken) throws IOException, JSONException, VolleyError {
+        final String url = MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT
+                + "v1.0/me/drive/root:/" + Uri.encode(mDrivePath, "/") + ":/content";
+
+        final UploadResponse response = execute(new UploadRequest(Request.Method.PUT, url, accessToken,
+                new byte[0], null, SESSION_TIMEOUT_MS));
+        if (response.statusCode != HTTP_OK && response.statusCode != HTTP_CREATED) {
+            throw response.toError();
+        }
+
+        return new JSONObject(response.body);
+    }
+
+    private static VolleyError asVolleyError(@NonNull final Exception error) {
+        return error instanceof VolleyError ? (VolleyError) error : new VolleyError(error);
+    }
+
+    /**
+     * Reads a byte range of the file through the channel, reusing the buffer.
+     */
+    private static byte[] readRange(@NonNull final FileChannel channel,
+                                    @NonNull final ByteBuffer buffer,
+                                    final long offset,
+                                    final int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("File is shorter than expected");
+            }
+            position += read;
+        }
+
+        /* The stack sends a byte array; only the last range is smaller than the buffer. */
+        if (length == buffer.capacity()) {
+            return buffer.array();
+        }
+
+        final byte[] chunk = new byte[length];
+        System.arraycopy(buffer.array(), 0, chunk, 0, length);
+        return chunk;
+    }
+
+    private String createSession(@NonNull final String accessToken) throws IOException, JSONException, VolleyError {
+        final JSONObject body = new JSONObject()
+                .put("item", new JSONObject().put("@microsoft.graph.conflictBehavior", "replace"));
+
+        final String url = MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT
+                + "v1.0/me/drive/root:/" + Uri.encode(mDrivePath, "/") + ":/createUploadSession";
+
+        final UploadResponse response = execute(new UploadRequest(Request.Method.POST, url, accessToken,
+                body.toString().getBytes(UTF_8), null, SESSION_TIMEOUT_MS));
+        if (response.statusCode != HTTP_OK) {
+            throw response.toError();
+        }
+
+        final String uploadUrl = new JSONObject(response.body).getString("uploadUrl");
+        mPreferences.edit().putString(mSessionKey, new JSONObject()
+                .put("accountId", mAccountId)
+                .put("uploadUrl", uploadUrl)
+                .put("length", mFile.length())
+                .put("lastModified", mFile.lastModified())
+                .toString()).apply();
+
+        return uploadUrl;
+    }
+
+    /**
+     * Returns the upload URL of a saved session of this very account and file, or null.
+     */
+    @Nullable
+    private String getSavedUploadUrl() {
+        final String saved = mPreferences.getString(mSessionKey, null);
+        if (saved == null) {
+            return null;
+        }
+
+        try {
+            final JSONObject session = new JSONObject(saved);
+            if (!mAccountId.equals(session.optString("accountId", null))) {
+                /* Saved before sessions were kept per account; it may belong to another one. */
+                return null;
+            }
+
+            if (session.getLong("length") != mFile.length() || session.getLong("lastModified") != mFile.lastModified()) {
+                /* The file changed since; its ranges on the server are stale. */
+                return null;
+            }
+            return session.getString("uploadUrl");
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Asks the session which byte it expects next.
+     *
+     * @return the offset, or -1 if the session no longer exists.
+     */
+    private long getNextExpectedOffset(@NonNull final String uploadUrl) throws IOException, VolleyError {
+        final UploadResponse response = execute(new UploadRequest(Request.Method.GET, uploadUrl, null, null, null,
+                SESSION_TIMEOUT_MS));
+        if (response.statusCode == HTTP_NOT_FOUND) {
+            return -1;
+        }
+
+        if (response.statusCode != HTTP_OK) {
+            throw response.toError();
+        }
+
+        try {
+            return parseNextExpectedOffset(new JSONObject(response.body));
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Parses the start of the first range in "nextExpectedRanges", i.e. 26 in ["26-", "100-200"].
+     *
+     * @return the offset, or -1 if no range is expected.
+     */
+    private static long parseNextExpectedOffset(@NonNull final JSONObject session) throws JSONException {
+        final JSONArray ranges = session.optJSONArray("nextExpectedRanges");
+        if (ranges == null || ranges.length() == 0) {
+            return -1;
+        }
+
+        final String range = ranges.getString(0);
+        final int dash = range.indexOf('-');
+        try {
+            return Long.parseLong(dash >= 0 ? range.substring(0, dash) : range);
+        } catch (NumberFormatException e) {
+            throw new JSONException("Malformed range: " + range);
+        }
+    }
+
+    /**
+     * Sends a request. Callers check MSGraph's throttling first, and wait without blocking the thread.
+     */
+    private UploadResponse execute(@NonNull final UploadRequest request) throws IOException, VolleyError {
+        final HttpResponse response;
+        try {
+            response = MSGraphRequestWrapper.getHttpStack().executeRequest(request, new HashMap<String, String>());
+        } catch (AuthFailureError e) {
+            throw new IOException(e);
+        }
+
+        final InputStream content = response.getContent();
+        try {
+            final UploadResponse uploadResponse = new UploadResponse(response.getStatusCode(), readBody(content),
+                    response.getHeaders());
+            if (response.getStatusCode() >= 300 && response.getStatusCode() != HTTP_NOT_FOUND) {
+                throw uploadResponse.toError();
+            }
+            return uploadResponse;
+        } finally {
+            if (content != null) {
+                content.close();
+            }
+        }
+    }
+
+    private static String readBody(@Nullable final InputStream content) throws IOException {
+        if (content == null) {
+            return "";
+        }
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+
+        return new String(body.toByteArray(), UTF_8);
+    }
+
+    private void notifyProgress(@NonNull final ProgressListener progressListener,
+                                final long uploadedBytes,
+                                final long totalBytes) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                progressListener.onProgress(uploadedBytes, totalBytes);
+            }
+        });
+    }
+
+    private void deliverError(@NonNull final VolleyError error, @NonNull final Response.ErrorListener errorListener) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                errorListener.onErrorResponse(error);
+            }
+        });
+    }
+
+    private static class UploadResponse {
+        final int statusCode;
+        final String body;
+        final List<Header> headers;
+
+        UploadResponse(final int statusCode, @NonNull final String body, @Nullable final List<Header> headers) {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.headers = headers != null ? headers : new ArrayList<Header>();
+        }
+
+        /**
+         * Keeps the headers, so the retry policy can read Retry-After.
+         */
+        VolleyError toError() {
+            return new VolleyError(new NetworkResponse(statusCode, body.getBytes(UTF_8), false, 0, headers));
+        }
+    }
+
+    /**
+     * Carries a call made directly on the HTTP stack. It is never added to a RequestQueue.
+     * The upload URL is pre-authenticated, so ranges are sent without the access token.
+     */
+    private static class UploadRequest extends Request<Void> {
+        private final String mAccessToken;
+        private final byte[] mBody;
+        private final String mContentRange;
+
+        UploadRequest(final int method,
+                      @NonNull final String url,
+                      @Nullable final String accessToken,
+                      @Nullable final byte[] body,
+                      @Nullable final String contentRange,
+                      final int timeoutMs) {
+            super(method, url, null);
+            mAccessToken = accessToken;
+            mBody = body;
+            mContentRange = contentRange;
+            setRetryPolicy(new DefaultRetryPolicy(timeoutMs, 0, DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+        }
+
+        @Override
+        public Map<String, String> getHeaders() {
+            Map<String, String> headers = new HashMap<>();
+            if (mAccessToken != null) {
+                headers.put("Authorization", "Bearer " + mAccessToken);
+            }
+            if (mContentRange != null) {
+                headers.put("Content-Range", mContentRange);
+            }
+            return headers;
+        }
+
+        @Override
+        public String getBodyContentType() {
+            return getMethod() == Method.PUT ? "application/octet-stream" : "application/json; charset=utf-8";
+        }
+
+        @Override
+        public byte[] getBody() {
+            return mBody;
+        }
+
+        @Override
+        protected Response<Void> parseNetworkResponse(final NetworkResponse response) {
+            return Response.success(null, null);
+        }
+
+        @Override
+        protected void deliverResponse(final Void response) {
+        }
+    }
+}
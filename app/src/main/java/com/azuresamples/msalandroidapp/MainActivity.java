@@ -79,6 +79,16 @@ public class MainActivity extends AppCompatActivity
         setCurrentFragment(AppFragment.SingleAccount);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        /* Release the shared Graph dispatcher threads once the app is actually closing (not on rotation). */
+        if (isFinishing()) {
+            MSGraphRequestWrapper.shutdown();
+        }
+    }
+
     @Override
     public boolean onNavigationItemSelected(final MenuItem item) {
         final DrawerLayout drawer = findViewById(R.id.drawer_layout);
@@ -23,9 +23,14 @@
 
 package com.azuresamples.msalandroidapp;
 
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 
 import android.util.Log;
@@ -41,7 +46,6 @@ import android.widget.Toast;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
 import com.microsoft.identity.client.AcquireTokenParameters;
-import com.microsoft.identity.client.AcquireTokenSilentParameters;
 import com.microsoft.identity.client.AuthenticationCallback;
 import com.microsoft.identity.client.IAccount;
 import com.microsoft.identity.client.IAuthenticationResult;
@@ -66,6 +70,12 @@ import java.util.List;
 public class MultipleAccountModeFragment extends Fragment {
     private static final String TAG = MultipleAccountModeFragment.class.getSimpleName();
 
+    /* Set to true to acquire a token for every signed-in account as soon as the accounts are loaded. */
+    private static final boolean WARM_UP_TOKENS_ON_LOAD = false;
+
+    /* Size of the profile photos shown next to the account names. */
+    private static final int PHOTO_SIZE_DP = 32;
+
     /* UI & Debugging Variables */
     Button removeAccountButton;
     Button callGraphApiInteractiveButton;
@@ -79,11 +89,17 @@ public class MultipleAccountModeFragment extends Fragment {
     private IMultipleAccountPublicClientApplication mMultipleAccountApp;
     private List<IAccount> accountList;
 
+    /* Token and Graph work outstanding for this fragment's view */
+    private MSGraphRequestScope mRequestScope;
+
+    private final TokenWarmUp mTokenWarmUp = new TokenWarmUp();
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
         // Inflate the layout for this fragment
         final View view = inflater.inflate(R.layout.fragment_multiple_account_mode, container, false);
+        mRequestScope = new MSGraphRequestScope(getContext());
         initializeUI(view);
 
         // Creates a PublicClientApplication object with res/raw/auth_config_single_account.json
@@ -108,6 +124,14 @@ public class MultipleAccountModeFragment extends Fragment {
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        /* Nobody will see the result of outstanding work, and its callbacks must not touch the destroyed view. */
+        mRequestScope.close();
+        mTokenWarmUp.cancel();
+        super.onDestroyView();
+    }
+
     /**
      * Initializes UI variables and callbacks.
      */
@@ -120,7 +144,10 @@ public class MultipleAccountModeFragment extends Fragment {
         logTextView = view.findViewById(R.id.txt_log);
         accountListSpinner = view.findViewById(R.id.account_list);
 
-        final String defaultGraphResourceUrl = MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT + "v1.0/me";
+        /* Only download the profile properties the sample shows. */
+        final String defaultGraphResourceUrl = new MSGraphQuery("v1.0/me")
+                .select("id", "displayName", "mail", "userPrincipalName")
+                .build();
         graphResourceTextView.setText(defaultGraphResourceUrl);
 
         removeAccountButton.setOnClickListener(new View.OnClickListener() {
@@ -132,10 +159,23 @@ public class MultipleAccountModeFragment extends Fragment {
                 /*
                  * Removes the selected account and cached tokens from this app (or device, if the device is in shared mode).
                  */
-                mMultipleAccountApp.removeAccount(accountList.get(accountListSpinner.getSelectedItemPosition()),
+                final IAccount removedAccount = accountList.get(accountListSpinner.getSelectedItemPosition());
+
+                /* The callback may run once the fragment is detached, when getContext() returns null. */
+                final Context appContext = getContext().getApplicationContext();
+                mMultipleAccountApp.removeAccount(removedAccount,
                         new IMultipleAccountPublicClientApplication.RemoveAccountCallback() {
                             @Override
                             public void onRemoved() {
+                                /* Drop the removed account's cached MSGraph responses and access tokens. */
+                                MSGraphRequestWrapper.clearCache(appContext, removedAccount.getId());
+                                AccessTokenCache.getInstance().remove(removedAccount.getId());
+                                MSGraphRequestWrapper.getPhotoLoader(appContext).remove(removedAccount.getId());
+
+                                if (!isAdded()) {
+                                    return;
+                                }
+
                                 Toast.makeText(getContext(), "Account removed.", Toast.LENGTH_SHORT)
                                         .show();
 
@@ -145,7 +185,9 @@ public class MultipleAccountModeFragment extends Fragment {
 
                             @Override
                             public void onError(@NonNull MsalException exception) {
-                                displayError(exception);
+                                if (isAdded()) {
+                                    displayError(exception);
+                                }
                             }
                         });
             }
@@ -160,7 +202,8 @@ public class MultipleAccountModeFragment extends Fragment {
                 final AcquireTokenParameters parameters = new AcquireTokenParameters.Builder()
                         .startAuthorizationFromActivity(getActivity())
                         .withScopes(Arrays.asList(getScopes()))
-                        .withCallback(getAuthInteractiveCallback())
+                        .withCallback(AuthInstrumentation.getInstance().wrap(AuthInstrumentation.Operation.ACQUIRE_TOKEN,
+                                mRequestScope.wrap(getAuthInteractiveCallback())))
                         .build();
                 /*
                  * Acquire token interactively. It will also create an account object for the silent call as a result (to be obtained by getAccount()).
@@ -186,21 +229,19 @@ public class MultipleAccountModeFragment extends Fragment {
 
                 final IAccount selectedAccount = accountList.get(accountListSpinner.getSelectedItemPosition());
 
-                final AcquireTokenSilentParameters silentParameters = new AcquireTokenSilentParameters.Builder()
-                        .forAccount(selectedAccount)
-                        .fromAuthority(selectedAccount.getAuthority())
-                        .withScopes(Arrays.asList(getScopes()))
-                        .forceRefresh(false)
-                        .withCallback(getAuthSilentCallback())
-                        .build();
-
                 /*
                  * Performs acquireToken without interrupting the user.
                  *
                  * This requires an account object of the account you're obtaining a token for.
                  * (can be obtained via getAccount()).
+                 * An unexpired token acquired earlier is served from memory without going through MSAL.
                  */
-                mMultipleAccountApp.acquireTokenSilentAsync(silentParameters);
+                AccessTokenCache.getInstance().acquireTokenSilentAsync(mMultipleAccountApp,
+                        selectedAccount,
+                        selectedAccount.getAuthority(),
+                        Arrays.asList(getScopes()),
+                        false,
+                        mRequestScope.wrap(getAuthSilentCallback()));
             }
         });
 
@@ -222,18 +263,39 @@ public class MultipleAccountModeFragment extends Fragment {
             return;
         }
 
-        mMultipleAccountApp.getAccounts(new IPublicClientApplication.LoadAccountsCallback() {
+        mMultipleAccountApp.getAccounts(AuthInstrumentation.getInstance().wrap(mRequestScope.wrap(new IPublicClientApplication.LoadAccountsCallback() {
             @Override
             public void onTaskCompleted(final List<IAccount> result) {
                 // You can use the account data to update your UI or your app database.
                 accountList = result;
                 updateUI(accountList);
+
+                if (WARM_UP_TOKENS_ON_LOAD) {
+                    warmUpTokens(result);
+                }
             }
 
             @Override
             public void onError(MsalException exception) {
                 displayError(exception);
             }
+        })));
+    }
+
+    /**
+     * Acquires a token for every account in the background, so that their first call does not wait for one.
+     */
+    private void warmUpTokens(@NonNull final List<IAccount> accounts) {
+        mTokenWarmUp.start(mMultipleAccountApp, accounts, Arrays.asList(getScopes()), new TokenWarmUp.Listener() {
+            @Override
+            public void onWarmUpComplete(@NonNull TokenWarmUp.Report report) {
+                for (final TokenWarmUp.AccountResult result : report.results) {
+                    Log.d(TAG, "Token warm-up for " + result.username + ": " + result.outcome
+                            + " in " + result.durationMs + " ms");
+                }
+                Log.d(TAG, "Token warm-up of " + report.results.size() + " accounts took "
+                        + report.wallTimeMs + " ms");
+            }
         });
     }
 
@@ -318,16 +380,22 @@ public class MultipleAccountModeFragment extends Fragment {
      * https://docs.microsoft.com/en-us/graph/deployments#microsoft-graph-and-graph-explorer-service-root-endpoints
      */
     private void callGraphAPI(final IAuthenticationResult authenticationResult) {
+        loadPhoto(authenticationResult);
+
+        final String graphResourceUrl = graphResourceTextView.getText().toString();
         MSGraphRequestWrapper.callGraphAPIUsingVolley(
-                getContext(),
-                graphResourceTextView.getText().toString(),
+                mRequestScope,
+                authenticationResult.getAccount().getId(),
+                authenticationResult.getTenantId(),
+                graphResourceUrl,
                 authenticationResult.getAccessToken(),
                 new Response.Listener<JSONObject>() {
                     @Override
                     public void onResponse(JSONObject response) {
                         /* Successfully called graph, process data and send to UI */
-                        Log.d(TAG, "Response: " + response.toString());
-                        displayGraphResult(response);
+                        final String graphResponse = MSGraphQuery.decodeResponse(graphResourceUrl, response).toString();
+                        Log.d(TAG, "Response: " + graphResponse);
+                        displayGraphResult(graphResponse);
                     }
                 },
                 new Response.ErrorListener() {
@@ -339,6 +407,58 @@ public class MultipleAccountModeFragment extends Fragment {
                 });
     }
 
+    /**
+     * Loads the profile photo of the account the token belongs to, and shows it in the account list.
+     */
+    private void loadPhoto(final IAuthenticationResult authenticationResult) {
+        MSGraphRequestWrapper.getPhotoLoader(getContext()).load(
+                mRequestScope,
+                authenticationResult.getAccount().getId(),
+                authenticationResult.getTenantId(),
+                authenticationResult.getAccessToken(),
+                getPhotoSizePx(),
+                new MSGraphPhotoLoader.PhotoListener() {
+                    @Override
+                    public void onPhoto(@Nullable Bitmap photo) {
+                        if (photo != null && accountListSpinner.getAdapter() != null) {
+                            ((ArrayAdapter<?>) accountListSpinner.getAdapter()).notifyDataSetChanged();
+                        }
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        Log.d(TAG, "Failed to load profile photo: " + error.toString());
+                    }
+                });
+    }
+
+    private int getPhotoSizePx() {
+        return (int) (PHOTO_SIZE_DP * getResources().getDisplayMetrics().density);
+    }
+
+    /**
+     * Shows the photo of the account next to its name, if it is already in memory.
+     */
+    private void bindPhoto(@NonNull final View view, @NonNull final IAccount account) {
+        if (!(view instanceof TextView)) {
+            return;
+        }
+
+        final int photoSizePx = getPhotoSizePx();
+        final Bitmap photo = MSGraphRequestWrapper.getPhotoLoader(getContext()).getFromMemory(account.getId(), photoSizePx);
+
+        Drawable drawable = null;
+        if (photo != null) {
+            drawable = new BitmapDrawable(getResources(), photo);
+            drawable.setBounds(0, 0, photoSizePx, photoSizePx);
+        }
+
+        final TextView textView = (TextView) view;
+        textView.setCompoundDrawables(drawable, null, null, null);
+        textView.setCompoundDrawablePadding(photoSizePx / 4);
+    }
+
     //
     // Helper methods manage UI updates
     // ================================
@@ -351,8 +471,8 @@ public class MultipleAccountModeFragment extends Fragment {
     /**
      * Display the graph response
      */
-    private void displayGraphResult(@NonNull final JSONObject graphResponse) {
-        logTextView.setText(graphResponse.toString());
+    private void displayGraphResult(@NonNull final String graphResponse) {
+        logTextView.setText(graphResponse);
     }
 
     /**
@@ -377,13 +497,27 @@ public class MultipleAccountModeFragment extends Fragment {
             callGraphApiSilentButton.setEnabled(false);
         }
 
-        final ArrayAdapter<String> dataAdapter = new ArrayAdapter<>(
+        final ArrayAdapter<String> dataAdapter = new ArrayAdapter<String>(
                 getContext(), android.R.layout.simple_spinner_item,
                 new ArrayList<String>() {{
                     for (final IAccount account : result)
                         add(account.getUsername());
                 }}
-        );
+        ) {
+            @Override
+            public View getView(int position, View convertView, ViewGroup parent) {
+                final View view = super.getView(position, convertView, parent);
+                bindPhoto(view, result.get(position));
+                return view;
+            }
+
+            @Override
+            public View getDropDownView(int position, View convertView, ViewGroup parent) {
+                final View view = super.getDropDownView(position, convertView, parent);
+                bindPhoto(view, result.get(position));
+                return view;
+            }
+        };
 
         dataAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         accountListSpinner.setAdapter(dataAdapter);
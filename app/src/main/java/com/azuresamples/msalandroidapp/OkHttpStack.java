@@ -0,0 +1,235 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Header;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.HttpResponse;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * A Volley HTTP stack backed by OkHttp.
+ * <p>
+ * OkHttp negotiates HTTP/2 with graph.microsoft.com, so concurrent MSGraph requests are multiplexed
+ * over a single TLS connection instead of each paying for its own TCP and TLS handshake.
+ * Use it with {@link MSGraphRequestWrapper#setHttpStack(BaseHttpStack)}.
+ * DNS and connect times are reported to {@link TimingHttpStack}; this replaces the event listener of the client.
+ */
+public class OkHttpStack extends BaseHttpStack {
+    private final OkHttpClient mClient;
+
+    public OkHttpStack() {
+        this(new OkHttpClient.Builder()
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .build());
+    }
+
+    /**
+     * @param client client whose connection pool and dispatcher are shared by every request.
+     */
+    public OkHttpStack(@NonNull final OkHttpClient client) {
+        mClient = client;
+    }
+
+    @Override
+    public HttpResponse executeRequest(final Request<?> request,
+                                       final Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        final int timeoutMs = request.getTimeoutMs();
+
+        /* newBuilder() shares the connection pool, so per-request timeouts do not cost a new connection. */
+        final OkHttpClient client = mClient.newBuilder()
+                .connectTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .eventListenerFactory(new ConnectionEventListenerFactory(TimingHttpStack.ConnectionTimer.current()))
+                .build();
+
+        final okhttp3.Request.Builder builder = new okhttp3.Request.Builder()
+                .url(request.getUrl());
+
+        final Map<String, String> headers = request.getHeaders();
+        if (headers != null) {
+            for (final Map.Entry<String, String> header : headers.entrySet()) {
+                builder.header(header.getKey(), header.getValue());
+            }
+        }
+
+        for (final Map.Entry<String, String> header : additionalHeaders.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+
+        setConnectionParametersForRequest(builder, request);
+
+        final Call call = client.newCall(builder.build());
+        final Response response = call.execute();
+
+        final List<Header> responseHeaders = new ArrayList<>();
+        final Headers okHttpHeaders = response.headers();
+        for (int i = 0; i < okHttpHeaders.size(); i++) {
+            responseHeaders.add(new Header(okHttpHeaders.name(i), okHttpHeaders.value(i)));
+        }
+
+        final ResponseBody body = response.body();
+        if (body == null) {
+            return new HttpResponse(response.code(), responseHeaders);
+        }
+
+        return new HttpResponse(response.code(), responseHeaders, (int) body.contentLength(), body.byteStream());
+    }
+
+    private static void setConnectionParametersForRequest(@NonNull final okhttp3.Request.Builder builder,
+                                                          @NonNull final Request<?> request)
+            throws AuthFailureError {
+        switch (request.getMethod()) {
+            case Request.Method.DEPRECATED_GET_OR_POST:
+                final byte[] postBody = request.getBody();
+                if (postBody != null) {
+                    builder.method("POST", createRequestBody(request, postBody));
+                }
+                break;
+
+            case Request.Method.GET:
+                builder.method("GET", null);
+                break;
+
+            case Request.Method.DELETE:
+                builder.method("DELETE", createRequestBody(request, request.getBody()));
+                break;
+
+            case Request.Method.POST:
+                builder.method("POST", createRequestBody(request, request.getBody()));
+                break;
+
+            case Request.Method.PUT:
+                builder.method("PUT", createRequestBody(request, request.getBody()));
+                break;
+
+            case Request.Method.HEAD:
+                builder.method("HEAD", null);
+                break;
+
+            case Request.Method.OPTIONS:
+                builder.method("OPTIONS", null);
+                break;
+
+            case Request.Method.TRACE:
+                builder.method("TRACE", null);
+                break;
+
+            case Request.Method.PATCH:
+                builder.method("PATCH", createRequestBody(request, request.getBody()));
+                break;
+
+            default:
+                throw new IllegalStateException("Unknown method type.");
+        }
+    }
+
+    private static RequestBody createRequestBody(@NonNull final Request<?> request, final byte[] body) {
+        return RequestBody.create(MediaType.parse(request.getBodyContentType()),
+                body != null ? body : new byte[0]);
+    }
+
+    /**
+     * Reports the DNS and connect times of a call to the timer of the request that made it.
+     * OkHttp calls the listener on the thread executing the call.
+     */
+    private static class ConnectionEventListenerFactory implements EventListener.Factory {
+        private final TimingHttpStack.ConnectionTimer mTimer;
+
+        ConnectionEventListenerFactory(final TimingHttpStack.ConnectionTimer timer) {
+            mTimer = timer;
+        }
+
+        @Override
+        public EventListener create(final Call call) {
+            return new EventListener() {
+                private long mDnsStartNanos;
+                private long mConnectStartNanos;
+
+                @Override
+                public void dnsStart(final Call call, final String domainName) {
+                    mDnsStartNanos = System.nanoTime();
+                }
+
+                @Override
+                public void dnsEnd(final Call call, final String domainName, final List<InetAddress> addresses) {
+                    if (mTimer != null) {
+                        mTimer.addDns(System.nanoTime() - mDnsStartNanos);
+                    }
+                }
+
+                @Override
+                public void connectStart(final Call call, final InetSocketAddress address, final Proxy proxy) {
+                    mConnectStartNanos = System.nanoTime();
+                }
+
+                @Override
+                public void connectEnd(final Call call,
+                                       final InetSocketAddress address,
+                                       final Proxy proxy,
+                                       final Protocol protocol) {
+                    if (mTimer != null) {
+                        mTimer.addConnect(System.nanoTime() - mConnectStartNanos);
+                    }
+                }
+
+                @Override
+                public void connectFailed(final Call call,
+                                          final InetSocketAddress address,
+                                          final Proxy proxy,
+                                          final Protocol protocol,
+                                          final IOException e) {
+                    if (mTimer != null) {
+                        mTimer.addConnect(System.nanoTime() - mConnectStartNanos);
+                    }
+                }
+            };
+        }
+    }
+}
@@ -23,6 +23,7 @@
 
 package com.azuresamples.msalandroidapp;
 
+import android.content.Context;
 import android.os.Bundle;
 
 import androidx.annotation.NonNull;
@@ -40,7 +41,6 @@ import android.widget.Toast;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
 import com.microsoft.identity.client.AcquireTokenParameters;
-import com.microsoft.identity.client.AcquireTokenSilentParameters;
 import com.microsoft.identity.client.AuthenticationCallback;
 import com.microsoft.identity.client.IAccount;
 import com.microsoft.identity.client.IAuthenticationResult;
@@ -84,12 +84,16 @@ public class SingleAccountModeFragment extends Fragment {
     private ISingleAccountPublicClientApplication mSingleAccountApp;
     private IAccount mAccount;
 
+    /* Token and Graph work outstanding for this fragment's view */
+    private MSGraphRequestScope mRequestScope;
+
     @Override
     public View onCreateView(LayoutInflater inflater,
                              ViewGroup container,
                              Bundle savedInstanceState) {
         // Inflate the layout for this fragment
         final View view = inflater.inflate(R.layout.fragment_single_account_mode, container, false);
+        mRequestScope = new MSGraphRequestScope(getContext());
         initializeUI(view);
 
         // Creates a PublicClientApplication object with res/raw/auth_config_single_account.json
@@ -115,6 +119,13 @@ public class SingleAccountModeFragment extends Fragment {
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        /* Nobody will see the result of outstanding work, and its callbacks must not touch the destroyed view. */
+        mRequestScope.close();
+        super.onDestroyView();
+    }
+
     /**
      * Initializes UI variables and callbacks.
      */
@@ -129,7 +140,10 @@ public class SingleAccountModeFragment extends Fragment {
         currentUserTextView = view.findViewById(R.id.current_user);
         deviceModeTextView = view.findViewById(R.id.device_mode);
 
-        final String defaultGraphResourceUrl = MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT + "v1.0/me";
+        /* Only download the profile properties the sample shows. */
+        final String defaultGraphResourceUrl = new MSGraphQuery("v1.0/me")
+                .select("id", "displayName", "mail", "userPrincipalName")
+                .build();
         graphResourceTextView.setText(defaultGraphResourceUrl);
 
         signInButton.setOnClickListener(new View.OnClickListener() {
@@ -141,7 +155,8 @@ public class SingleAccountModeFragment extends Fragment {
                         .withActivity(getActivity())
                         .withLoginHint(null)
                         .withScopes(Arrays.asList(getScopes()))
-                        .withCallback(getAuthInteractiveCallback())
+                        .withCallback(AuthInstrumentation.getInstance().wrap(AuthInstrumentation.Operation.SIGN_IN,
+                                mRequestScope.wrap(getAuthInteractiveCallback())))
                         .build();
                 mSingleAccountApp.signIn(signInParameters);
             }
@@ -156,17 +171,35 @@ public class SingleAccountModeFragment extends Fragment {
                 /*
                  * Removes the signed-in account and cached tokens from this app (or device, if the device is in shared mode).
                  */
+                /* The callback may run once the fragment is detached, when getContext() returns null. */
+                final Context appContext = getContext().getApplicationContext();
+                final ISingleAccountPublicClientApplication.SignOutCallback screenCallback =
+                        mRequestScope.wrap(new ISingleAccountPublicClientApplication.SignOutCallback() {
+                            @Override
+                            public void onSignOut() {
+                                mAccount = null;
+                                updateUI();
+                                showToastOnSignOut();
+                            }
+
+                            @Override
+                            public void onError(@NonNull MsalException exception) {
+                                displayError(exception);
+                            }
+                        });
                 mSingleAccountApp.signOut(new ISingleAccountPublicClientApplication.SignOutCallback() {
                     @Override
                     public void onSignOut() {
-                        mAccount = null;
-                        updateUI();
-                        showToastOnSignOut();
+                        /* Drop the signed-out user's cached MSGraph responses and access tokens, even off screen. */
+                        MSGraphRequestWrapper.clearCache(appContext);
+                        AccessTokenCache.getInstance().clear();
+
+                        screenCallback.onSignOut();
                     }
 
                     @Override
                     public void onError(@NonNull MsalException exception) {
-                        displayError(exception);
+                        screenCallback.onError(exception);
                     }
                 });
             }
@@ -181,7 +214,8 @@ public class SingleAccountModeFragment extends Fragment {
                 final AcquireTokenParameters parameters = new AcquireTokenParameters.Builder()
                         .startAuthorizationFromActivity(getActivity())
                         .withScopes(Arrays.asList(getScopes()))
-                        .withCallback(getAuthInteractiveCallback())
+                        .withCallback(AuthInstrumentation.getInstance().wrap(AuthInstrumentation.Operation.ACQUIRE_TOKEN,
+                                mRequestScope.wrap(getAuthInteractiveCallback())))
                         .forAccount(mAccount)
                         .build();
                 /*
@@ -204,17 +238,17 @@ public class SingleAccountModeFragment extends Fragment {
                     return;
                 }
 
-                final AcquireTokenSilentParameters silentParameters = new AcquireTokenSilentParameters.Builder()
-                        .fromAuthority(mAccount.getAuthority())
-                        .forAccount(mAccount)
-                        .withScopes(Arrays.asList(getScopes()))
-                        .withCallback(getAuthSilentCallback())
-                        .build();
                 /*
                  * Once you've signed the user in,
                  * you can perform acquireTokenSilent to obtain resources without interrupting the user.
+                 * An unexpired token acquired earlier is served from memory without going through MSAL.
                  */
-                mSingleAccountApp.acquireTokenSilentAsync(silentParameters);
+                AccessTokenCache.getInstance().acquireTokenSilentAsync(mSingleAccountApp,
+                        mAccount,
+                        mAccount.getAuthority(),
+                        Arrays.asList(getScopes()),
+                        false,
+                        mRequestScope.wrap(getAuthSilentCallback()));
             }
         });
 
@@ -249,7 +283,7 @@ public class SingleAccountModeFragment extends Fragment {
             return;
         }
 
-        mSingleAccountApp.getCurrentAccountAsync(new ISingleAccountPublicClientApplication.CurrentAccountCallback() {
+        mSingleAccountApp.getCurrentAccountAsync(AuthInstrumentation.getInstance().wrap(new ISingleAccountPublicClientApplication.CurrentAccountCallback() {
             @Override
             public void onAccountLoaded(@Nullable IAccount activeAccount) {
                 // You can use the account data to update your UI or your app database.
@@ -259,6 +293,10 @@ public class SingleAccountModeFragment extends Fragment {
 
             @Override
             public void onAccountChanged(@Nullable IAccount priorAccount, @Nullable IAccount currentAccount) {
+                if (priorAccount != null) {
+                    AccessTokenCache.getInstance().remove(priorAccount.getId());
+                }
+
                 if (currentAccount == null) {
                     // Perform a cleanup task as the signed-in account changed.
                     showToastOnSignOut();
@@ -269,7 +307,7 @@ public class SingleAccountModeFragment extends Fragment {
             public void onError(@NonNull MsalException exception) {
                 displayError(exception);
             }
-        });
+        }));
     }
 
     /**
@@ -350,16 +388,20 @@ public class SingleAccountModeFragment extends Fragment {
      * Make an HTTP request to obtain MSGraph data
      */
     private void callGraphAPI(final IAuthenticationResult authenticationResult) {
+        final String graphResourceUrl = graphResourceTextView.getText().toString();
         MSGraphRequestWrapper.callGraphAPIUsingVolley(
-                getContext(),
-                graphResourceTextView.getText().toString(),
+                mRequestScope,
+                authenticationResult.getAccount().getId(),
+                authenticationResult.getTenantId(),
+                graphResourceUrl,
                 authenticationResult.getAccessToken(),
                 new Response.Listener<JSONObject>() {
                     @Override
                     public void onResponse(JSONObject response) {
                         /* Successfully called graph, process data and send to UI */
-                        Log.d(TAG, "Response: " + response.toString());
-                        displayGraphResult(response);
+                        final String graphResponse = MSGraphQuery.decodeResponse(graphResourceUrl, response).toString();
+                        Log.d(TAG, "Response: " + graphResponse);
+                        displayGraphResult(graphResponse);
                     }
                 },
                 new Response.ErrorListener() {
@@ -383,8 +425,8 @@ public class SingleAccountModeFragment extends Fragment {
     /**
      * Display the graph response
      */
-    private void displayGraphResult(@NonNull final JSONObject graphResponse) {
-        logTextView.setText(graphResponse.toString());
+    private void displayGraphResult(@NonNull final String graphResponse) {
+        logTextView.setText(graphResponse);
     }
 
     /**
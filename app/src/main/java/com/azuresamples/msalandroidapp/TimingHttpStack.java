@@ -0,0 +1,153 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.HttpResponse;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Records how long each phase of a MSGraph call takes in {@link MSGraphCallMetrics}.
+ * <p>
+ * The stack below it can report DNS and connect times through {@link ConnectionTimer}, as
+ * {@link OkHttpStack} does; they are then left out of the time to first byte.
+ */
+public class TimingHttpStack extends BaseHttpStack {
+    private final BaseHttpStack mHttpStack;
+    private final MSGraphCallMetrics mCallMetrics;
+
+    /**
+     * @param httpStack   stack sending the requests.
+     * @param callMetrics registry receiving the durations of every call.
+     */
+    public TimingHttpStack(@NonNull final BaseHttpStack httpStack,
+                           @NonNull final MSGraphCallMetrics callMetrics) {
+        mHttpStack = httpStack;
+        mCallMetrics = callMetrics;
+    }
+
+    @Override
+    public HttpResponse executeRequest(final Request<?> request,
+                                       final Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        final String url = request.getUrl();
+        final long startNanos = System.nanoTime();
+
+        if (request instanceof MSGraphJsonObjectRequest) {
+            mCallMetrics.record(url, MSGraphCallMetrics.Phase.QUEUE_WAIT,
+                    startNanos - ((MSGraphJsonObjectRequest) request).getCreatedAtNanos());
+        }
+
+        final ConnectionTimer timer = new ConnectionTimer();
+        final HttpResponse response;
+        ConnectionTimer.sCurrent.set(timer);
+        try {
+            response = mHttpStack.executeRequest(request, additionalHeaders);
+        } finally {
+            ConnectionTimer.sCurrent.remove();
+        }
+
+        final long headersNanos = System.nanoTime();
+        if (timer.mDnsNanos > 0) {
+            mCallMetrics.record(url, MSGraphCallMetrics.Phase.DNS, timer.mDnsNanos);
+        }
+        if (timer.mConnectNanos > 0) {
+            mCallMetrics.record(url, MSGraphCallMetrics.Phase.CONNECT, timer.mConnectNanos);
+        }
+        mCallMetrics.record(url, MSGraphCallMetrics.Phase.TIME_TO_FIRST_BYTE,
+                headersNanos - startNanos - timer.mDnsNanos - timer.mConnectNanos);
+
+        final InputStream content = response.getContent();
+        if (content == null) {
+            return response;
+        }
+
+        return new HttpResponse(response.getStatusCode(), response.getHeaders(), response.getContentLength(),
+                new DownloadTimingStream(content, url, headersNanos));
+    }
+
+    /**
+     * Collects the DNS and connect times of the request being sent on the current thread.
+     * Set while the stack below executes a request, so it can report phases only it can observe.
+     * Phases must be reported on the thread executing the request.
+     */
+    static class ConnectionTimer {
+        private static final ThreadLocal<ConnectionTimer> sCurrent = new ThreadLocal<>();
+
+        private long mDnsNanos;
+        private long mConnectNanos;
+
+        /**
+         * Returns the timer of the request being sent on the current thread, or null if it is not timed.
+         */
+        @Nullable
+        static ConnectionTimer current() {
+            return sCurrent.get();
+        }
+
+        void addDns(final long durationNanos) {
+            mDnsNanos += durationNanos;
+        }
+
+        void addConnect(final long durationNanos) {
+            mConnectNanos += durationNanos;
+        }
+    }
+
+    /**
+     * The response body handed to Volley. Records the download time once closed.
+     */
+    private class DownloadTimingStream extends FilterInputStream {
+        private final String mUrl;
+        private final long mHeadersNanos;
+        private boolean mClosed;
+
+        DownloadTimingStream(@NonNull final InputStream in, @NonNull final String url, final long headersNanos) {
+            super(in);
+            mUrl = url;
+            mHeadersNanos = headersNanos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!mClosed) {
+                    mClosed = true;
+                    mCallMetrics.record(mUrl, MSGraphCallMetrics.Phase.DOWNLOAD, System.nanoTime() - mHeadersNanos);
+                }
+            }
+        }
+    }
+}
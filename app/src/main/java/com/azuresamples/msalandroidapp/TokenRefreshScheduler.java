@@ -0,0 +1,244 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import android.os.Handler;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.microsoft.identity.client.IAccount;
+import com.microsoft.identity.client.IAuthenticationResult;
+import com.microsoft.identity.client.IPublicClientApplication;
+import com.microsoft.identity.client.SilentAuthenticationCallback;
+import com.microsoft.identity.client.exception.MsalException;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renews recently used access tokens in the background shortly before {@link AccessTokenCache} stops serving them.
+ * <p>
+ * Each renewal is a silent acquisition with forceRefresh, fired at a random time within a jitter window so
+ * the tokens of several accounts acquired together do not all hit the token endpoint at once. Tokens that
+ * were not used for a while are left to expire, so idle accounts do not cause network traffic.
+ * <p>
+ * A renewal never starts before half of the token's remaining lifetime, nor within a minute: a token policy
+ * may issue tokens that live barely longer than the lead time, and each renewal would otherwise return
+ * another such token and be followed by the next one right away.
+ */
+public class TokenRefreshScheduler {
+    private static final String TAG = TokenRefreshScheduler.class.getSimpleName();
+
+    private static final long DEFAULT_LEAD_TIME_MS = 5 * 60 * 1000;
+    private static final long DEFAULT_MAX_JITTER_MS = 2 * 60 * 1000;
+    private static final long DEFAULT_IDLE_TIMEOUT_MS = 30 * 60 * 1000;
+
+    private static final double MIN_DELAY_FRACTION_OF_LIFETIME = 0.5;
+    private static final long MIN_DELAY_MS = 60 * 1000;
+
+    private final Handler mHandler;
+    private final AccessTokenCache mCache;
+    private final Random mRandom = new Random();
+    private final Map<String, Renewal> mRenewals = new HashMap<>();
+    private final AtomicLong mRefreshCount = new AtomicLong();
+    private final AtomicLong mFailureCount = new AtomicLong();
+
+    private final long mLeadTimeMs;
+    private final long mMaxJitterMs;
+    private final long mIdleTimeoutMs;
+
+    TokenRefreshScheduler(@NonNull final Handler handler, @NonNull final AccessTokenCache cache) {
+        this(handler, cache, DEFAULT_LEAD_TIME_MS, DEFAULT_MAX_JITTER_MS, DEFAULT_IDLE_TIMEOUT_MS);
+    }
+
+    /**
+     * @param leadTimeMs    how long before the cache stops serving a token its renewal starts, at the latest.
+     * @param maxJitterMs   renewals start up to this much earlier, at random.
+     * @param idleTimeoutMs a token not served for this long is not renewed.
+     */
+    TokenRefreshScheduler(@NonNull final Handler handler,
+                          @NonNull final AccessTokenCache cache,
+                          final long leadTimeMs,
+                          final long maxJitterMs,
+                          final long idleTimeoutMs) {
+        mHandler = handler;
+        mCache = cache;
+        mLeadTimeMs = leadTimeMs;
+        mMaxJitterMs = maxJitterMs;
+        mIdleTimeoutMs = idleTimeoutMs;
+    }
+
+    /**
+     * Schedules the renewal of a token that was just acquired.
+     *
+     * @param servedUntilMs time after which the cache no longer serves the token.
+     * @param userInitiated true if a user action asked for the token, which marks it as used.
+     */
+    synchronized void schedule(@NonNull final String key,
+                               @NonNull final IPublicClientApplication application,
+                               @NonNull final IAccount account,
+                               @Nullable final String authority,
+                               @NonNull final List<String> scopes,
+                               final long servedUntilMs,
+                               final boolean userInitiated) {
+        final long now = System.currentTimeMillis();
+
+        long lastUsedMs = now;
+        final Renewal previous = mRenewals.get(key);
+        if (previous != null) {
+            mHandler.removeCallbacks(previous);
+            if (!userInitiated) {
+                lastUsedMs = previous.lastUsedMs;
+            }
+        }
+
+        final Renewal renewal = new Renewal(key, application, account, authority, scopes, lastUsedMs);
+        mRenewals.put(key, renewal);
+
+        final long jitterMs = (long) (mRandom.nextDouble() * mMaxJitterMs);
+        final long minDelayMs = Math.max(MIN_DELAY_MS, (long) ((servedUntilMs - now) * MIN_DELAY_FRACTION_OF_LIFETIME));
+        final long delayMs = Math.max(minDelayMs, servedUntilMs - mLeadTimeMs - jitterMs - now);
+        mHandler.postDelayed(renewal, delayMs);
+    }
+
+    /**
+     * Marks a token as used, so it keeps being renewed.
+     */
+    synchronized void onTokenUsed(@NonNull final String key) {
+        final Renewal renewal = mRenewals.get(key);
+        if (renewal != null) {
+            renewal.lastUsedMs = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Stops renewing the tokens whose key starts with the given prefix.
+     */
+    synchronized void cancel(@NonNull final String keyPrefix) {
+        final Iterator<Renewal> renewals = mRenewals.values().iterator();
+        while (renewals.hasNext()) {
+            final Renewal renewal = renewals.next();
+            if (renewal.key.startsWith(keyPrefix)) {
+                mHandler.removeCallbacks(renewal);
+                renewals.remove();
+            }
+        }
+    }
+
+    /**
+     * Number of tokens renewed in the background.
+     */
+    public long getRefreshCount() {
+        return mRefreshCount.get();
+    }
+
+    /**
+     * Number of background renewals that failed. The token is then renewed by the next user action.
+     */
+    public long getFailureCount() {
+        return mFailureCount.get();
+    }
+
+    /**
+     * Number of tokens currently kept fresh.
+     */
+    public synchronized int getScheduledCount() {
+        return mRenewals.size();
+    }
+
+    private synchronized boolean isStillWanted(@NonNull final Renewal renewal) {
+        if (mRenewals.get(renewal.key) != renewal) {
+            return false;
+        }
+
+        if (System.currentTimeMillis() - renewal.lastUsedMs > mIdleTimeoutMs) {
+            Log.d(TAG, "Token unused for a while, letting it expire");
+            mRenewals.remove(renewal.key);
+            return false;
+        }
+
+        return true;
+    }
+
+    private synchronized void forget(@NonNull final Renewal renewal) {
+        if (mRenewals.get(renewal.key) == renewal) {
+            mRenewals.remove(renewal.key);
+        }
+    }
+
+    /**
+     * The renewal of one token, posted to the handler.
+     */
+    private class Renewal implements Runnable {
+        final String key;
+        final IPublicClientApplication application;
+        final IAccount account;
+        final String authority;
+        final List<String> scopes;
+        long lastUsedMs;
+
+        Renewal(@NonNull final String key,
+                @NonNull final IPublicClientApplication application,
+                @NonNull final IAccount account,
+                @Nullable final String authority,
+                @NonNull final List<String> scopes,
+                final long lastUsedMs) {
+            this.key = key;
+            this.application = application;
+            this.account = account;
+            this.authority = authority;
+            this.scopes = scopes;
+            this.lastUsedMs = lastUsedMs;
+        }
+
+        @Override
+        public void run() {
+            if (!isStillWanted(this)) {
+                return;
+            }
+
+            Log.d(TAG, "Renewing token ahead of its expiry");
+            mCache.refresh(application, account, authority, scopes, new SilentAuthenticationCallback() {
+                @Override
+                public void onSuccess(IAuthenticationResult authenticationResult) {
+                    /* The cache reschedules the renewal of the new token. */
+                    mRefreshCount.incrementAndGet();
+                }
+
+                @Override
+                public void onError(MsalException exception) {
+                    Log.d(TAG, "Background token renewal failed: " + exception.toString());
+                    mFailureCount.incrementAndGet();
+                    forget(Renewal.this);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,118 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import androidx.annotation.NonNull;
+
+import com.microsoft.identity.client.IAuthenticationResult;
+import com.microsoft.identity.client.SilentAuthenticationCallback;
+import com.microsoft.identity.client.exception.MsalException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets identical silent token acquisitions that are in flight at the same time share one MSAL call.
+ * <p>
+ * i.e. several Graph calls for the same account starting together redeem the refresh token once, and the
+ * result (or MsalException) is delivered to every caller. Acquisitions are identical when they share the
+ * account, authority, normalized scopes and forceRefresh.
+ */
+public class TokenSingleFlight {
+    private final Map<String, List<SilentAuthenticationCallback>> mInFlight = new HashMap<>();
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mCoalescedCount = new AtomicLong();
+
+    /**
+     * Builds the key of an acquisition from its {@link AccessTokenCache} key.
+     */
+    static String getKey(@NonNull final String cacheKey, final boolean forceRefresh) {
+        return cacheKey + (forceRefresh ? "|force" : "|");
+    }
+
+    /**
+     * Registers the callback of an acquisition.
+     *
+     * @return true if no identical acquisition is in flight, i.e. the caller must start it
+     * with {@link #getCallback(String)}.
+     */
+    synchronized boolean join(@NonNull final String key, @NonNull final SilentAuthenticationCallback callback) {
+        mRequestCount.incrementAndGet();
+
+        List<SilentAuthenticationCallback> callbacks = mInFlight.get(key);
+        final boolean leader = callbacks == null;
+        if (leader) {
+            callbacks = new ArrayList<>();
+            mInFlight.put(key, callbacks);
+        } else {
+            mCoalescedCount.incrementAndGet();
+        }
+
+        callbacks.add(callback);
+        return leader;
+    }
+
+    /**
+     * Returns a callback that delivers the result to every caller waiting on the given key.
+     */
+    SilentAuthenticationCallback getCallback(@NonNull final String key) {
+        return new SilentAuthenticationCallback() {
+            @Override
+            public void onSuccess(IAuthenticationResult authenticationResult) {
+                for (final SilentAuthenticationCallback callback : complete(key)) {
+                    callback.onSuccess(authenticationResult);
+                }
+            }
+
+            @Override
+            public void onError(MsalException exception) {
+                for (final SilentAuthenticationCallback callback : complete(key)) {
+                    callback.onError(exception);
+                }
+            }
+        };
+    }
+
+    /**
+     * Number of acquisitions that reached MSAL or joined one that did.
+     */
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Number of acquisitions served by another identical acquisition's MSAL call.
+     */
+    public long getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    private synchronized List<SilentAuthenticationCallback> complete(@NonNull final String key) {
+        final List<SilentAuthenticationCallback> callbacks = mInFlight.remove(key);
+        return callbacks != null ? callbacks : new ArrayList<SilentAuthenticationCallback>();
+    }
+}
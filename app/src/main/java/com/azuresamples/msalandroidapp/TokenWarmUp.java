@@ -0,0 +1,254 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.microsoft.identity.client.IAccount;
+import com.microsoft.identity.client.IAuthenticationResult;
+import com.microsoft.identity.client.IPublicClientApplication;
+import com.microsoft.identity.client.SilentAuthenticationCallback;
+import com.microsoft.identity.client.exception.MsalException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Silently acquires a token for every signed-in account right after the accounts are loaded, so the first
+ * Graph call of each account finds its token in {@link AccessTokenCache} instead of paying for the acquisition.
+ * <p>
+ * At most a given number of acquisitions run at once, so a long account list does not flood MSAL and the
+ * token endpoint, and the whole warm-up stops once its time budget is spent. Must be used from the main thread.
+ */
+public class TokenWarmUp {
+    public static final int DEFAULT_MAX_CONCURRENCY = 2;
+    public static final long DEFAULT_TIME_BUDGET_MS = 10000;
+
+    public static final String OUTCOME_SUCCESS = "success";
+
+    /**
+     * The acquisition was still running when the time budget ran out. It may still fill the cache.
+     */
+    public static final String OUTCOME_TIMED_OUT = "timed_out";
+
+    /**
+     * The acquisition was not started before the time budget ran out.
+     */
+    public static final String OUTCOME_SKIPPED = "skipped";
+
+    /**
+     * Invoked on the main thread once every account is warmed up or the time budget is spent.
+     */
+    public interface Listener {
+        void onWarmUpComplete(@NonNull Report report);
+    }
+
+    /**
+     * How the warm-up went for one account.
+     */
+    public static class AccountResult {
+        public final String accountId;
+        public final String username;
+
+        /**
+         * One of the OUTCOME constants, or the failure as classified by {@link AuthInstrumentation}.
+         */
+        public final String outcome;
+        public final long durationMs;
+
+        AccountResult(@NonNull final IAccount account, @NonNull final String outcome, final long durationMs) {
+            accountId = account.getId();
+            username = account.getUsername();
+            this.outcome = outcome;
+            this.durationMs = durationMs;
+        }
+    }
+
+    public static class Report {
+        /**
+         * One result per account, in the order the accounts were given.
+         */
+        public final List<AccountResult> results;
+        public final long wallTimeMs;
+
+        Report(@NonNull final List<AccountResult> results, final long wallTimeMs) {
+            this.results = Collections.unmodifiableList(results);
+            this.wallTimeMs = wallTimeMs;
+        }
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final int mMaxConcurrency;
+    private final long mTimeBudgetMs;
+    private Run mRun;
+
+    public TokenWarmUp() {
+        this(DEFAULT_MAX_CONCURRENCY, DEFAULT_TIME_BUDGET_MS);
+    }
+
+    /**
+     * @param maxConcurrency maximum number of acquisitions running at once.
+     * @param timeBudgetMs   time after which no acquisition is started anymore and the report is delivered.
+     */
+    public TokenWarmUp(final int maxConcurrency, final long timeBudgetMs) {
+        mMaxConcurrency = Math.max(1, maxConcurrency);
+        mTimeBudgetMs = timeBudgetMs;
+    }
+
+    /**
+     * Warms up the tokens of the given accounts for the given scopes. A warm-up still running is cancelled.
+     */
+    public void start(@NonNull final IPublicClientApplication application,
+                      @NonNull final List<IAccount> accounts,
+                      @NonNull final List<String> scopes,
+                      @NonNull final Listener listener) {
+        cancel();
+        mRun = new Run(application, accounts, scopes, listener);
+        mRun.begin();
+    }
+
+    /**
+     * Starts no more acquisitions and drops the report, i.e. when the screen goes away.
+     * Acquisitions already running still fill the cache.
+     */
+    public void cancel() {
+        if (mRun != null) {
+            mRun.finish(false);
+            mRun = null;
+        }
+    }
+
+    /**
+     * One warm-up. Also the timeout of its time budget.
+     */
+    private class Run implements Runnable {
+        private final IPublicClientApplication mApplication;
+        private final List<IAccount> mAccounts;
+        private final List<String> mScopes;
+        private final Listener mListener;
+        private final Deque<IAccount> mPending;
+        private final Map<IAccount, Long> mStartNanos = new HashMap<>();
+        private final Map<IAccount, AccountResult> mResults = new HashMap<>();
+        private long mRunStartNanos;
+        private boolean mDone;
+
+        Run(@NonNull final IPublicClientApplication application,
+            @NonNull final List<IAccount> accounts,
+            @NonNull final List<String> scopes,
+            @NonNull final Listener listener) {
+            mApplication = application;
+            mAccounts = new ArrayList<>(accounts);
+            mScopes = scopes;
+            mListener = listener;
+            mPending = new ArrayDeque<>(accounts);
+        }
+
+        void begin() {
+            mRunStartNanos = System.nanoTime();
+            mHandler.postDelayed(this, mTimeBudgetMs);
+            dispatch();
+        }
+
+        /**
+         * Starts acquisitions until the concurrency cap is reached. A token served from the cache completes
+         * right away, so its slot is reused within the same loop.
+         */
+        private void dispatch() {
+            while (!mDone && mStartNanos.size() < mMaxConcurrency && !mPending.isEmpty()) {
+                final IAccount account = mPending.pollFirst();
+                mStartNanos.put(account, System.nanoTime());
+
+                AccessTokenCache.getInstance().warmUp(mApplication, account, account.getAuthority(), mScopes,
+                        new SilentAuthenticationCallback() {
+                            @Override
+                            public void onSuccess(IAuthenticationResult authenticationResult) {
+                                complete(account, OUTCOME_SUCCESS);
+                            }
+
+                            @Override
+                            public void onError(MsalException exception) {
+                                complete(account, AuthInstrumentation.getOutcome(exception));
+                            }
+                        });
+            }
+
+            if (!mDone && mStartNanos.isEmpty() && mPending.isEmpty()) {
+                finish(true);
+            }
+        }
+
+        private void complete(@NonNull final IAccount account, @NonNull final String outcome) {
+            final Long startNanos = mStartNanos.remove(account);
+            if (mDone || startNanos == null) {
+                return;
+            }
+
+            mResults.put(account, new AccountResult(account, outcome, (System.nanoTime() - startNanos) / 1000000));
+            dispatch();
+        }
+
+        /**
+         * The time budget is spent.
+         */
+        @Override
+        public void run() {
+            finish(true);
+        }
+
+        void finish(final boolean deliver) {
+            if (mDone) {
+                return;
+            }
+
+            mDone = true;
+            mHandler.removeCallbacks(this);
+            if (!deliver) {
+                return;
+            }
+
+            final long now = System.nanoTime();
+            final List<AccountResult> results = new ArrayList<>();
+            for (final IAccount account : mAccounts) {
+                AccountResult result = mResults.get(account);
+                if (result == null) {
+                    final Long startNanos = mStartNanos.get(account);
+                    result = startNanos != null
+                            ? new AccountResult(account, OUTCOME_TIMED_OUT, (now - startNanos) / 1000000)
+                            : new AccountResult(account, OUTCOME_SKIPPED, 0);
+                }
+                results.add(result);
+            }
+
+            mListener.onWarmUpComplete(new Report(results, (now - mRunStartNanos) / 1000000));
+        }
+    }
+}
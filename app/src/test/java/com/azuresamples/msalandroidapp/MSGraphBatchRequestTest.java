@@ -0,0 +1,269 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.azuresamples.msalandroidapp;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HurlStack;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.ACCESS_TOKEN;
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.ACCOUNT_ID;
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.TENANT_ID;
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sends {@link MSGraphBatchRequest}s to the $batch endpoint of {@link MSGraphStandInStack}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MSGraphBatchRequestTest {
+    private static final String BATCH_PATH = "v1.0/$batch";
+
+    private Context mContext;
+    private MSGraphStandInStack mStandIn;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.getApplication();
+        mStandIn = MSGraphTestSupport.installStandIn();
+    }
+
+    @After
+    public void tearDown() {
+        MSGraphRequestWrapper.shutdown();
+        MSGraphRequestWrapper.setHttpStack(new HurlStack());
+    }
+
+    @Test
+    public void dashboardCostsOneRequest() {
+        final Answer me = new Answer();
+        final Answer users = new Answer();
+        final Answer groups = new Answer();
+        final Answer manager = new Answer();
+        final MSGraphBatchRequest batch = new MSGraphBatchRequest()
+                .addGet("me", "/me", me, me)
+                .addGet("users", "/users?$top=5", users, users)
+                .addGet("groups", "/groups?$top=5", groups, groups)
+                .addGet("manager", "/me/manager", manager, manager);
+
+        MSGraphRequestWrapper.callGraphBatchUsingVolley(mContext, batch, ACCESS_TOKEN);
+        awaitAll(me, users, groups, manager);
+
+        assertEquals(1, mStandIn.getRequestCount(BATCH_PATH));
+        assertEquals(0, mStandIn.getRequestCount("v1.0/me"));
+        assertEquals("Adele Vance", me.response.get().optString("displayName"));
+        assertEquals(5, users.response.get().optJSONArray("value").length());
+        assertEquals("Group 0", groups.response.get().optJSONArray("value").optJSONObject(0).optString("displayName"));
+
+        /* The stand-in does not serve /me/manager: only that sub-request fails. */
+        assertNull(me.error.get());
+        assertEquals(404, manager.error.get().networkResponse.statusCode);
+    }
+
+    @Test
+    public void dependentRequestFailsWithItsDependency() {
+        final Answer manager = new Answer();
+        final Answer me = new Answer();
+        final MSGraphBatchRequest batch = new MSGraphBatchRequest()
+                .addGet("manager", "/me/manager", manager, manager)
+                .add("me", "GET", "/me", null, Collections.singletonList("manager"), me, me);
+
+        MSGraphRequestWrapper.callGraphBatchUsingVolley(mContext, batch, ACCESS_TOKEN);
+        awaitAll(manager, me);
+
+        assertEquals(404, manager.error.get().networkResponse.statusCode);
+        assertEquals(424, me.error.get().networkResponse.statusCode);
+    }
+
+    @Test
+    public void dependsOnIsSent() throws JSONException {
+        final Answer answer = new Answer();
+        final MSGraphBatchRequest batch = new MSGraphBatchRequest()
+                .addGet("1", "/me", answer, answer)
+                .add("2", "POST", "/me/events", new JSONObject().put("subject", "Sync"),
+                        Collections.singletonList("1"), answer, answer);
+
+        final JSONArray requests = batch.toJson().getJSONArray("requests");
+
+        assertEquals(2, requests.length());
+        assertEquals("1", requests.getJSONObject(1).getJSONArray("dependsOn").getString(0));
+        assertEquals("application/json", requests.getJSONObject(1).getJSONObject("headers").getString("Content-Type"));
+        assertEquals("Sync", requests.getJSONObject(1).getJSONObject("body").getString("subject"));
+    }
+
+    @Test
+    public void failedBatchIsReportedToEverySubRequestAndNotRetried() {
+        mStandIn.when(BATCH_PATH).respond(503);
+        final Answer me = new Answer();
+        final Answer users = new Answer();
+        final MSGraphBatchRequest batch = new MSGraphBatchRequest()
+                .addGet("me", "/me", me, me)
+                .addGet("users", "/users", users, users);
+
+        MSGraphRequestWrapper.callGraphBatchUsingVolley(mContext, batch, ACCESS_TOKEN);
+        awaitAll(me, users);
+
+        assertSame(me.error.get(), users.error.get());
+        assertEquals(503, me.error.get().networkResponse.statusCode);
+        assertEquals(1, me.count.get());
+        assertEquals(1, mStandIn.getRequestCount(BATCH_PATH));
+    }
+
+    @Test
+    public void throttledSubRequestIsSentAgainAfterRetryAfter() {
+        mStandIn.when("v1.0/users").times(1).throttle(2);
+        final Answer me = new Answer();
+        final Answer users = new Answer();
+        final MSGraphBatchRequest batch = new MSGraphBatchRequest()
+                .addGet("me", "/me", me, me)
+                .addGet("users", "/users?$top=5", users, users);
+        final long startMs = SystemClock.elapsedRealtime();
+
+        MSGraphRequestWrapper.callGraphBatchUsingVolley(mContext, ACCOUNT_ID, TENANT_ID, batch, ACCESS_TOKEN);
+        awaitAll(me, users);
+
+        assertNull(me.error.get());
+        assertNull(users.error.get());
+        assertEquals(1, me.count.get());
+        assertEquals(5, users.response.get().optJSONArray("value").length());
+        assertEquals(2, mStandIn.getRequestCount(BATCH_PATH));
+        assertTrue(SystemClock.elapsedRealtime() - startMs >= 2000);
+    }
+
+    @Test
+    public void requestDependingOnThrottledRequestIsSentAgainWithIt() {
+        mStandIn.when("v1.0/users").times(1).throttle(1);
+        final Answer users = new Answer();
+        final Answer me = new Answer();
+        final MSGraphBatchRequest batch = new MSGraphBatchRequest()
+                .addGet("users", "/users?$top=5", users, users)
+                .add("me", "GET", "/me", null, Collections.singletonList("users"), me, me);
+
+        MSGraphRequestWrapper.callGraphBatchUsingVolley(mContext, ACCOUNT_ID, TENANT_ID, batch, ACCESS_TOKEN);
+        awaitAll(users, me);
+
+        assertNull(users.error.get());
+        assertEquals("Adele Vance", me.response.get().optString("displayName"));
+        assertEquals(2, mStandIn.getRequestCount(BATCH_PATH));
+    }
+
+    @Test
+    public void identicalBatchesShareOneRequest() {
+        final Answer first = new Answer();
+        final Answer second = new Answer();
+
+        MSGraphRequestWrapper.callGraphBatchUsingVolley(mContext, ACCOUNT_ID, TENANT_ID,
+                new MSGraphBatchRequest().addGet("me", "/me", first, first), ACCESS_TOKEN);
+        MSGraphRequestWrapper.callGraphBatchUsingVolley(mContext, ACCOUNT_ID, TENANT_ID,
+                new MSGraphBatchRequest().addGet("me", "/me", second, second), ACCESS_TOKEN);
+        awaitAll(first, second);
+
+        assertNull(second.error.get());
+        assertEquals("Adele Vance", second.response.get().optString("displayName"));
+        assertEquals(1, mStandIn.getRequestCount(BATCH_PATH));
+    }
+
+    @Test
+    public void batchOfClosedScopeIsNotAnswered() {
+        final MSGraphRequestScope scope = new MSGraphRequestScope(mContext);
+        final Answer closed = new Answer();
+        final Answer open = new Answer();
+
+        MSGraphRequestWrapper.callGraphBatchUsingVolley(scope, ACCOUNT_ID, TENANT_ID,
+                new MSGraphBatchRequest().addGet("me", "/me", closed, closed), ACCESS_TOKEN);
+        scope.close();
+        MSGraphRequestWrapper.callGraphBatchUsingVolley(mContext, ACCOUNT_ID, TENANT_ID,
+                new MSGraphBatchRequest().addGet("users", "/users?$top=5", open, open), ACCESS_TOKEN);
+        awaitAll(open);
+
+        assertEquals(0, closed.count.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void batchIsLimitedToTwentyRequests() {
+        final Answer answer = new Answer();
+        final MSGraphBatchRequest batch = new MSGraphBatchRequest();
+        for (int i = 0; i <= MSGraphBatchRequest.MAX_REQUESTS; i++) {
+            batch.addGet(String.valueOf(i), "/me", answer, answer);
+        }
+    }
+
+    private static void awaitAll(@NonNull final Answer... answers) {
+        await(new MSGraphTestSupport.Condition() {
+            @Override
+            public boolean isMet() {
+                for (final Answer answer : answers) {
+                    if (answer.count.get() == 0) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Records the answer of one sub-request.
+     */
+    private static class Answer implements Response.Listener<JSONObject>, Response.ErrorListener {
+        final AtomicReference<JSONObject> response = new AtomicReference<>();
+        final AtomicReference<VolleyError> error = new AtomicReference<>();
+        final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void onResponse(final JSONObject response) {
+            this.response.set(response);
+            count.incrementAndGet();
+        }
+
+        @Override
+        public void onErrorResponse(final VolleyError error) {
+            this.error.set(error);
+            count.incrementAndGet();
+        }
+    }
+}
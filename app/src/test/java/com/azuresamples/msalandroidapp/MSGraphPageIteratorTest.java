@@ -0,0 +1,176 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.azuresamples.msalandroidapp;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HurlStack;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.ACCESS_TOKEN;
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.ACCOUNT_ID;
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.TENANT_ID;
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Walks the stand-in's 250 users page by page with {@link MSGraphPageIterator}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MSGraphPageIteratorTest {
+    private static final String USERS_URL = MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT + "v1.0/users";
+
+    private MSGraphStandInStack mStandIn;
+
+    @Before
+    public void setUp() {
+        mStandIn = MSGraphTestSupport.installStandIn();
+    }
+
+    @After
+    public void tearDown() {
+        MSGraphRequestWrapper.shutdown();
+        MSGraphRequestWrapper.setHttpStack(new HurlStack());
+    }
+
+    @Test
+    public void followsNextLinkUntilTheCollectionIsExhausted() {
+        final MSGraphPageIterator iterator = new MSGraphPageIterator(USERS_URL, ACCESS_TOKEN)
+                .setAccount(ACCOUNT_ID, TENANT_ID)
+                .setPageSize(100);
+
+        final List<Integer> pageSizes = new ArrayList<>();
+        final Set<String> ids = new HashSet<>();
+        Page page;
+        do {
+            page = next(iterator);
+            assertNull(page.error);
+            pageSizes.add(page.items.size());
+            for (final JSONObject item : page.items) {
+                assertTrue("Item delivered twice", ids.add(item.optString("id")));
+            }
+        } while (page.hasMorePages);
+
+        assertEquals(3, pageSizes.size());
+        assertEquals(100, (int) pageSizes.get(0));
+        assertEquals(100, (int) pageSizes.get(1));
+        assertEquals(50, (int) pageSizes.get(2));
+        assertEquals(250, ids.size());
+        assertEquals(3, iterator.getPagesFetched());
+        assertEquals(3, mStandIn.getRequestCount("v1.0/users"));
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void stopsAtMaxItems() {
+        final MSGraphPageIterator iterator = new MSGraphPageIterator(USERS_URL, ACCESS_TOKEN)
+                .setPageSize(100)
+                .setPrefetchDepth(2)
+                .setMaxItems(120);
+
+        final Page first = next(iterator);
+        final Page second = next(iterator);
+
+        assertEquals(100, first.items.size());
+        assertTrue(first.hasMorePages);
+        assertEquals(20, second.items.size());
+        assertFalse(second.hasMorePages);
+        assertEquals(2, mStandIn.getRequestCount("v1.0/users"));
+    }
+
+    @Test
+    public void failedPageIsRetriedWithoutDuplicates() {
+        mStandIn.when("v1.0/users").times(1).respond(503);
+        final MSGraphPageIterator iterator = new MSGraphPageIterator(USERS_URL, ACCESS_TOKEN)
+                .setPageSize(100)
+                .setPrefetchDepth(0);
+
+        final Page page = next(iterator);
+
+        assertNull(page.error);
+        assertEquals(100, page.items.size());
+        assertEquals(2, mStandIn.getRequestCount("v1.0/users"));
+    }
+
+    @Test
+    public void pageSizeReplacesAnExistingTop() {
+        assertEquals(USERS_URL + "?$select=id&$top=50",
+                MSGraphPageIterator.withPageSize(USERS_URL + "?$top=999&$select=id", 50));
+        assertEquals(USERS_URL + "?$select=id&$top=50",
+                MSGraphPageIterator.withPageSize(USERS_URL + "?%24top=999&$select=id", 50));
+        assertEquals(USERS_URL + "?$top=50", MSGraphPageIterator.withPageSize(USERS_URL, 50));
+    }
+
+    private static Page next(@NonNull final MSGraphPageIterator iterator) {
+        final Page page = new Page();
+        iterator.next(page, page);
+        await(new MSGraphTestSupport.Condition() {
+            @Override
+            public boolean isMet() {
+                return page.delivered;
+            }
+        });
+        return page;
+    }
+
+    /**
+     * Records one page, delivered on the main thread.
+     */
+    private static class Page implements MSGraphPageIterator.PageListener, Response.ErrorListener {
+        List<JSONObject> items;
+        boolean hasMorePages;
+        VolleyError error;
+        boolean delivered;
+
+        @Override
+        public void onPage(@NonNull final List<JSONObject> items, final boolean hasMorePages) {
+            this.items = items;
+            this.hasMorePages = hasMorePages;
+            delivered = true;
+        }
+
+        @Override
+        public void onErrorResponse(final VolleyError error) {
+            this.error = error;
+            delivered = true;
+        }
+    }
+}
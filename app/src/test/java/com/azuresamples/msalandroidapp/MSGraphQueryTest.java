@@ -0,0 +1,174 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.azuresamples.msalandroidapp;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HurlStack;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.ACCESS_TOKEN;
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how many fewer bytes {@link MSGraphQuery} projections download from {@link MSGraphStandInStack},
+ * and checks that the decoder gives the screens the properties they asked for.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MSGraphQueryTest {
+    private static final String ME_URL = MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT + "v1.0/me";
+    private static final String USERS_URL = MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT + "v1.0/users";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.getApplication();
+        MSGraphTestSupport.installStandIn();
+        MSGraphRequestWrapper.getTransferStats().reset();
+    }
+
+    @After
+    public void tearDown() {
+        MSGraphRequestWrapper.shutdown();
+        MSGraphRequestWrapper.setHttpStack(new HurlStack());
+    }
+
+    @Test
+    public void projectedProfileDownloadsLessThanHalf() {
+        final MSGraphQuery query = new MSGraphQuery(ME_URL).select("displayName", "mail");
+
+        final long fullBytes = measureDecodedBytes(ME_URL);
+        final long projectedBytes = measureDecodedBytes(query.build());
+
+        assertTrue("Projected " + projectedBytes + " bytes of " + fullBytes, projectedBytes * 2 < fullBytes);
+    }
+
+    @Test
+    public void projectedPageDownloadsLessThanHalf() {
+        final MSGraphQuery query = new MSGraphQuery(USERS_URL).select("id", "displayName").top(100);
+
+        final long fullBytes = measureDecodedBytes(new MSGraphQuery(USERS_URL).top(100).build());
+        final long projectedBytes = measureDecodedBytes(query.build());
+
+        assertTrue("Projected " + projectedBytes + " bytes of " + fullBytes, projectedBytes * 2 < fullBytes);
+    }
+
+    @Test
+    public void projectionKeepsTheSelectedProperties() {
+        final MSGraphQuery query = new MSGraphQuery(ME_URL).select("displayName", "mail");
+
+        final MSGraphProjection me = query.decode(get(query.build()));
+
+        assertEquals(2, me.getProperties().size());
+        assertEquals("Adele Vance", me.getString("displayName"));
+        assertEquals("adele@contoso.com", me.getString("mail"));
+        assertFalse(me.has("jobTitle"));
+    }
+
+    @Test
+    public void collectionIsDecodedPerItem() {
+        final MSGraphQuery query = new MSGraphQuery(USERS_URL).select("id", "displayName").top(10);
+
+        final List<MSGraphProjection> users = query.decodeCollection(get(query.build()));
+
+        assertEquals(10, users.size());
+        assertEquals("User 0", users.get(0).getString("displayName"));
+        assertFalse(users.get(0).has("userPrincipalName"));
+    }
+
+    @Test
+    public void responseOfATypedUrlIsDecodedWithItsQuery() throws Exception {
+        final String url = ME_URL + "?$select=givenName,surname";
+
+        final JSONObject decoded = MSGraphQuery.decodeResponse(url, get(url));
+
+        assertEquals(2, decoded.length());
+        assertEquals("Adele", decoded.getString("givenName"));
+        assertFalse(decoded.has("@odata.context"));
+    }
+
+    /**
+     * Returns the bytes of the decoded response body, as counted by {@link MSGraphTransferStats}.
+     */
+    private long measureDecodedBytes(@NonNull final String url) {
+        MSGraphRequestWrapper.getTransferStats().reset();
+        get(url);
+
+        long decodedBytes = 0;
+        for (final MSGraphTransferStats.Entry entry : MSGraphRequestWrapper.getTransferStats().getSnapshot()) {
+            decodedBytes += entry.decodedBytes;
+        }
+
+        assertTrue(decodedBytes > 0);
+        return decodedBytes;
+    }
+
+    private JSONObject get(@NonNull final String url) {
+        final AtomicReference<JSONObject> response = new AtomicReference<>();
+        final AtomicReference<VolleyError> error = new AtomicReference<>();
+        MSGraphRequestWrapper.callGraphAPIUsingVolley(mContext, url, ACCESS_TOKEN,
+                new Response.Listener<JSONObject>() {
+                    @Override
+                    public void onResponse(JSONObject result) {
+                        response.set(result);
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError result) {
+                        error.set(result);
+                    }
+                });
+
+        await(new MSGraphTestSupport.Condition() {
+            @Override
+            public boolean isMet() {
+                return response.get() != null || error.get() != null;
+            }
+        });
+
+        assertNull(error.get());
+        return response.get();
+    }
+}
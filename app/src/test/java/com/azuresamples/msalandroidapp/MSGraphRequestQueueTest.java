@@ -0,0 +1,167 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.azuresamples.msalandroidapp;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HurlStack;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.ACCESS_TOKEN;
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that every Graph call shares one request queue, so the number of threads does not grow with the number of calls.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MSGraphRequestQueueTest {
+    private static final String ME_URL = MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT + "v1.0/me";
+    private static final String USERS_URL = MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT + "v1.0/users";
+
+    private static final int CALL_COUNT = 2000;
+    private static final int STREAM_COUNT = 200;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.getApplication();
+        MSGraphTestSupport.installStandIn();
+    }
+
+    @After
+    public void tearDown() {
+        MSGraphRequestWrapper.shutdown();
+        MSGraphRequestWrapper.setHttpStack(new HurlStack());
+    }
+
+    @Test
+    public void queueIsSharedUntilShutdown() {
+        final RequestQueue queue = MSGraphRequestWrapper.getRequestQueue(mContext);
+        assertSame(queue, MSGraphRequestWrapper.getRequestQueue(mContext));
+
+        MSGraphRequestWrapper.shutdown();
+        assertNotSame(queue, MSGraphRequestWrapper.getRequestQueue(mContext));
+    }
+
+    @Test
+    public void threadCountStaysFlatAfterThousandsOfCalls() {
+        final int threadsBeforeClient = Thread.activeCount();
+
+        /* The first calls start the dispatcher threads and the IO pool. */
+        final Answers warmUp = new Answers();
+        call(warmUp);
+        stream(warmUp);
+        awaitAnswers(warmUp, 2);
+        final int threadsAfterWarmUp = Thread.activeCount();
+
+        final Answers answers = new Answers();
+        for (int i = 0; i < CALL_COUNT; i++) {
+            call(answers);
+        }
+        for (int i = 0; i < STREAM_COUNT; i++) {
+            stream(answers);
+        }
+        awaitAnswers(answers, CALL_COUNT + STREAM_COUNT);
+
+        assertEquals(0, answers.errors.get());
+        assertTrue("Threads grew from " + threadsAfterWarmUp + " to " + Thread.activeCount(),
+                Thread.activeCount() <= threadsAfterWarmUp);
+
+        /* Shutting down stops the dispatcher threads and the IO pool. */
+        MSGraphRequestWrapper.shutdown();
+        await(new MSGraphTestSupport.Condition() {
+            @Override
+            public boolean isMet() {
+                return Thread.activeCount() <= threadsBeforeClient;
+            }
+        });
+    }
+
+    private void call(@NonNull final Answers answers) {
+        MSGraphRequestWrapper.callGraphAPIUsingVolley(mContext, ME_URL, ACCESS_TOKEN, answers, answers);
+    }
+
+    private void stream(@NonNull final Answers answers) {
+        MSGraphRequestWrapper.streamGraphCollection(USERS_URL, ACCESS_TOKEN,
+                new MSGraphStreamingRequest.ItemListener() {
+                    @Override
+                    public void onItem(@NonNull JSONObject item) {
+                    }
+                },
+                new MSGraphStreamingRequest.CompletionListener() {
+                    @Override
+                    public void onComplete(@NonNull MSGraphStreamingRequest.Result result) {
+                        answers.responses.incrementAndGet();
+                    }
+                },
+                answers);
+    }
+
+    private static void awaitAnswers(@NonNull final Answers answers, final int count) {
+        await(new MSGraphTestSupport.Condition() {
+            @Override
+            public boolean isMet() {
+                return answers.responses.get() + answers.errors.get() >= count;
+            }
+        });
+    }
+
+    /**
+     * Counts the answers of many calls. Streamed calls are answered on the IO pool.
+     */
+    private static class Answers implements Response.Listener<JSONObject>, Response.ErrorListener {
+        final AtomicInteger responses = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+
+        @Override
+        public void onResponse(final JSONObject response) {
+            responses.incrementAndGet();
+        }
+
+        @Override
+        public void onErrorResponse(final VolleyError error) {
+            errors.incrementAndGet();
+        }
+    }
+}
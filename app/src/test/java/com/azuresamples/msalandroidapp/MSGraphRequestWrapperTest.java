@@ -0,0 +1,377 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.azuresamples.msalandroidapp;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.Cache;
+import com.android.volley.Header;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HurlStack;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.ACCESS_TOKEN;
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.ACCOUNT_ID;
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.TENANT_ID;
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Exercises the ETag revalidation, throttling and retries of {@link MSGraphRequestWrapper} and {@link MSGraphPhotoLoader}
+ * against {@link MSGraphStandInStack}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MSGraphRequestWrapperTest {
+    private static final String ME_URL = MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT + "v1.0/me";
+    private static final String USERS_URL = MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT + "v1.0/users";
+    private static final int PHOTO_SIZE_PX = 48;
+    private static final String PHOTO_PATH = "v1.0/me/photos/48x48/$value";
+
+    private Context mContext;
+    private MSGraphStandInStack mStandIn;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.getApplication();
+        mStandIn = MSGraphTestSupport.installStandIn();
+        MSGraphRequestWrapper.getPhotoLoader(mContext).remove(ACCOUNT_ID);
+    }
+
+    @After
+    public void tearDown() {
+        MSGraphRequestWrapper.shutdown();
+        MSGraphRequestWrapper.setHttpStack(new HurlStack());
+    }
+
+    @Test
+    public void unchangedResourceIsRevalidatedWithItsETag() {
+        final Answer first = callMe();
+        await(first.isAnswered());
+        final Answer second = callMe();
+        await(second.isAnswered());
+
+        assertEquals(2, mStandIn.getRequestCount("v1.0/me"));
+        assertEquals(1, mStandIn.getResponseCount("v1.0/me", 200));
+        assertEquals(1, mStandIn.getResponseCount("v1.0/me", 304));
+        assertNull(second.error.get());
+        assertEquals(first.response.get().toString(), second.response.get().toString());
+    }
+
+    @Test
+    public void revalidatingEntryIsOnlyKeptWithoutNoStore() {
+        final byte[] body = "{}".getBytes();
+        final NetworkResponse noCache = new NetworkResponse(200, body, false, 0, Arrays.asList(
+                new Header("Cache-Control", "no-cache"), new Header("ETag", "\"me-1\"")));
+        final NetworkResponse noStore = new NetworkResponse(200, body, false, 0, Arrays.asList(
+                new Header("Cache-Control", "private, no-store"), new Header("ETag", "\"me-1\"")));
+
+        final Cache.Entry entry = MSGraphJsonObjectRequest.parseRevalidatingCacheHeaders(noCache);
+        assertNotNull(entry);
+        assertEquals("\"me-1\"", entry.etag);
+        assertEquals(0, entry.ttl);
+        assertNull(MSGraphJsonObjectRequest.parseRevalidatingCacheHeaders(noStore));
+    }
+
+    @Test
+    public void throttledCallIsSentAgainAfterRetryAfter() {
+        mStandIn.when("v1.0/me").times(1).throttle(2);
+        final long startMs = SystemClock.elapsedRealtime();
+
+        final Answer answer = callMe();
+        await(answer.isAnswered());
+
+        assertNull(answer.error.get());
+        assertEquals(2, mStandIn.getRequestCount("v1.0/me"));
+        assertEquals(1, mStandIn.getResponseCount("v1.0/me", 429));
+        assertTrue(SystemClock.elapsedRealtime() - startMs >= 2000);
+    }
+
+    @Test
+    public void throttlingHoldsBackOtherCalls() {
+        mStandIn.when("v1.0/me").times(1).throttle(2);
+        callMe();
+        await(new MSGraphTestSupport.Condition() {
+            @Override
+            public boolean isMet() {
+                return MSGraphRequestWrapper.getRetryPolicy().getThrottleDelayMs() > 0;
+            }
+        });
+
+        final long throttleDelayMs = MSGraphRequestWrapper.getRetryPolicy().getThrottleDelayMs();
+        final long startMs = SystemClock.elapsedRealtime();
+        final Answer users = call(USERS_URL);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(0, mStandIn.getRequestCount("v1.0/users"));
+
+        await(users.isAnswered());
+        assertNull(users.error.get());
+        assertTrue(SystemClock.elapsedRealtime() - startMs >= throttleDelayMs);
+    }
+
+    @Test
+    public void unavailableServiceIsRetried() {
+        mStandIn.when("v1.0/me").times(2).respond(503);
+
+        final Answer answer = callMe();
+        await(answer.isAnswered());
+
+        assertNull(answer.error.get());
+        assertEquals(3, mStandIn.getRequestCount("v1.0/me"));
+        assertEquals(2, mStandIn.getResponseCount("v1.0/me", 503));
+    }
+
+    @Test
+    public void resetConnectionIsReportedOnce() {
+        mStandIn.when("v1.0/me").resetConnection();
+
+        final Answer answer = callMe();
+        await(answer.isAnswered());
+        shadowOf(Looper.getMainLooper()).idleFor(60, TimeUnit.SECONDS);
+
+        assertNotNull(answer.error.get());
+        assertEquals(1, answer.count.get());
+        assertEquals(1, mStandIn.getRequestCount("v1.0/me"));
+    }
+
+    @Test
+    public void streamedPageIsRetriedBeforeAnyItemIsDelivered() {
+        mStandIn.when("v1.0/users").times(1).respond(503);
+
+        final Stream stream = stream(USERS_URL);
+        await(stream.isAnswered());
+
+        assertNull(stream.error.get());
+        assertEquals(100, stream.items.get());
+        assertEquals(100, stream.result.get().itemCount);
+        assertNotNull(stream.result.get().nextLink);
+        assertEquals(2, mStandIn.getRequestCount("v1.0/users"));
+    }
+
+    @Test
+    public void streamedPageIsNotRetriedOnceItemsWereDelivered() {
+        mStandIn.when("v1.0/users").times(1).truncateBody(0.5);
+
+        final Stream stream = stream(USERS_URL);
+        await(stream.isAnswered());
+
+        assertNotNull(stream.error.get());
+        assertTrue(stream.items.get() > 0);
+        assertTrue(stream.items.get() < 100);
+        assertEquals(1, mStandIn.getRequestCount("v1.0/users"));
+    }
+
+    @Test
+    public void failingItemListenerIsReportedToTheErrorListener() {
+        final Stream stream = new Stream() {
+            @Override
+            public void onItem(@NonNull final JSONObject item) {
+                super.onItem(item);
+                throw new IllegalArgumentException("Unexpected item");
+            }
+        };
+        MSGraphRequestWrapper.streamGraphCollection(USERS_URL, ACCESS_TOKEN, stream, stream, stream);
+        await(stream.isAnswered());
+
+        assertNull(stream.result.get());
+        assertTrue(stream.error.get().getCause() instanceof IllegalArgumentException);
+        assertEquals(1, stream.items.get());
+    }
+
+    @Test
+    public void throttledPhotoIsFetchedAgainAfterRetryAfter() {
+        mStandIn.when(PHOTO_PATH).times(1).throttle(2);
+        final long startMs = SystemClock.elapsedRealtime();
+
+        final Photo photo = loadPhoto(null);
+        await(photo.isAnswered());
+
+        assertNull(photo.error.get());
+        assertEquals(2, mStandIn.getRequestCount(PHOTO_PATH));
+        assertEquals(1, mStandIn.getResponseCount(PHOTO_PATH, 429));
+        assertTrue(SystemClock.elapsedRealtime() - startMs >= 2000);
+    }
+
+    @Test
+    public void photoIsNotDeliveredOnceItsScopeIsClosed() {
+        mStandIn.when(PHOTO_PATH).times(1).throttle(2);
+        final MSGraphRequestScope scope = new MSGraphRequestScope(mContext);
+        final Photo closed = loadPhoto(scope);
+        await(new MSGraphTestSupport.Condition() {
+            @Override
+            public boolean isMet() {
+                return mStandIn.getRequestCount(PHOTO_PATH) == 1;
+            }
+        });
+        scope.close();
+
+        final Photo reloaded = loadPhoto(null);
+        await(reloaded.isAnswered());
+
+        assertNull(reloaded.error.get());
+        assertEquals(0, closed.count.get());
+        assertEquals(2, mStandIn.getRequestCount(PHOTO_PATH));
+    }
+
+    private Answer callMe() {
+        final Answer answer = new Answer();
+        MSGraphRequestWrapper.callGraphAPIUsingVolley(mContext, ACCOUNT_ID, TENANT_ID, ME_URL, ACCESS_TOKEN,
+                answer, answer);
+        return answer;
+    }
+
+    private Answer call(@NonNull final String url) {
+        final Answer answer = new Answer();
+        MSGraphRequestWrapper.callGraphAPIUsingVolley(mContext, url, ACCESS_TOKEN, answer, answer);
+        return answer;
+    }
+
+    private Stream stream(@NonNull final String url) {
+        final Stream stream = new Stream();
+        MSGraphRequestWrapper.streamGraphCollection(url, ACCESS_TOKEN, stream, stream, stream);
+        return stream;
+    }
+
+    private Photo loadPhoto(final MSGraphRequestScope scope) {
+        final Photo photo = new Photo();
+        MSGraphRequestWrapper.getPhotoLoader(mContext).load(scope, ACCOUNT_ID, TENANT_ID, ACCESS_TOKEN, PHOTO_SIZE_PX,
+                photo, photo);
+        return photo;
+    }
+
+    /**
+     * Records the answer of a Graph call, and how many times it was answered.
+     */
+    private static class Answer implements Response.Listener<JSONObject>, Response.ErrorListener {
+        final AtomicReference<JSONObject> response = new AtomicReference<>();
+        final AtomicReference<VolleyError> error = new AtomicReference<>();
+        final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void onResponse(final JSONObject response) {
+            this.response.set(response);
+            count.incrementAndGet();
+        }
+
+        @Override
+        public void onErrorResponse(final VolleyError error) {
+            this.error.set(error);
+            count.incrementAndGet();
+        }
+
+        MSGraphTestSupport.Condition isAnswered() {
+            return new MSGraphTestSupport.Condition() {
+                @Override
+                public boolean isMet() {
+                    return count.get() > 0;
+                }
+            };
+        }
+    }
+
+    /**
+     * Records the outcome of a photo load, and how many times it was answered.
+     */
+    private static class Photo implements MSGraphPhotoLoader.PhotoListener, Response.ErrorListener {
+        final AtomicReference<VolleyError> error = new AtomicReference<>();
+        final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void onPhoto(final Bitmap photo) {
+            count.incrementAndGet();
+        }
+
+        @Override
+        public void onErrorResponse(final VolleyError error) {
+            this.error.set(error);
+            count.incrementAndGet();
+        }
+
+        MSGraphTestSupport.Condition isAnswered() {
+            return new MSGraphTestSupport.Condition() {
+                @Override
+                public boolean isMet() {
+                    return count.get() > 0;
+                }
+            };
+        }
+    }
+
+    /**
+     * Records the items and the outcome of a streamed page. Invoked on the IO pool.
+     */
+    private static class Stream implements MSGraphStreamingRequest.ItemListener,
+            MSGraphStreamingRequest.CompletionListener, Response.ErrorListener {
+        final AtomicInteger items = new AtomicInteger();
+        final AtomicReference<MSGraphStreamingRequest.Result> result = new AtomicReference<>();
+        final AtomicReference<VolleyError> error = new AtomicReference<>();
+
+        @Override
+        public void onItem(@NonNull final JSONObject item) {
+            items.incrementAndGet();
+        }
+
+        @Override
+        public void onComplete(@NonNull final MSGraphStreamingRequest.Result result) {
+            this.result.set(result);
+        }
+
+        @Override
+        public void onErrorResponse(final VolleyError error) {
+            this.error.set(error);
+        }
+
+        MSGraphTestSupport.Condition isAnswered() {
+            return new MSGraphTestSupport.Condition() {
+                @Override
+                public boolean isMet() {
+                    return result.get() != null || error.get() != null;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,233 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.azuresamples.msalandroidapp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Header;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpResponse;
+import com.android.volley.toolbox.HurlStack;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.Headers;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+/**
+ * Serves a {@link MSGraphStandInStack} from a {@link MockWebServer}, so Graph calls go over a real HTTP
+ * connection: the transport, gzip decoding and truncated bodies are exercised the way they are against MSGraph.
+ * Only part of the unit tests.
+ * <p>
+ * Like MSGraph, responses are gzip-compressed when the request accepts it. A scripted connection reset
+ * closes the socket before the response, and a truncated body is cut short of its Content-Length.
+ * <pre>
+ * final MockWebServer server = new MockWebServer();
+ * server.setDispatcher(new MSGraphStandInDispatcher(standIn));
+ * server.start();
+ * MSGraphRequestWrapper.setHttpStack(MSGraphStandInDispatcher.createHttpStack(server));
+ * </pre>
+ */
+public class MSGraphStandInDispatcher extends Dispatcher {
+    private final MSGraphStandInStack mStandIn;
+
+    public MSGraphStandInDispatcher(@NonNull final MSGraphStandInStack standIn) {
+        mStandIn = standIn;
+    }
+
+    /**
+     * Returns a transport sending the requests made to MSGraph to the given server instead.
+     */
+    public static HurlStack createHttpStack(@NonNull final MockWebServer server) {
+        final String serverRoot = server.url("/").toString();
+        return new HurlStack(new HurlStack.UrlRewriter() {
+            @Override
+            public String rewriteUrl(String originalUrl) {
+                return originalUrl.startsWith(MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT)
+                        ? serverRoot + originalUrl.substring(MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT.length())
+                        : originalUrl;
+            }
+        });
+    }
+
+    @Override
+    public MockResponse dispatch(final RecordedRequest recorded) {
+        final Map<String, String> headers = new HashMap<>();
+        final Headers recordedHeaders = recorded.getHeaders();
+        for (int i = 0; i < recordedHeaders.size(); i++) {
+            headers.put(recordedHeaders.name(i), recordedHeaders.value(i));
+        }
+
+        final String path = recorded.getPath().startsWith("/") ? recorded.getPath().substring(1) : recorded.getPath();
+        final byte[] body = recorded.getBody().readByteArray();
+        final ServedRequest request = new ServedRequest(getMethod(recorded.getMethod()),
+                MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT + path, body.length > 0 ? body : null,
+                headers.get("Content-Type"));
+
+        final HttpResponse response;
+        try {
+            response = mStandIn.executeRequest(request, headers);
+        } catch (IOException e) {
+            /* The stand-in resets the connection. */
+            return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START);
+        } catch (AuthFailureError e) {
+            return new MockResponse().setResponseCode(401);
+        }
+
+        final MockResponse served = new MockResponse().setResponseCode(response.getStatusCode());
+        for (final Header header : response.getHeaders()) {
+            served.addHeader(header.getName(), header.getValue());
+        }
+
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final boolean truncated = readContent(response.getContent(), content);
+        if (truncated) {
+            return served
+                    .setBody(new Buffer().write(content.toByteArray()))
+                    .setHeader("Content-Length", response.getContentLength())
+                    .setSocketPolicy(SocketPolicy.DISCONNECT_AT_END);
+        }
+
+        final String acceptEncoding = headers.get("Accept-Encoding");
+        if (content.size() > 0 && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            return served
+                    .setBody(new Buffer().write(gzip(content.toByteArray())))
+                    .setHeader("Content-Encoding", "gzip");
+        }
+
+        return served.setBody(new Buffer().write(content.toByteArray()));
+    }
+
+    /**
+     * Copies the body of a stand-in response.
+     *
+     * @return true if the body ended before its Content-Length, i.e. it was scripted to be truncated.
+     */
+    private static boolean readContent(@Nullable final InputStream content,
+                                       @NonNull final ByteArrayOutputStream output) {
+        if (content == null) {
+            return false;
+        }
+
+        final byte[] buffer = new byte[8192];
+        try {
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return false;
+        } catch (EOFException e) {
+            return true;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] gzip(@NonNull final byte[] data) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            final GZIPOutputStream gzip = new GZIPOutputStream(output);
+            gzip.write(data);
+            gzip.close();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return output.toByteArray();
+    }
+
+    private static int getMethod(@NonNull final String method) {
+        switch (method) {
+            case "POST":
+                return Request.Method.POST;
+            case "PUT":
+                return Request.Method.PUT;
+            case "DELETE":
+                return Request.Method.DELETE;
+            case "PATCH":
+                return Request.Method.PATCH;
+            case "HEAD":
+                return Request.Method.HEAD;
+            default:
+                return Request.Method.GET;
+        }
+    }
+
+    /**
+     * A request received by the server, handed to the stand-in as if it had been sent on it directly.
+     */
+    private static class ServedRequest extends Request<Void> {
+        private final byte[] mBody;
+        private final String mContentType;
+
+        ServedRequest(final int method,
+                      @NonNull final String url,
+                      @Nullable final byte[] body,
+                      @Nullable final String contentType) {
+            super(method, url, null);
+            mBody = body;
+            mContentType = contentType;
+        }
+
+        @Override
+        public Map<String, String> getHeaders() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public byte[] getBody() {
+            return mBody;
+        }
+
+        @Override
+        public String getBodyContentType() {
+            return mContentType != null ? mContentType : super.getBodyContentType();
+        }
+
+        @Override
+        protected Response<Void> parseNetworkResponse(final NetworkResponse response) {
+            return Response.success(null, null);
+        }
+
+        @Override
+        protected void deliverResponse(final Void response) {
+        }
+    }
+}
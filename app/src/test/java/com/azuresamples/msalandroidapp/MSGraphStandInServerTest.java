@@ -0,0 +1,226 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.azuresamples.msalandroidapp;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HurlStack;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.MockWebServer;
+
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.ACCESS_TOKEN;
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.ACCOUNT_ID;
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.TENANT_ID;
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs Graph calls against {@link MSGraphStandInStack} served over HTTP by {@link MSGraphStandInDispatcher},
+ * so the transport and gzip decoding are part of the path under test.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MSGraphStandInServerTest {
+    private static final String ME_URL = MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT + "v1.0/me";
+    private static final String USERS_URL = MSGraphRequestWrapper.MS_GRAPH_ROOT_ENDPOINT + "v1.0/users";
+
+    private Context mContext;
+    private MockWebServer mServer;
+    private MSGraphStandInStack mStandIn;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = RuntimeEnvironment.getApplication();
+        mServer = new MockWebServer();
+        mStandIn = MSGraphTestSupport.serveStandIn(mServer);
+        MSGraphRequestWrapper.getTransferStats().reset();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        MSGraphRequestWrapper.shutdown();
+        MSGraphRequestWrapper.setHttpStack(new HurlStack());
+        mServer.shutdown();
+    }
+
+    @Test
+    public void unchangedResourceIsRevalidatedOverHttp() {
+        final Answer first = callMe();
+        await(first.isAnswered());
+        final Answer second = callMe();
+        await(second.isAnswered());
+
+        assertNull(second.error.get());
+        assertEquals(first.response.get().toString(), second.response.get().toString());
+        assertEquals(1, mStandIn.getResponseCount("v1.0/me", 200));
+        assertEquals(1, mStandIn.getResponseCount("v1.0/me", 304));
+    }
+
+    @Test
+    public void collectionIsGzipCompressedOnTheWire() {
+        final Stream stream = stream();
+        await(stream.isAnswered());
+
+        assertNull(stream.error.get());
+        assertEquals(100, stream.items.get());
+
+        /* Bytes are counted once the body is closed, which may be after the completion was delivered. */
+        await(new MSGraphTestSupport.Condition() {
+            @Override
+            public boolean isMet() {
+                return getUsersTransferStats() != null;
+            }
+        });
+        final MSGraphTransferStats.Entry users = getUsersTransferStats();
+        assertEquals(0, users.uncompressedResponseCount);
+        assertTrue(users.wireBytes < users.decodedBytes);
+    }
+
+    @Test
+    public void throttledCallIsSentAgainOverHttp() {
+        mStandIn.when("v1.0/me").times(1).throttle(2);
+
+        final Answer answer = callMe();
+        await(answer.isAnswered());
+
+        assertNull(answer.error.get());
+        assertEquals(2, mStandIn.getRequestCount("v1.0/me"));
+        assertEquals(1, mStandIn.getResponseCount("v1.0/me", 429));
+    }
+
+    @Test
+    public void bodyCutShortOnTheWireIsReported() {
+        mStandIn.when("v1.0/users").times(1).truncateBody(0.5);
+
+        final Stream stream = stream();
+        await(stream.isAnswered());
+
+        assertNotNull(stream.error.get());
+        assertTrue(stream.items.get() < 100);
+        assertEquals(1, mStandIn.getRequestCount("v1.0/users"));
+    }
+
+    private static MSGraphTransferStats.Entry getUsersTransferStats() {
+        for (final MSGraphTransferStats.Entry entry : MSGraphRequestWrapper.getTransferStats().getSnapshot()) {
+            if (entry.endpoint.endsWith("v1.0/users")) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    private Answer callMe() {
+        final Answer answer = new Answer();
+        MSGraphRequestWrapper.callGraphAPIUsingVolley(mContext, ACCOUNT_ID, TENANT_ID, ME_URL, ACCESS_TOKEN,
+                answer, answer);
+        return answer;
+    }
+
+    private Stream stream() {
+        final Stream stream = new Stream();
+        MSGraphRequestWrapper.streamGraphCollection(USERS_URL, ACCESS_TOKEN, stream, stream, stream);
+        return stream;
+    }
+
+    /**
+     * Records the answer of a Graph call.
+     */
+    private static class Answer implements Response.Listener<JSONObject>, Response.ErrorListener {
+        final AtomicReference<JSONObject> response = new AtomicReference<>();
+        final AtomicReference<VolleyError> error = new AtomicReference<>();
+
+        @Override
+        public void onResponse(final JSONObject response) {
+            this.response.set(response);
+        }
+
+        @Override
+        public void onErrorResponse(final VolleyError error) {
+            this.error.set(error);
+        }
+
+        MSGraphTestSupport.Condition isAnswered() {
+            return new MSGraphTestSupport.Condition() {
+                @Override
+                public boolean isMet() {
+                    return response.get() != null || error.get() != null;
+                }
+            };
+        }
+    }
+
+    /**
+     * Records the items and the outcome of a streamed page. Invoked on the IO pool.
+     */
+    private static class Stream implements MSGraphStreamingRequest.ItemListener,
+            MSGraphStreamingRequest.CompletionListener, Response.ErrorListener {
+        final AtomicInteger items = new AtomicInteger();
+        final AtomicReference<MSGraphStreamingRequest.Result> result = new AtomicReference<>();
+        final AtomicReference<VolleyError> error = new AtomicReference<>();
+
+        @Override
+        public void onItem(@NonNull final JSONObject item) {
+            items.incrementAndGet();
+        }
+
+        @Override
+        public void onComplete(@NonNull final MSGraphStreamingRequest.Result result) {
+            this.result.set(result);
+        }
+
+        @Override
+        public void onErrorResponse(final VolleyError error) {
+            this.error.set(error);
+        }
+
+        MSGraphTestSupport.Condition isAnswered() {
+            return new MSGraphTestSupport.Condition() {
+                @Override
+                public boolean isMet() {
+                    return result.get() != null || error.get() != null;
+                }
+            };
+        }
+    }
+}
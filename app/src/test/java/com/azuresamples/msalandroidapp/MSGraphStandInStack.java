@@ -0,0 +1,822 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.azuresamples.msalandroidapp;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Header;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.HttpResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A stand-in for MSGraph that answers requests locally instead of sending them over the network.
+ * Only part of the unit tests.
+ * <p>
+ * It emulates the endpoints the sample uses: /me (revalidated with its ETag), profile photos,
+ * the /users and /groups collections paged with "@odata.nextLink", their delta queries, and $batch.
+ * Like MSGraph, /me and the collections return their default properties unless $select is given.
+ * Files can be uploaded to the drive with upload sessions, or with a single PUT of their content.
+ * Faults can be scripted per path to exercise the wrapper offline. Throttling and error statuses also apply
+ * to the sub-requests of a $batch, which MSGraph throttles one by one, i.e.
+ * <pre>
+ * final MSGraphStandInStack standIn = new MSGraphStandInStack();
+ * standIn.when("v1.0/me").withProbability(0.2).throttle(2);
+ * standIn.when("v1.0/users").delay(MSGraphStandInStack.logNormal(300, 0.5));
+ * MSGraphRequestWrapper.setHttpStack(standIn);
+ * </pre>
+ * Responses are delivered through the main looper, so tests running under Robolectric wait for them with
+ * {@link MSGraphTestSupport#await}. To send the calls over a real HTTP connection instead, serve the stand-in
+ * from a MockWebServer with {@link MSGraphStandInDispatcher}.
+ */
+public class MSGraphStandInStack extends BaseHttpStack {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String ROOT = "https://graph.microsoft.com/";
+    private static final String ME_ETAG = "W/\"me-1\"";
+    private static final String PHOTO_ETAG = "\"photo-1\"";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int COLLECTION_SIZE = 250;
+
+    private static final String DRIVE_ROOT_PREFIX = "v1.0/me/drive/root:/";
+    private static final String CREATE_UPLOAD_SESSION_SUFFIX = ":/createUploadSession";
+    private static final String CONTENT_SUFFIX = ":/content";
+    private static final String UPLOAD_SESSION_PREFIX = "upload/sessions/";
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+    /* A 1x1 PNG, so the photo can actually be decoded. */
+    private static final String PHOTO_HEX = "89504e470d0a1a0a0000000d4948445200000001000000010802000000907753de"
+            + "0000000c49444154789c6360a8b8020001c8014dccc8bc450000000049454e44ae426082";
+
+    /**
+     * Returns how long to delay a response, in milliseconds.
+     */
+    public interface LatencyDistribution {
+        long nextDelayMs(@NonNull Random random);
+    }
+
+    private enum Fault {
+        NONE,
+        THROTTLE,
+        ERROR,
+        RESET,
+        TRUNCATE
+    }
+
+    /**
+     * What happens to the requests whose path starts with a given prefix.
+     * The first rule registered for a path that fires is applied.
+     */
+    public static class Rule {
+        private final String mPathPrefix;
+        private double mProbability = 1;
+        private int mRemaining = -1;
+        private int mSkipped;
+        private LatencyDistribution mLatency;
+        private Fault mFault = Fault.NONE;
+        private long mRetryAfterSeconds;
+        private int mStatusCode;
+        private double mKeptFraction;
+
+        Rule(@NonNull final String pathPrefix) {
+            mPathPrefix = pathPrefix;
+        }
+
+        /**
+         * Applies the rule to only a fraction of the matching requests, between 0 and 1.
+         */
+        public Rule withProbability(final double probability) {
+            mProbability = probability;
+            return this;
+        }
+
+        /**
+         * Lets the given number of matching requests through before the rule applies, i.e. to fail the second range of an upload.
+         */
+        public Rule skip(final int count) {
+            mSkipped = count;
+            return this;
+        }
+
+        /**
+         * Applies the rule to only the next given number of matching requests.
+         */
+        public Rule times(final int count) {
+            mRemaining = count;
+            return this;
+        }
+
+        /**
+         * Delays the response.
+         */
+        public Rule delay(@NonNull final LatencyDistribution latency) {
+            mLatency = latency;
+            return this;
+        }
+
+        /**
+         * Answers 429 with the given Retry-After.
+         */
+        public Rule throttle(final long retryAfterSeconds) {
+            mFault = Fault.THROTTLE;
+            mRetryAfterSeconds = retryAfterSeconds;
+            return this;
+        }
+
+        /**
+         * Answers with the given error status, i.e. 503 when MSGraph is temporarily unavailable.
+         */
+        public Rule respond(final int statusCode) {
+            mFault = Fault.ERROR;
+            mStatusCode = statusCode;
+            return this;
+        }
+
+        /**
+         * Fails the request as if the connection was reset.
+         */
+        public Rule resetConnection() {
+            mFault = Fault.RESET;
+            return this;
+        }
+
+        /**
+         * Sends only the given fraction of the body, then fails as if the connection dropped.
+         */
+        public Rule truncateBody(final double keptFraction) {
+            mFault = Fault.TRUNCATE;
+            mKeptFraction = keptFraction;
+            return this;
+        }
+
+        private boolean fires(@NonNull final String path, @NonNull final Random random) {
+            if (!path.startsWith(mPathPrefix) || mRemaining == 0) {
+                return false;
+            }
+
+            if (mSkipped > 0) {
+                mSkipped--;
+                return false;
+            }
+
+            if (random.nextDouble() >= mProbability) {
+                return false;
+            }
+
+            if (mRemaining > 0) {
+                mRemaining--;
+            }
+            return true;
+        }
+    }
+
+    private final Random mRandom;
+    private final List<Rule> mRules = new ArrayList<>();
+    private final Map<String, Integer> mRequestCounts = new HashMap<>();
+    private final Map<String, Integer> mResponseCounts = new HashMap<>();
+    private final Map<String, UploadSession> mUploadSessions = new HashMap<>();
+    private final Map<String, byte[]> mDriveFiles = new HashMap<>();
+    private int mUploadSessionCount;
+
+    public MSGraphStandInStack() {
+        this(new Random());
+    }
+
+    /**
+     * @param random source of the fault probabilities and latencies, i.e. seeded for reproducible runs.
+     */
+    public MSGraphStandInStack(@NonNull final Random random) {
+        mRandom = random;
+    }
+
+    /**
+     * Always the same delay.
+     */
+    public static LatencyDistribution fixed(final long delayMs) {
+        return new LatencyDistribution() {
+            @Override
+            public long nextDelayMs(@NonNull final Random random) {
+                return delayMs;
+            }
+        };
+    }
+
+    /**
+     * A delay between minDelayMs and maxDelayMs, all equally likely.
+     */
+    public static LatencyDistribution uniform(final long minDelayMs, final long maxDelayMs) {
+        return new LatencyDistribution() {
+            @Override
+            public long nextDelayMs(@NonNull final Random random) {
+                return minDelayMs + (long) (random.nextDouble() * (maxDelayMs - minDelayMs));
+            }
+        };
+    }
+
+    /**
+     * A long-tailed delay around medianMs, as network latencies usually are. A sigma of 0.5 puts p99 at about 3x the median.
+     */
+    public static LatencyDistribution logNormal(final long medianMs, final double sigma) {
+        return new LatencyDistribution() {
+            @Override
+            public long nextDelayMs(@NonNull final Random random) {
+                return (long) (medianMs * Math.exp(sigma * random.nextGaussian()));
+            }
+        };
+    }
+
+    /**
+     * Registers a rule for the requests whose path, relative to the MSGraph root, starts with the given prefix, i.e. "v1.0/me".
+     */
+    public synchronized Rule when(@NonNull final String pathPrefix) {
+        final Rule rule = new Rule(pathPrefix);
+        mRules.add(rule);
+        return rule;
+    }
+
+    public synchronized void clearRules() {
+        mRules.clear();
+    }
+
+    /**
+     * Number of requests received for the given path, relative to the MSGraph root, i.e. to check how many retries were made.
+     */
+    public synchronized int getRequestCount(@NonNull final String path) {
+        final Integer count = mRequestCounts.get(path);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Number of responses with the given status code sent for the given path, i.e. to check that a 304 was answered.
+     */
+    public synchronized int getResponseCount(@NonNull final String path, final int statusCode) {
+        final Integer count = mResponseCounts.get(path + " " + statusCode);
+        return count != null ? count : 0;
+    }
+
+    @Override
+    public HttpResponse executeRequest(final Request<?> request,
+                                       final Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        final Uri uri = Uri.parse(request.getUrl());
+        final String path = getRelativePath(uri);
+
+        final Rule rule;
+        final long delayMs;
+        synchronized (this) {
+            final Integer count = mRequestCounts.get(path);
+            mRequestCounts.put(path, count != null ? count + 1 : 1);
+            rule = findRule(path);
+            delayMs = rule != null && rule.mLatency != null ? Math.max(0, rule.mLatency.nextDelayMs(mRandom)) : 0;
+        }
+
+        if (delayMs > 0) {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Request interrupted");
+            }
+        }
+
+        final Fault fault = rule != null ? rule.mFault : Fault.NONE;
+        if (fault == Fault.RESET) {
+            throw new SocketException("Connection reset");
+        }
+
+        final Map<String, String> requestHeaders = new HashMap<>(additionalHeaders);
+        final Map<String, String> ownHeaders = request.getHeaders();
+        if (ownHeaders != null) {
+            requestHeaders.putAll(ownHeaders);
+        }
+
+        final Answer answer;
+        try {
+            if (fault == Fault.THROTTLE) {
+                final List<Header> headers = new ArrayList<>();
+                headers.add(new Header("Retry-After", String.valueOf(rule.mRetryAfterSeconds)));
+                return toHttpResponse(path, new Answer(429, error("TooManyRequests", "Too many requests"), headers));
+            }
+
+            if (fault == Fault.ERROR) {
+                return toHttpResponse(path, new Answer(rule.mStatusCode, error("ServiceNotAvailable", "Scripted failure"), null));
+            }
+
+            answer = answer(request.getMethod(), uri, path, requestHeaders, request.getBody());
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+
+        countResponse(path, answer.statusCode);
+        if (fault == Fault.TRUNCATE && answer.body.length > 0) {
+            final int keptLength = (int) (answer.body.length * Math.min(1, Math.max(0, rule.mKeptFraction)));
+            return new HttpResponse(answer.statusCode, answer.headers, answer.body.length,
+                    new TruncatedInputStream(answer.body, keptLength));
+        }
+
+        return toHttpResponse(answer);
+    }
+
+    private synchronized void countResponse(@NonNull final String path, final int statusCode) {
+        final String key = path + " " + statusCode;
+        final Integer count = mResponseCounts.get(key);
+        mResponseCounts.put(key, count != null ? count + 1 : 1);
+    }
+
+    /**
+     * Returns the content of a file uploaded to the drive, i.e. "Logs/app.log", or null.
+     */
+    @Nullable
+    public synchronized byte[] getDriveFile(@NonNull final String drivePath) {
+        return mDriveFiles.get(drivePath);
+    }
+
+    /**
+     * Number of upload sessions created and not yet completed or deleted.
+     */
+    public synchronized int getOpenUploadSessionCount() {
+        return mUploadSessions.size();
+    }
+
+    @Nullable
+    private Rule findRule(@NonNull final String path) {
+        for (final Rule rule : mRules) {
+            if (rule.fires(path, mRandom)) {
+                return rule;
+            }
+        }
+
+        return null;
+    }
+
+    private static String getRelativePath(@NonNull final Uri uri) {
+        final String path = uri.getPath();
+        return path != null && path.startsWith("/") ? path.substring(1) : String.valueOf(path);
+    }
+
+    private Answer answer(final int method,
+                          @NonNull final Uri uri,
+                          @NonNull final String path,
+                          @NonNull final Map<String, String> headers,
+                          @Nullable final byte[] body) throws JSONException {
+        if (method == Request.Method.POST && path.equals("v1.0/$batch")) {
+            return batch(new JSONObject(new String(body != null ? body : new byte[0], UTF_8)));
+        }
+
+        if (method == Request.Method.POST && path.startsWith(DRIVE_ROOT_PREFIX) && path.endsWith(CREATE_UPLOAD_SESSION_SUFFIX)) {
+            return createUploadSession(path.substring(DRIVE_ROOT_PREFIX.length(),
+                    path.length() - CREATE_UPLOAD_SESSION_SUFFIX.length()));
+        }
+
+        if (method == Request.Method.PUT && path.startsWith(DRIVE_ROOT_PREFIX) && path.endsWith(CONTENT_SUFFIX)) {
+            return putDriveFile(path.substring(DRIVE_ROOT_PREFIX.length(), path.length() - CONTENT_SUFFIX.length()),
+                    body != null ? body : new byte[0]);
+        }
+
+        if (path.startsWith(UPLOAD_SESSION_PREFIX)) {
+            return uploadSession(method, path.substring(UPLOAD_SESSION_PREFIX.length()), headers, body);
+        }
+
+        if (method != Request.Method.GET) {
+            return new Answer(405, error("MethodNotAllowed", "The stand-in only serves GET, $batch and uploads"), null);
+        }
+
+        if (path.equals("v1.0/me")) {
+            if (ME_ETAG.equals(getHeader(headers, "If-None-Match"))) {
+                return notModified(ME_ETAG);
+            }
+
+            final JSONObject me = new JSONObject()
+                    .put("@odata.context", ROOT + "v1.0/$metadata#users/$entity")
+                    .put("businessPhones", new JSONArray().put("+1 425 555 0109"))
+                    .put("displayName", "Adele Vance")
+                    .put("givenName", "Adele")
+                    .put("jobTitle", "Retail Manager")
+                    .put("mail", "adele@contoso.com")
+                    .put("mobilePhone", JSONObject.NULL)
+                    .put("officeLocation", "18/2111")
+                    .put("preferredLanguage", "en-US")
+                    .put("surname", "Vance")
+                    .put("userPrincipalName", "adele@contoso.com")
+                    .put("id", "00000000-0000-0000-0000-000000000001");
+            return new Answer(200, select(me, uri.getQueryParameter("$select")), withETag(ME_ETAG));
+        }
+
+        if (path.startsWith("v1.0/me/photo") && path.endsWith("/$value")) {
+            if (PHOTO_ETAG.equals(getHeader(headers, "If-None-Match"))) {
+                return notModified(PHOTO_ETAG);
+            }
+
+            return new Answer(200, toBytes(PHOTO_HEX), "image/png", withETag(PHOTO_ETAG));
+        }
+
+        final boolean delta = path.endsWith("/delta");
+        final String collection = delta ? path.substring(0, path.length() - "/delta".length()) : path;
+        if (collection.equals("v1.0/users") || collection.equals("v1.0/groups")) {
+            return page(uri, collection, delta);
+        }
+
+        return new Answer(404, error("Request_ResourceNotFound", "The stand-in does not serve " + path), null);
+    }
+
+    private synchronized Answer createUploadSession(@NonNull final String drivePath) throws JSONException {
+        final String id = String.valueOf(++mUploadSessionCount);
+        mUploadSessions.put(id, new UploadSession(drivePath));
+        return new Answer(200, new JSONObject()
+                .put("uploadUrl", ROOT + UPLOAD_SESSION_PREFIX + id)
+                .put("nextExpectedRanges", new JSONArray().put("0-")), null);
+    }
+
+    /**
+     * Replaces the content of a file in a single request, as OneDrive does for files of up to 250 MB.
+     */
+    private synchronized Answer putDriveFile(@NonNull final String drivePath, @NonNull final byte[] content)
+            throws JSONException {
+        final boolean created = !mDriveFiles.containsKey(drivePath);
+        mDriveFiles.put(drivePath, content);
+        return new Answer(created ? 201 : 200, new JSONObject()
+                .put("id", "01DRIVEITEM" + drivePath.hashCode())
+                .put("name", drivePath.substring(drivePath.lastIndexOf('/') + 1))
+                .put("size", content.length), null);
+    }
+
+    /**
+     * Serves an upload URL like OneDrive does: ranges must be sent in order, GET reports the next expected range,
+     * and DELETE cancels the session.
+     */
+    private synchronized Answer uploadSession(final int method,
+                                              @NonNull final String id,
+                                              @NonNull final Map<String, String> headers,
+                                              @Nullable final byte[] body) throws JSONException {
+        final UploadSession session = mUploadSessions.get(id);
+        if (session == null) {
+            return new Answer(404, error("itemNotFound", "The upload session was not found"), null);
+        }
+
+        if (method == Request.Method.GET) {
+            return new Answer(200, session.toJson(), null);
+        }
+
+        if (method == Request.Method.DELETE) {
+            mUploadSessions.remove(id);
+            return new Answer(204, new byte[0], null, null);
+        }
+
+        if (method != Request.Method.PUT) {
+            return new Answer(405, error("MethodNotAllowed", "Upload URLs only accept GET, PUT and DELETE"), null);
+        }
+
+        final String contentRange = getHeader(headers, "Content-Range");
+        final Matcher range = CONTENT_RANGE.matcher(contentRange != null ? contentRange : "");
+        if (!range.matches() || body == null) {
+            return new Answer(400, error("invalidRequest", "Missing or malformed Content-Range"), null);
+        }
+
+        final long first = Long.parseLong(range.group(1));
+        final long last = Long.parseLong(range.group(2));
+        final long total = Long.parseLong(range.group(3));
+        if (first != session.received.size() || last - first + 1 != body.length) {
+            return new Answer(416, error("invalidRange", "Expected a range starting at " + session.received.size()), null);
+        }
+
+        session.received.write(body, 0, body.length);
+        if (session.received.size() < total) {
+            return new Answer(202, session.toJson(), null);
+        }
+
+        mUploadSessions.remove(id);
+        mDriveFiles.put(session.drivePath, session.received.toByteArray());
+        final String name = session.drivePath.substring(session.drivePath.lastIndexOf('/') + 1);
+        return new Answer(201, new JSONObject()
+                .put("id", "01DRIVEITEM" + id)
+                .put("name", name)
+                .put("size", total), null);
+    }
+
+    /**
+     * Serves one page of a synthetic collection. A delta query ends with a deltaLink, and a query with
+     * that deltaLink reports no changes.
+     */
+    private static Answer page(@NonNull final Uri uri, @NonNull final String collection, final boolean delta)
+            throws JSONException {
+        final String baseUrl = ROOT + collection + (delta ? "/delta" : "");
+        final JSONObject page = new JSONObject();
+        final JSONArray value = new JSONArray();
+        page.put("value", value);
+
+        if (uri.getQueryParameter("$deltatoken") != null) {
+            page.put("@odata.deltaLink", baseUrl + "?$deltatoken=1");
+            return new Answer(200, page, null);
+        }
+
+        final int top = parseInt(uri.getQueryParameter("$top"), DEFAULT_PAGE_SIZE);
+        final int skip = parseInt(uri.getQueryParameter("$skiptoken"), 0);
+        final int end = Math.min(COLLECTION_SIZE, skip + top);
+        final boolean users = collection.endsWith("users");
+
+        for (int i = skip; i < end; i++) {
+            final JSONObject item = new JSONObject()
+                    .put("id", String.format("00000000-0000-0000-%04d-%012d", users ? 1 : 2, i))
+                    .put("displayName", (users ? "User " : "Group ") + i);
+            if (users) {
+                item.put("userPrincipalName", "user" + i + "@contoso.com")
+                        .put("mail", "user" + i + "@contoso.com")
+                        .put("jobTitle", "Engineer");
+            } else {
+                item.put("description", "Members of group " + i)
+                        .put("mailEnabled", false)
+                        .put("securityEnabled", true);
+            }
+            value.put(select(item, uri.getQueryParameter("$select")));
+        }
+
+        if (end < COLLECTION_SIZE) {
+            page.put("@odata.nextLink", baseUrl + "?$top=" + top + "&$skiptoken=" + end);
+        } else if (delta) {
+            page.put("@odata.deltaLink", baseUrl + "?$deltatoken=1");
+        }
+
+        return new Answer(200, page, null);
+    }
+
+    private Answer batch(@NonNull final JSONObject batch) throws JSONException {
+        final JSONArray requests = batch.optJSONArray("requests");
+        final JSONArray responses = new JSONArray();
+        final Map<String, Integer> statuses = new HashMap<>();
+
+        for (int i = 0; requests != null && i < requests.length(); i++) {
+            final JSONObject request = requests.getJSONObject(i);
+            if (hasFailedDependency(request.optJSONArray("dependsOn"), statuses)) {
+                statuses.put(request.getString("id"), 424);
+                responses.put(new JSONObject()
+                        .put("id", request.getString("id"))
+                        .put("status", 424)
+                        .put("body", error("FailedDependency", "A request this one depends on failed")));
+                continue;
+            }
+
+            final Uri uri = Uri.parse(ROOT + "v1.0" + request.getString("url"));
+            final Map<String, String> headers = new HashMap<>();
+            final JSONObject requestHeaders = request.optJSONObject("headers");
+            if (requestHeaders != null && requestHeaders.optString("If-None-Match", null) != null) {
+                headers.put("If-None-Match", requestHeaders.optString("If-None-Match"));
+            }
+
+            final int method = "GET".equals(request.optString("method", "GET")) ? Request.Method.GET : Request.Method.POST;
+            final String path = getRelativePath(uri);
+            final Rule rule;
+            synchronized (this) {
+                rule = findRule(path);
+            }
+
+            final Answer answer;
+            if (rule != null && rule.mFault == Fault.THROTTLE) {
+                final List<Header> throttleHeaders = new ArrayList<>();
+                throttleHeaders.add(new Header("Retry-After", String.valueOf(rule.mRetryAfterSeconds)));
+                answer = new Answer(429, error("TooManyRequests", "Too many requests"), throttleHeaders);
+            } else if (rule != null && rule.mFault == Fault.ERROR) {
+                answer = new Answer(rule.mStatusCode, error("ServiceNotAvailable", "Scripted failure"), null);
+            } else {
+                answer = answer(method, uri, path, headers, null);
+            }
+            statuses.put(request.getString("id"), answer.statusCode);
+
+            final JSONObject response = new JSONObject()
+                    .put("id", request.getString("id"))
+                    .put("status", answer.statusCode);
+            final JSONObject responseHeaders = new JSONObject();
+            for (final Header header : answer.headers) {
+                responseHeaders.put(header.getName(), header.getValue());
+            }
+            response.put("headers", responseHeaders);
+            if (answer.json != null) {
+                response.put("body", answer.json);
+            }
+            responses.put(response);
+        }
+
+        return new Answer(200, new JSONObject().put("responses", responses), null);
+    }
+
+    /**
+     * Like MSGraph, sub-requests are run in the order they are listed, and one whose dependency failed is not run.
+     */
+    private static boolean hasFailedDependency(@Nullable final JSONArray dependsOn,
+                                               @NonNull final Map<String, Integer> statuses) throws JSONException {
+        for (int i = 0; dependsOn != null && i < dependsOn.length(); i++) {
+            final Integer status = statuses.get(dependsOn.getString(i));
+            if (status == null || status >= 400) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Keeps only the given comma-separated properties, and the OData annotations, as MSGraph does for $select.
+     */
+    private static JSONObject select(@NonNull final JSONObject item, @Nullable final String select) throws JSONException {
+        if (select == null) {
+            return item;
+        }
+
+        final JSONObject projection = new JSONObject();
+        final Iterator<String> names = item.keys();
+        while (names.hasNext()) {
+            final String name = names.next();
+            if (name.startsWith("@odata.")) {
+                projection.put(name, item.get(name));
+            }
+        }
+
+        for (final String property : select.split(",")) {
+            if (item.has(property.trim())) {
+                projection.put(property.trim(), item.get(property.trim()));
+            }
+        }
+
+        return projection;
+    }
+
+    private static Answer notModified(@NonNull final String etag) {
+        return new Answer(304, new byte[0], null, withETag(etag));
+    }
+
+    private static JSONObject error(@NonNull final String code, @NonNull final String message) throws JSONException {
+        return new JSONObject().put("error", new JSONObject().put("code", code).put("message", message));
+    }
+
+    private static List<Header> withETag(@NonNull final String etag) {
+        final List<Header> headers = new ArrayList<>();
+        headers.add(new Header("ETag", etag));
+        return headers;
+    }
+
+    @Nullable
+    private static String getHeader(@NonNull final Map<String, String> headers, @NonNull final String name) {
+        for (final Map.Entry<String, String> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    private static int parseInt(@Nullable final String value, final int defaultValue) {
+        try {
+            return value != null ? Integer.parseInt(value) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static byte[] toBytes(@NonNull final String hex) {
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private HttpResponse toHttpResponse(@NonNull final String path, @NonNull final Answer answer) {
+        countResponse(path, answer.statusCode);
+        return toHttpResponse(answer);
+    }
+
+    private static HttpResponse toHttpResponse(@NonNull final Answer answer) {
+        return new HttpResponse(answer.statusCode, answer.headers, answer.body.length,
+                new ByteArrayInputStream(answer.body));
+    }
+
+    /**
+     * The bytes an upload session received so far, all in order.
+     */
+    private static class UploadSession {
+        final String drivePath;
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        UploadSession(@NonNull final String drivePath) {
+            this.drivePath = drivePath;
+        }
+
+        JSONObject toJson() throws JSONException {
+            return new JSONObject().put("nextExpectedRanges", new JSONArray().put(received.size() + "-"));
+        }
+    }
+
+    /**
+     * A response of the stand-in.
+     */
+    private static class Answer {
+        final int statusCode;
+        final byte[] body;
+        final JSONObject json;
+        final List<Header> headers;
+
+        Answer(final int statusCode, @NonNull final JSONObject json, @Nullable final List<Header> headers) {
+            this(statusCode, json, json.toString().getBytes(UTF_8), "application/json", headers);
+        }
+
+        Answer(final int statusCode,
+               @NonNull final byte[] body,
+               @Nullable final String contentType,
+               @Nullable final List<Header> headers) {
+            this(statusCode, null, body, contentType, headers);
+        }
+
+        private Answer(final int statusCode,
+                       @Nullable final JSONObject json,
+                       @NonNull final byte[] body,
+                       @Nullable final String contentType,
+                       @Nullable final List<Header> headers) {
+            this.statusCode = statusCode;
+            this.json = json;
+            this.body = body;
+            this.headers = headers != null ? new ArrayList<>(headers) : new ArrayList<Header>();
+            if (contentType != null) {
+                this.headers.add(new Header("Content-Type", contentType));
+            }
+        }
+    }
+
+    /**
+     * Returns the first bytes of a body, then fails the way a dropped connection does.
+     */
+    private static class TruncatedInputStream extends InputStream {
+        private final InputStream mIn;
+        private int mRemaining;
+
+        TruncatedInputStream(@NonNull final byte[] body, final int keptLength) {
+            mIn = new ByteArrayInputStream(body, 0, keptLength);
+            mRemaining = keptLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mRemaining == 0) {
+                throw new EOFException("Unexpected end of stream");
+            }
+            mRemaining--;
+            return mIn.read();
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            if (mRemaining == 0) {
+                throw new EOFException("Unexpected end of stream");
+            }
+
+            final int read = mIn.read(buffer, offset, Math.min(length, mRemaining));
+            mRemaining -= read;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.azuresamples.msalandroidapp;
+
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Helpers shared by the Robolectric tests of the Graph client.
+ * <p>
+ * Volley and the IO pool answer on real background threads but deliver through the main looper, which
+ * Robolectric only runs when asked to. Retries and throttling delays are posted on the main looper as well,
+ * and are measured with SystemClock, so advancing the looper's clock also lets them elapse.
+ */
+final class MSGraphTestSupport {
+    static final String ACCOUNT_ID = "account-1";
+    static final String TENANT_ID = "tenant-1";
+    static final String ACCESS_TOKEN = "token";
+
+    private static final long TIMEOUT_MS = 30000;
+    private static final long STEP_MS = 10;
+
+    /**
+     * A state the test waits for.
+     */
+    interface Condition {
+        boolean isMet();
+    }
+
+    private MSGraphTestSupport() {
+    }
+
+    /**
+     * Routes every Graph call of the test to a fresh stand-in, with no throttling left over from a previous test.
+     */
+    static MSGraphStandInStack installStandIn() {
+        final MSGraphStandInStack standIn = new MSGraphStandInStack(new Random(42));
+        MSGraphRequestWrapper.getRetryPolicy().reset();
+        MSGraphRequestWrapper.setHttpStack(standIn);
+        return standIn;
+    }
+
+    /**
+     * Same as {@link #installStandIn()}, but the stand-in is served by the given server, which is started,
+     * and Graph calls reach it over HTTP.
+     */
+    static MSGraphStandInStack serveStandIn(@NonNull final MockWebServer server) throws IOException {
+        final MSGraphStandInStack standIn = new MSGraphStandInStack(new Random(42));
+        server.setDispatcher(new MSGraphStandInDispatcher(standIn));
+        server.start();
+        MSGraphRequestWrapper.getRetryPolicy().reset();
+        MSGraphRequestWrapper.setHttpStack(MSGraphStandInDispatcher.createHttpStack(server));
+        return standIn;
+    }
+
+    /**
+     * Runs the main looper, advancing its clock, until the condition is met. Fails the test after
+     * {@link #TIMEOUT_MS} of real time.
+     */
+    static void await(@NonNull final Condition condition) {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.isMet()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for the Graph client");
+            }
+
+            shadowOf(Looper.getMainLooper()).idleFor(STEP_MS, TimeUnit.MILLISECONDS);
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("Interrupted");
+            }
+        }
+
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+}
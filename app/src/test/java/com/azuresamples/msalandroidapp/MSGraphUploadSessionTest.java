@@ -0,0 +1,286 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.azuresamples.msalandroidapp;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HurlStack;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.ACCESS_TOKEN;
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.ACCOUNT_ID;
+import static com.azuresamples.msalandroidapp.MSGraphTestSupport.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Uploads files to the drive of {@link MSGraphStandInStack}, interrupting and resuming them.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MSGraphUploadSessionTest {
+    /* Same range size as MSGraphUploadSession, so the file below is sent in three ranges. */
+    private static final int CHUNK_SIZE_IN_BYTES = 10 * 320 * 1024;
+
+    private static final String DRIVE_PATH = "Logs/app.log";
+    private static final String CREATE_SESSION_PATH = "v1.0/me/drive/root:/" + DRIVE_PATH + ":/createUploadSession";
+    private static final String FIRST_SESSION_PATH = "upload/sessions/1";
+    private static final String SECOND_SESSION_PATH = "upload/sessions/2";
+
+    private Context mContext;
+    private MSGraphStandInStack mStandIn;
+    private File mFile;
+    private byte[] mContent;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = RuntimeEnvironment.getApplication();
+        mStandIn = MSGraphTestSupport.installStandIn();
+
+        mContent = new byte[2 * CHUNK_SIZE_IN_BYTES + 1000];
+        new Random(7).nextBytes(mContent);
+        mFile = new File(mContext.getFilesDir(), "app.log");
+        final FileOutputStream output = new FileOutputStream(mFile);
+        try {
+            output.write(mContent);
+        } finally {
+            output.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        MSGraphRequestWrapper.shutdown();
+        MSGraphRequestWrapper.setHttpStack(new HurlStack());
+    }
+
+    @Test
+    public void fileIsSentInRanges() {
+        final Upload upload = upload(ACCOUNT_ID);
+
+        assertNull(upload.error.get());
+        assertEquals("app.log", upload.driveItem.get().optString("name"));
+        assertEquals(mContent.length, upload.driveItem.get().optLong("size", -1));
+        assertEquals(mContent.length, upload.progress.get());
+        assertTrue(Arrays.equals(mContent, mStandIn.getDriveFile(DRIVE_PATH)));
+        assertEquals(2, mStandIn.getResponseCount(FIRST_SESSION_PATH, 202));
+        assertEquals(1, mStandIn.getResponseCount(FIRST_SESSION_PATH, 201));
+    }
+
+    @Test
+    public void droppedRangeIsResumedWhereTheSessionLeftOff() {
+        mStandIn.when(FIRST_SESSION_PATH).skip(1).times(1).resetConnection();
+
+        final Upload upload = upload(ACCOUNT_ID);
+
+        assertNull(upload.error.get());
+        assertTrue(Arrays.equals(mContent, mStandIn.getDriveFile(DRIVE_PATH)));
+        assertEquals(1, mStandIn.getRequestCount(CREATE_SESSION_PATH));
+
+        /* Two ranges acknowledged, one dropped, one GET for the next expected range, then the last range. */
+        assertEquals(5, mStandIn.getRequestCount(FIRST_SESSION_PATH));
+        assertEquals(1, mStandIn.getResponseCount(FIRST_SESSION_PATH, 200));
+    }
+
+    @Test
+    public void interruptedUploadIsResumedByANewSession() {
+        /* The first range is acknowledged, then the connection stays down. */
+        mStandIn.when(FIRST_SESSION_PATH).skip(1).resetConnection();
+        final Upload interrupted = upload(ACCOUNT_ID);
+        assertNotNull(interrupted.error.get());
+        assertEquals(1, mStandIn.getResponseCount(FIRST_SESSION_PATH, 202));
+
+        /* i.e. after the process was restarted. */
+        mStandIn.clearRules();
+        final Upload resumed = upload(ACCOUNT_ID);
+
+        assertNull(resumed.error.get());
+        assertTrue(Arrays.equals(mContent, mStandIn.getDriveFile(DRIVE_PATH)));
+        assertEquals(1, mStandIn.getRequestCount(CREATE_SESSION_PATH));
+
+        /* The first range was not sent again: it would have been refused with 416. */
+        assertEquals(2, mStandIn.getResponseCount(FIRST_SESSION_PATH, 202));
+        assertEquals(0, mStandIn.getResponseCount(FIRST_SESSION_PATH, 416));
+    }
+
+    @Test
+    public void sessionOfAnotherAccountIsNotResumed() {
+        mStandIn.when(FIRST_SESSION_PATH).skip(1).resetConnection();
+        assertNotNull(upload(ACCOUNT_ID).error.get());
+
+        mStandIn.clearRules();
+        final Upload other = upload("account-2");
+
+        assertNull(other.error.get());
+        assertEquals(2, mStandIn.getRequestCount(CREATE_SESSION_PATH));
+        assertEquals(1, mStandIn.getResponseCount(SECOND_SESSION_PATH, 201));
+    }
+
+    @Test
+    public void throttledRangeIsSentAgain() {
+        mStandIn.when(FIRST_SESSION_PATH).skip(1).times(1).throttle(1);
+
+        final Upload upload = upload(ACCOUNT_ID);
+
+        assertNull(upload.error.get());
+        assertTrue(Arrays.equals(mContent, mStandIn.getDriveFile(DRIVE_PATH)));
+        assertEquals(1, mStandIn.getResponseCount(FIRST_SESSION_PATH, 429));
+    }
+
+    @Test
+    public void cancelledUploadDeletesItsSession() {
+        mStandIn.when(FIRST_SESSION_PATH).delay(MSGraphStandInStack.fixed(200));
+        final MSGraphUploadSession session = new MSGraphUploadSession(mContext, ACCOUNT_ID, mFile, DRIVE_PATH);
+        final Upload upload = new Upload();
+        session.upload(ACCESS_TOKEN, upload, upload, upload);
+
+        await(new MSGraphTestSupport.Condition() {
+            @Override
+            public boolean isMet() {
+                return upload.progress.get() > 0;
+            }
+        });
+        session.cancel();
+
+        await(new MSGraphTestSupport.Condition() {
+            @Override
+            public boolean isMet() {
+                return mStandIn.getResponseCount(FIRST_SESSION_PATH, 204) == 1;
+            }
+        });
+        assertEquals(0, mStandIn.getOpenUploadSessionCount());
+        assertNull(upload.driveItem.get());
+        assertNull(mStandIn.getDriveFile(DRIVE_PATH));
+        assertTrue(upload.error.get() instanceof MSGraphCancelledError);
+    }
+
+    @Test
+    public void uploadWaitingToRetryIsCancelledRightAway() {
+        mStandIn.when(FIRST_SESSION_PATH).skip(1).times(1).throttle(600);
+        final MSGraphUploadSession session = new MSGraphUploadSession(mContext, ACCOUNT_ID, mFile, DRIVE_PATH);
+        final Upload upload = new Upload();
+        session.upload(ACCESS_TOKEN, upload, upload, upload);
+
+        await(new MSGraphTestSupport.Condition() {
+            @Override
+            public boolean isMet() {
+                return mStandIn.getResponseCount(FIRST_SESSION_PATH, 429) == 1;
+            }
+        });
+        final long cancelledAtMs = SystemClock.elapsedRealtime();
+        session.cancel();
+
+        await(new MSGraphTestSupport.Condition() {
+            @Override
+            public boolean isMet() {
+                return upload.error.get() != null;
+            }
+        });
+        assertTrue(upload.error.get() instanceof MSGraphCancelledError);
+
+        /* Well before the ten minutes of Retry-After have elapsed. */
+        assertTrue(SystemClock.elapsedRealtime() - cancelledAtMs < 60 * 1000);
+        assertEquals(1, mStandIn.getResponseCount(FIRST_SESSION_PATH, 202));
+    }
+
+    @Test
+    public void emptyFileIsUploadedWithASinglePut() throws IOException {
+        final File empty = new File(mContext.getFilesDir(), "empty.log");
+        new FileOutputStream(empty).close();
+
+        final Upload upload = new Upload();
+        new MSGraphUploadSession(mContext, ACCOUNT_ID, empty, DRIVE_PATH).upload(ACCESS_TOKEN, upload, upload, upload);
+        await(new MSGraphTestSupport.Condition() {
+            @Override
+            public boolean isMet() {
+                return upload.driveItem.get() != null || upload.error.get() != null;
+            }
+        });
+
+        assertNull(upload.error.get());
+        assertEquals(0, upload.driveItem.get().optLong("size", -1));
+        assertEquals(0, mStandIn.getDriveFile(DRIVE_PATH).length);
+        assertEquals(0, mStandIn.getRequestCount(CREATE_SESSION_PATH));
+        assertEquals(1, mStandIn.getResponseCount("v1.0/me/drive/root:/" + DRIVE_PATH + ":/content", 201));
+    }
+
+    private Upload upload(@NonNull final String accountId) {
+        final Upload upload = new Upload();
+        new MSGraphUploadSession(mContext, accountId, mFile, DRIVE_PATH).upload(ACCESS_TOKEN, upload, upload, upload);
+        await(new MSGraphTestSupport.Condition() {
+            @Override
+            public boolean isMet() {
+                return upload.driveItem.get() != null || upload.error.get() != null;
+            }
+        });
+        return upload;
+    }
+
+    /**
+     * Records the progress and outcome of an upload, delivered on the main thread.
+     */
+    private static class Upload implements MSGraphUploadSession.ProgressListener,
+            MSGraphUploadSession.CompletionListener, Response.ErrorListener {
+        final AtomicLong progress = new AtomicLong();
+        final AtomicReference<JSONObject> driveItem = new AtomicReference<>();
+        final AtomicReference<VolleyError> error = new AtomicReference<>();
+
+        @Override
+        public void onProgress(final long uploadedBytes, final long totalBytes) {
+            progress.set(uploadedBytes);
+        }
+
+        @Override
+        public void onComplete(@NonNull final JSONObject driveItem) {
+            this.driveItem.set(driveItem);
+        }
+
+        @Override
+        public void onErrorResponse(final VolleyError error) {
+            this.error.set(error);
+        }
+    }
+}
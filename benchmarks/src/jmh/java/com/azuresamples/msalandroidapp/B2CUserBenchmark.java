@@ -0,0 +1,89 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.azuresamples.msalandroidapp;
+
+import com.microsoft.identity.client.IAccount;
+import com.microsoft.identity.common.java.providers.oauth2.IDToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmarks grouping the accounts of a B2C app into users, done each time B2CModeFragment loads its accounts.
+ */
+@State(Scope.Benchmark)
+public class B2CUserBenchmark {
+    /**
+     * Number of distinct users. Each one is signed in with every policy of {@link B2CConfiguration#Policies}.
+     */
+    @Param({"1", "10", "100"})
+    public int userCount;
+
+    private List<IAccount> mAccounts;
+    private B2CUser mUser;
+
+    @Setup
+    public void setUp() {
+        mAccounts = new ArrayList<>();
+        for (int user = 0; user < userCount; user++) {
+            for (final String policy : B2CConfiguration.Policies) {
+                final Map<String, Object> claims = new HashMap<>();
+                claims.put(IDToken.SUBJECT, "subject-" + user);
+                claims.put(IDToken.NAME, "User " + user);
+                claims.put("tfp", policy);
+                claims.put("preferred_username", "user" + user + "@fabrikamb2c.onmicrosoft.com");
+
+                mAccounts.add(BenchmarkFixtures.createAccount("account-" + user + "-" + policy,
+                        B2CConfiguration.getAuthorityFromPolicyName(policy),
+                        claims));
+            }
+        }
+
+        /* MSAL does not return the accounts grouped by user. */
+        Collections.shuffle(mAccounts, new Random(42));
+
+        mUser = B2CUser.getB2CUsersFromAccountList(mAccounts).get(0);
+    }
+
+    @Benchmark
+    public List<B2CUser> getB2CUsersFromAccountList() {
+        return B2CUser.getB2CUsersFromAccountList(mAccounts);
+    }
+
+    @Benchmark
+    public String getDisplayName() {
+        return mUser.getDisplayName();
+    }
+}
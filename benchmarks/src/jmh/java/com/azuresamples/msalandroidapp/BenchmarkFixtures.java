@@ -0,0 +1,110 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.azuresamples.msalandroidapp;
+
+import androidx.annotation.NonNull;
+
+import com.microsoft.identity.client.IAccount;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+/**
+ * Inputs shared by the benchmarks: synthetic accounts and recorded MSGraph payloads.
+ */
+final class BenchmarkFixtures {
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Returns an account with the given id, authority and id token claims.
+     * <p>
+     * A proxy rather than a class, since the methods of IAccount differ between MSAL versions.
+     */
+    @NonNull
+    static IAccount createAccount(@NonNull final String id,
+                                  @NonNull final String authority,
+                                  @NonNull final Map<String, ?> claims) {
+        return (IAccount) Proxy.newProxyInstance(IAccount.class.getClassLoader(), new Class<?>[]{IAccount.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        switch (method.getName()) {
+                            case "getId":
+                                return id;
+
+                            case "getAuthority":
+                                return authority;
+
+                            case "getClaims":
+                                return claims;
+
+                            case "getUsername":
+                                return claims.get("preferred_username");
+
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+
+                            case "equals":
+                                return proxy == args[0];
+
+                            case "toString":
+                                return "IAccount(" + id + ")";
+
+                            default:
+                                return null;
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Returns a recorded MSGraph response body, from the resources next to this class.
+     */
+    @NonNull
+    static byte[] readPayload(@NonNull final String name) throws IOException {
+        final InputStream in = BenchmarkFixtures.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Missing payload: " + name);
+        }
+
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
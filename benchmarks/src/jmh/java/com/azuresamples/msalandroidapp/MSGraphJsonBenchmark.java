@@ -0,0 +1,99 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.azuresamples.msalandroidapp;
+
+import android.util.JsonReader;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Benchmarks decoding recorded MSGraph responses: a page of 100 users and a single /me.
+ * <p>
+ * A collection is either parsed whole into a JSONObject, as {@link MSGraphJsonObjectRequest} does,
+ * or streamed item by item, as {@link MSGraphStreamingRequest} does.
+ */
+@State(Scope.Benchmark)
+public class MSGraphJsonBenchmark {
+    private static final String CHARSET = "UTF-8";
+
+    private static final String ME_URL = "https://graph.microsoft.com/v1.0/me?$select=displayName,mail,jobTitle";
+    private static final String USERS_URL = "https://graph.microsoft.com/v1.0/users?$select=displayName,mail&$top=100";
+
+    private byte[] mUsersPage;
+    private byte[] mMe;
+    private JSONObject mParsedUsersPage;
+    private JSONObject mParsedMe;
+
+    @Setup
+    public void setUp() throws IOException, JSONException {
+        mUsersPage = BenchmarkFixtures.readPayload("users-page.json");
+        mMe = BenchmarkFixtures.readPayload("me.json");
+        mParsedUsersPage = new JSONObject(new String(mUsersPage, CHARSET));
+        mParsedMe = new JSONObject(new String(mMe, CHARSET));
+    }
+
+    @Benchmark
+    public JSONObject parseCollection() throws IOException, JSONException {
+        return new JSONObject(new String(mUsersPage, CHARSET));
+    }
+
+    @Benchmark
+    public MSGraphStreamingRequest.Result streamCollection(final Blackhole blackhole) throws IOException, JSONException {
+        final JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(mUsersPage), CHARSET));
+        return MSGraphStreamingRequest.readCollection(reader, new MSGraphStreamingRequest.ItemListener() {
+            @Override
+            public void onItem(@NonNull final JSONObject item) {
+                blackhole.consume(item);
+            }
+        });
+    }
+
+    @Benchmark
+    public JSONObject parseItem() throws IOException, JSONException {
+        return new JSONObject(new String(mMe, CHARSET));
+    }
+
+    @Benchmark
+    public JSONObject decodeProjectedCollection() {
+        return MSGraphQuery.decodeResponse(USERS_URL, mParsedUsersPage);
+    }
+
+    @Benchmark
+    public JSONObject decodeProjectedItem() {
+        return MSGraphQuery.decodeResponse(ME_URL, mParsedMe);
+    }
+}